@@ -0,0 +1,346 @@
+package org.hammerhead226.sharkmacro;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Base class for {@link Codec}s that store their objects in SharkMacro's
+ * versioned binary format. Files are read through a
+ * {@link java.nio.MappedByteBuffer MappedByteBuffer}, so loading a file is a
+ * series of bulk copies into primitive arrays with no text parsing.
+ * <p>
+ * Every file starts with an {@value #HEADER_BYTES} byte little-endian header:
+ * <p>
+ * <center>
+ * {@code [ <int magic number>, <short format version>, <short reserved> ]}
+ * </center>
+ * </p>
+ * followed by a body whose layout is defined by the subclass.
+ * <p>
+ * Magic numbers, here and in SharkMacro's other binary files such as
+ * {@link RoutineBundle} and the recording journal, are four ASCII letters read
+ * as a big-endian int, so {@code 0x534D5046} is {@code SMPF}. Like every other
+ * number, the int is stored little-endian, so the letters appear reversed, as
+ * {@code FPMS}, in a hex dump of the file.
+ *
+ * @param <T>
+ *            the type of object this codec reads and writes
+ */
+public abstract class BinaryCodec<T> implements Codec<T> {
+
+	/**
+	 * Size of the common file header, in bytes.
+	 */
+	public static final int HEADER_BYTES = 8;
+
+	/**
+	 * Number identifying the type of object stored in a file.
+	 */
+	private final int magic;
+
+	/**
+	 * Newest body layout version this codec can read, and the version it writes.
+	 */
+	private final int version;
+
+	/**
+	 * Constructs a new {@link BinaryCodec}.
+	 *
+	 * @param magic
+	 *            number identifying the type of object stored in a file
+	 * @param version
+	 *            newest body layout version this codec can read and write
+	 */
+	protected BinaryCodec(int magic, int version) {
+		this.magic = magic;
+		this.version = version;
+	}
+
+	@Override
+	public String getExtension() {
+		return Constants.BINARY_EXTENSION;
+	}
+
+	/**
+	 * @return the number identifying the type of object stored in this codec's
+	 *         files
+	 */
+	public int getMagic() {
+		return magic;
+	}
+
+	@Override
+	public T read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return decode(buf);
+		}
+	}
+
+	@Override
+	public void write(Path file, T data) throws IOException {
+		ByteBuffer buf = encode(data);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+		}
+	}
+
+	/**
+	 * Decodes an object from a buffer positioned at the start of its header.
+	 *
+	 * @param buf
+	 *            the buffer to decode
+	 * @return the decoded object
+	 * @throws IOException
+	 *             if the buffer doesn't hold a supported file of this type
+	 */
+	public T decode(ByteBuffer buf) throws IOException {
+		return decodeBody(buf, readHeader(buf));
+	}
+
+	/**
+	 * Sets a buffer to little-endian and reads and checks the header at its
+	 * position.
+	 *
+	 * @param buf
+	 *            the buffer to read from, positioned at the start of the header
+	 * @return the body layout version of the file
+	 * @throws IOException
+	 *             if the buffer doesn't hold a supported file of this type
+	 */
+	protected int readHeader(ByteBuffer buf) throws IOException {
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		require(buf, HEADER_BYTES);
+		if (buf.getInt() != magic) {
+			throw new IOException("Not a SharkMacro binary file of the expected type");
+		}
+		int fileVersion = buf.getShort();
+		buf.getShort();
+		if (fileVersion < 1 || fileVersion > version) {
+			throw new IOException("Unsupported binary format version: " + fileVersion);
+		}
+		return fileVersion;
+	}
+
+	/**
+	 * Encodes an object into a new buffer, header included. The returned buffer is
+	 * flipped and ready to be written.
+	 *
+	 * @param data
+	 *            the object to encode
+	 * @return the encoded object
+	 */
+	public ByteBuffer encode(T data) {
+		ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + bodySize(data)).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(magic);
+		buf.putShort((short) version);
+		buf.putShort((short) 0);
+		encodeBody(data, buf);
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * @param data
+	 *            the object to be encoded
+	 * @return the exact number of bytes {@link #encodeBody(Object, ByteBuffer)}
+	 *         will write for the given object
+	 */
+	protected abstract int bodySize(T data);
+
+	/**
+	 * Writes the body of the given object into a buffer.
+	 *
+	 * @param data
+	 *            the object to encode
+	 * @param buf
+	 *            the little-endian buffer to write to
+	 */
+	protected abstract void encodeBody(T data, ByteBuffer buf);
+
+	/**
+	 * Reads the body of an object from a buffer positioned just after the header.
+	 *
+	 * @param buf
+	 *            the little-endian buffer to read from
+	 * @param version
+	 *            the body layout version read from the header
+	 * @return the decoded object
+	 * @throws IOException
+	 *             if the body is malformed or truncated
+	 */
+	protected abstract T decodeBody(ByteBuffer buf, int version) throws IOException;
+
+	/**
+	 * Checks that a buffer has at least the given number of bytes left to read.
+	 *
+	 * @param buf
+	 *            the buffer to check
+	 * @param bytes
+	 *            the number of bytes about to be read
+	 * @throws IOException
+	 *             if the buffer is too short
+	 */
+	protected static void require(ByteBuffer buf, long bytes) throws IOException {
+		if (bytes < 0 || buf.remaining() < bytes) {
+			throw new IOException("Truncated SharkMacro binary file");
+		}
+	}
+
+	/**
+	 * Bulk copies a column of doubles out of a buffer and advances its position.
+	 *
+	 * @param buf
+	 *            the buffer to read from
+	 * @param column
+	 *            the array to fill
+	 * @throws IOException
+	 *             if the buffer is too short
+	 */
+	protected static void getDoubles(ByteBuffer buf, double[] column) throws IOException {
+		require(buf, (long) column.length * Double.BYTES);
+		buf.asDoubleBuffer().get(column);
+		buf.position(buf.position() + column.length * Double.BYTES);
+	}
+
+	/**
+	 * Bulk copies a column of doubles into a buffer and advances its position.
+	 *
+	 * @param buf
+	 *            the buffer to write to
+	 * @param column
+	 *            the values to write
+	 */
+	protected static void putDoubles(ByteBuffer buf, double[] column) {
+		buf.asDoubleBuffer().put(column);
+		buf.position(buf.position() + column.length * Double.BYTES);
+	}
+
+	/**
+	 * Bulk copies a column of ints out of a buffer and advances its position.
+	 *
+	 * @param buf
+	 *            the buffer to read from
+	 * @param column
+	 *            the array to fill
+	 * @throws IOException
+	 *             if the buffer is too short
+	 */
+	protected static void getInts(ByteBuffer buf, int[] column) throws IOException {
+		require(buf, (long) column.length * Integer.BYTES);
+		buf.asIntBuffer().get(column);
+		buf.position(buf.position() + column.length * Integer.BYTES);
+	}
+
+	/**
+	 * Bulk copies a column of ints into a buffer and advances its position.
+	 *
+	 * @param buf
+	 *            the buffer to write to
+	 * @param column
+	 *            the values to write
+	 */
+	protected static void putInts(ByteBuffer buf, int[] column) {
+		buf.asIntBuffer().put(column);
+		buf.position(buf.position() + column.length * Integer.BYTES);
+	}
+
+	/**
+	 * Reads a length-prefixed UTF-8 string.
+	 *
+	 * @param buf
+	 *            the buffer to read from
+	 * @return the decoded string
+	 * @throws IOException
+	 *             if the buffer is too short
+	 */
+	protected static String getString(ByteBuffer buf) throws IOException {
+		require(buf, Short.BYTES);
+		int length = buf.getShort() & 0xFFFF;
+		require(buf, length);
+		byte[] bytes = new byte[length];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes a length-prefixed UTF-8 string.
+	 *
+	 * @param buf
+	 *            the buffer to write to
+	 * @param bytes
+	 *            the UTF-8 encoded string, at most 65535 bytes long
+	 */
+	protected static void putString(ByteBuffer buf, byte[] bytes) {
+		buf.putShort((short) bytes.length);
+		buf.put(bytes);
+	}
+
+	/**
+	 * Writes a signed number as a zigzag-encoded variable-length integer, which
+	 * takes one byte for numbers between {@code -64} and {@code 63} and one more
+	 * byte for every further 7 bits.
+	 *
+	 * @param buf
+	 *            the buffer to write to
+	 * @param value
+	 *            the number to write
+	 */
+	protected static void putVarLong(ByteBuffer buf, long value) {
+		long zigzag = (value << 1) ^ (value >> 63);
+		while ((zigzag & ~0x7FL) != 0) {
+			buf.put((byte) ((zigzag & 0x7F) | 0x80));
+			zigzag >>>= 7;
+		}
+		buf.put((byte) zigzag);
+	}
+
+	/**
+	 * Reads a number written by {@link #putVarLong(ByteBuffer, long)}.
+	 *
+	 * @param buf
+	 *            the buffer to read from
+	 * @return the number
+	 * @throws IOException
+	 *             if the buffer ends partway through the number or the number is
+	 *             longer than 64 bits
+	 */
+	protected static long getVarLong(ByteBuffer buf) throws IOException {
+		long zigzag = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			require(buf, 1);
+			byte b = buf.get();
+			zigzag |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+			}
+		}
+		throw new IOException("Malformed variable-length integer");
+	}
+
+	/**
+	 * @param value
+	 *            a number
+	 * @return the number of bytes {@link #putVarLong(ByteBuffer, long)} writes for
+	 *         the number
+	 */
+	protected static int varLongSize(long value) {
+		long zigzag = (value << 1) ^ (value >> 63);
+		int size = 1;
+		while ((zigzag & ~0x7FL) != 0) {
+			zigzag >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+}
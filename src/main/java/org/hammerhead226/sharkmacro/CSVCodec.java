@@ -0,0 +1,18 @@
+package org.hammerhead226.sharkmacro;
+
+/**
+ * Base class for {@link Codec}s that store their objects as csv files, one
+ * object row per line. Files are read with a {@link CSVStreamReader} and written
+ * with a {@link CSVStreamWriter}.
+ *
+ * @param <T>
+ *            the type of object this codec reads and writes
+ */
+public abstract class CSVCodec<T> implements Codec<T> {
+
+	@Override
+	public String getExtension() {
+		return Constants.CSV_EXTENSION;
+	}
+
+}
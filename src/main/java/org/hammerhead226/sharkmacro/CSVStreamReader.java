@@ -0,0 +1,505 @@
+package org.hammerhead226.sharkmacro;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a csv file one field at a time. The file is read in chunks of
+ * {@value org.hammerhead226.sharkmacro.Constants#CSV_CHUNK_BYTES} bytes
+ * through a {@link java.nio.channels.FileChannel FileChannel}, and numeric
+ * fields are parsed straight from those bytes, so no {@link java.lang.String
+ * String}s are created for rows or numbers.
+ * <p>
+ * Fields may be bare or wrapped in {@link Constants#QUOTECHAR}, as written by
+ * OpenCSV. Inside a quoted field, {@link Constants#ESCAPECHAR} or a doubled
+ * quote escapes the next character. Blank lines are skipped.
+ * <p>
+ * Typical use:
+ *
+ * <pre>
+ * while (reader.nextRow()) {
+ * 	double position = reader.nextDouble();
+ * 	double velocity = reader.nextDouble();
+ * }
+ * </pre>
+ */
+public class CSVStreamReader implements Closeable {
+
+	/**
+	 * Powers of ten that are exactly representable as a {@code double}.
+	 */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/**
+	 * Largest mantissa that can be converted to a {@code double} without
+	 * rounding.
+	 */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	/**
+	 * Longest numeric field, in bytes, that will be parsed.
+	 */
+	private static final int MAX_NUMBER_LENGTH = 64;
+
+	/**
+	 * Value returned by {@link #peek()} at the end of the file.
+	 */
+	private static final int EOF = -1;
+
+	/**
+	 * The file being read.
+	 */
+	private final Path file;
+
+	/**
+	 * Channel the file is read through.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Buffer wrapping {@link #chunk}, reused for every read.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * The most recently read chunk of the file.
+	 */
+	private final byte[] chunk;
+
+	/**
+	 * Index of the next unread byte in {@link #chunk}.
+	 */
+	private int pos = 0;
+
+	/**
+	 * Number of valid bytes in {@link #chunk}.
+	 */
+	private int limit = 0;
+
+	/**
+	 * Whether the whole file has been read into {@link #chunk}.
+	 */
+	private boolean endOfFile = false;
+
+	/**
+	 * Bytes of the numeric field currently being parsed. Only used if the field
+	 * has to be handed to {@link Double#parseDouble(String)}.
+	 */
+	private final byte[] number = new byte[MAX_NUMBER_LENGTH];
+
+	/**
+	 * Reused to build string fields.
+	 */
+	private final StringBuilder sb = new StringBuilder();
+
+	/**
+	 * Line number of the current row, starting at 1.
+	 */
+	private int rowNumber = 1;
+
+	/**
+	 * Whether {@link #nextRow()} has been called yet.
+	 */
+	private boolean started = false;
+
+	/**
+	 * Whether every field of the current row has been read.
+	 */
+	private boolean endOfRow = true;
+
+	/**
+	 * Opens a file for reading.
+	 *
+	 * @param file
+	 *            the csv file to read
+	 * @throws IOException
+	 *             if the file can't be opened
+	 */
+	public CSVStreamReader(Path file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.chunk = new byte[Constants.CSV_CHUNK_BYTES];
+		this.buffer = ByteBuffer.wrap(chunk);
+	}
+
+	/**
+	 * Skips any unread fields of the current row and moves to the next row that
+	 * isn't blank.
+	 *
+	 * @return {@code true} if there is another row, {@code false} at the end of
+	 *         the file
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	public boolean nextRow() throws IOException {
+		int c;
+		if (started) {
+			while ((c = peek()) != EOF && c != '\n') {
+				if (c == Constants.QUOTECHAR) {
+					skipQuoted();
+				} else {
+					pos++;
+				}
+			}
+		}
+		while ((c = peek()) == '\n' || c == '\r') {
+			if (c == '\n') {
+				rowNumber++;
+			}
+			pos++;
+		}
+		started = true;
+		endOfRow = c == EOF;
+		return !endOfRow;
+	}
+
+	/**
+	 * @return {@code true} if the current row has another field to read
+	 */
+	public boolean hasNextField() {
+		return !endOfRow;
+	}
+
+	/**
+	 * @return the line number of the current row, starting at 1
+	 */
+	public int getRowNumber() {
+		return rowNumber;
+	}
+
+	/**
+	 * Reads the next field of the current row as a number.
+	 *
+	 * @return the parsed number
+	 * @throws IOException
+	 *             if the row has no more fields or the field isn't a number
+	 */
+	public double nextDouble() throws IOException {
+		startField();
+		skipSpaces();
+		boolean quoted = peek() == Constants.QUOTECHAR;
+		if (quoted) {
+			pos++;
+			skipSpaces();
+		}
+
+		int length = 0;
+		boolean negative = false;
+		long mantissa = 0;
+		int significantDigits = 0;
+		int exponent = 0;
+		boolean anyDigits = false;
+		boolean exact = true;
+
+		int c = peek();
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			length = append(length, c);
+			c = peek();
+		}
+		// Integer part
+		while (c >= '0' && c <= '9') {
+			anyDigits = true;
+			if (significantDigits < 18) {
+				mantissa = mantissa * 10 + (c - '0');
+				if (mantissa != 0) {
+					significantDigits++;
+				}
+			} else {
+				exponent++;
+				exact &= c == '0';
+			}
+			length = append(length, c);
+			c = peek();
+		}
+		// Fractional part
+		if (c == '.') {
+			length = append(length, c);
+			c = peek();
+			while (c >= '0' && c <= '9') {
+				anyDigits = true;
+				if (significantDigits < 18) {
+					mantissa = mantissa * 10 + (c - '0');
+					exponent--;
+					if (mantissa != 0) {
+						significantDigits++;
+					}
+				} else {
+					exact &= c == '0';
+				}
+				length = append(length, c);
+				c = peek();
+			}
+		}
+		// Exponent
+		if (anyDigits && (c == 'e' || c == 'E')) {
+			length = append(length, c);
+			c = peek();
+			boolean negativeExponent = false;
+			if (c == '-' || c == '+') {
+				negativeExponent = c == '-';
+				length = append(length, c);
+				c = peek();
+			}
+			int e = 0;
+			boolean anyExponentDigits = false;
+			while (c >= '0' && c <= '9') {
+				anyExponentDigits = true;
+				if (e < 10000) {
+					e = e * 10 + (c - '0');
+				}
+				length = append(length, c);
+				c = peek();
+			}
+			if (!anyExponentDigits) {
+				throw malformed("number");
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+		// Anything else, such as NaN or Infinity, is collected for the slow path
+		while (c != EOF && c != Constants.SEPARATOR && c != Constants.QUOTECHAR && c != '\n' && c != '\r'
+				&& c != ' ' && c != '\t') {
+			anyDigits = false;
+			length = append(length, c);
+			c = peek();
+		}
+
+		double value;
+		if (anyDigits && exact && mantissa < MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+			value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+			if (negative) {
+				value = -value;
+			}
+		} else if (length == 0) {
+			throw malformed("number");
+		} else {
+			try {
+				value = Double.parseDouble(new String(number, 0, length, StandardCharsets.US_ASCII));
+			} catch (NumberFormatException e) {
+				throw malformed("number");
+			}
+		}
+
+		skipSpaces();
+		if (quoted) {
+			if (peek() != Constants.QUOTECHAR) {
+				throw malformed("number");
+			}
+			pos++;
+			skipSpaces();
+		}
+		endField();
+		return value;
+	}
+
+	/**
+	 * Reads the next field of the current row as a string.
+	 *
+	 * @return the field, with any quoting removed
+	 * @throws IOException
+	 *             if the row has no more fields
+	 */
+	public String nextString() throws IOException {
+		startField();
+		sb.setLength(0);
+		skipSpaces();
+		int c = peek();
+		if (c == Constants.QUOTECHAR) {
+			pos++;
+			while (true) {
+				c = peek();
+				if (c == EOF) {
+					throw malformed("quoted string");
+				}
+				pos++;
+				if (c == Constants.ESCAPECHAR) {
+					c = peek();
+					if (c == EOF) {
+						throw malformed("quoted string");
+					}
+					pos++;
+				} else if (c == Constants.QUOTECHAR) {
+					if (peek() != Constants.QUOTECHAR) {
+						break;
+					}
+					pos++;
+				}
+				sb.append((char) c);
+			}
+			skipSpaces();
+		} else {
+			while (c != EOF && c != Constants.SEPARATOR && c != '\n' && c != '\r') {
+				sb.append((char) c);
+				pos++;
+				c = peek();
+			}
+			int end = sb.length();
+			while (end > 0 && sb.charAt(end - 1) == ' ') {
+				end--;
+			}
+			sb.setLength(end);
+		}
+		endField();
+		return decodeUTF8(sb);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Throws if there are no more fields in the current row.
+	 *
+	 * @throws IOException
+	 *             if the current row has ended
+	 */
+	private void startField() throws IOException {
+		if (endOfRow) {
+			throw new IOException("Missing field on row " + rowNumber + " of " + file);
+		}
+	}
+
+	/**
+	 * Consumes the separator after a field, or marks the end of the row.
+	 *
+	 * @throws IOException
+	 *             if the field is followed by anything other than a separator or
+	 *             the end of the row
+	 */
+	private void endField() throws IOException {
+		int c = peek();
+		if (c == Constants.SEPARATOR) {
+			pos++;
+		} else if (c == EOF || c == '\n' || c == '\r') {
+			endOfRow = true;
+		} else {
+			throw malformed("field");
+		}
+	}
+
+	/**
+	 * Consumes a quoted field without storing it.
+	 *
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	private void skipQuoted() throws IOException {
+		pos++;
+		int c;
+		while ((c = peek()) != EOF) {
+			pos++;
+			if (c == Constants.ESCAPECHAR) {
+				if (peek() != EOF) {
+					pos++;
+				}
+			} else if (c == Constants.QUOTECHAR) {
+				if (peek() != Constants.QUOTECHAR) {
+					return;
+				}
+				pos++;
+			}
+		}
+	}
+
+	/**
+	 * Consumes spaces and tabs.
+	 *
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	private void skipSpaces() throws IOException {
+		int c;
+		while ((c = peek()) == ' ' || c == '\t') {
+			pos++;
+		}
+	}
+
+	/**
+	 * Consumes a byte of a numeric field, keeping a copy of it in
+	 * {@link #number}.
+	 *
+	 * @param length
+	 *            number of bytes of the field read so far
+	 * @param c
+	 *            the byte to consume
+	 * @return the new number of bytes read
+	 * @throws IOException
+	 *             if the field is too long to be a number
+	 */
+	private int append(int length, int c) throws IOException {
+		if (length == MAX_NUMBER_LENGTH) {
+			throw malformed("number");
+		}
+		number[length] = (byte) c;
+		pos++;
+		return length + 1;
+	}
+
+	/**
+	 * Returns the next unread byte without consuming it, reading the next chunk
+	 * of the file if needed.
+	 *
+	 * @return the next byte, or {@link #EOF} at the end of the file
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	private int peek() throws IOException {
+		if (pos < limit) {
+			return chunk[pos] & 0xFF;
+		}
+		while (!endOfFile) {
+			buffer.clear();
+			int read = channel.read(buffer);
+			if (read < 0) {
+				endOfFile = true;
+			} else if (read > 0) {
+				pos = 0;
+				limit = read;
+				return chunk[0] & 0xFF;
+			}
+		}
+		return EOF;
+	}
+
+	/**
+	 * Decodes a string field whose bytes were stored one per char. Fields that are
+	 * plain ASCII, like command class names, are returned as is.
+	 *
+	 * @param raw
+	 *            the field's bytes
+	 * @return the decoded field
+	 */
+	private static String decodeUTF8(StringBuilder raw) {
+		byte[] bytes = null;
+		for (int i = 0; i < raw.length(); i++) {
+			if (raw.charAt(i) > 0x7F) {
+				bytes = new byte[raw.length()];
+				break;
+			}
+		}
+		if (bytes == null) {
+			return raw.toString();
+		}
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) raw.charAt(i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param what
+	 *            description of the field being read
+	 * @return an exception describing a malformed field on the current row
+	 */
+	private IOException malformed(String what) {
+		return new IOException("Malformed " + what + " on row " + rowNumber + " of " + file);
+	}
+
+}
@@ -0,0 +1,300 @@
+package org.hammerhead226.sharkmacro;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a csv file one field at a time. Fields are formatted straight into a
+ * reused {@value org.hammerhead226.sharkmacro.Constants#CSV_CHUNK_BYTES} byte
+ * buffer, which is written to a {@link java.nio.channels.FileChannel
+ * FileChannel} each time it fills up, so no {@link java.lang.String String}s
+ * are created for rows or whole numbers.
+ * <p>
+ * Numbers are written bare. Strings are only wrapped in
+ * {@link Constants#QUOTECHAR} if they contain a character that would otherwise
+ * be misread, in which case quotes and {@link Constants#ESCAPECHAR}s inside
+ * them are escaped with {@code ESCAPECHAR}. Files written by this class can be
+ * read back with {@link CSVStreamReader}.
+ */
+public class CSVStreamWriter implements Closeable {
+
+	/**
+	 * Whole numbers smaller than this in magnitude are formatted without going
+	 * through {@link java.lang.StringBuilder StringBuilder}.
+	 */
+	private static final double MAX_FAST_WHOLE_NUMBER = 1L << 53;
+
+	/**
+	 * Channel the file is written through.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Buffer wrapping {@link #chunk}, reused for every write.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * Bytes waiting to be written to {@link #channel}.
+	 */
+	private final byte[] chunk;
+
+	/**
+	 * Number of bytes in {@link #chunk} waiting to be written.
+	 */
+	private int pos = 0;
+
+	/**
+	 * Scratch space for the digits of a whole number, least significant first.
+	 */
+	private final byte[] digits = new byte[20];
+
+	/**
+	 * Reused to format numbers that aren't whole and quoted strings.
+	 */
+	private final StringBuilder sb = new StringBuilder();
+
+	/**
+	 * Whether the next field is the first in its row.
+	 */
+	private boolean startOfRow = true;
+
+	/**
+	 * Opens a file for writing, replacing it if it already exists.
+	 *
+	 * @param file
+	 *            the csv file to write
+	 * @throws IOException
+	 *             if the file can't be opened
+	 */
+	public CSVStreamWriter(Path file) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.chunk = new byte[Constants.CSV_CHUNK_BYTES];
+		this.buffer = ByteBuffer.wrap(chunk);
+	}
+
+	/**
+	 * Writes a number as the next field of the current row.
+	 *
+	 * @param value
+	 *            the number to write
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public void writeDouble(double value) throws IOException {
+		startField();
+		if (value == Math.rint(value) && Math.abs(value) < MAX_FAST_WHOLE_NUMBER
+				&& Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(-0.0)) {
+			putLong((long) value);
+			put('.');
+			put('0');
+		} else {
+			sb.setLength(0);
+			sb.append(value);
+			putASCII(sb);
+		}
+	}
+
+	/**
+	 * Writes a whole number as the next field of the current row.
+	 *
+	 * @param value
+	 *            the number to write
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public void writeLong(long value) throws IOException {
+		startField();
+		putLong(value);
+	}
+
+	/**
+	 * Writes a string as the next field of the current row.
+	 *
+	 * @param value
+	 *            the string to write
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public void writeString(String value) throws IOException {
+		startField();
+		if (!needsQuotes(value)) {
+			putUTF8(value);
+			return;
+		}
+		sb.setLength(0);
+		sb.append(Constants.QUOTECHAR);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == Constants.QUOTECHAR || c == Constants.ESCAPECHAR) {
+				sb.append(Constants.ESCAPECHAR);
+			}
+			sb.append(c);
+		}
+		sb.append(Constants.QUOTECHAR);
+		putUTF8(sb.toString());
+	}
+
+	/**
+	 * Ends the current row.
+	 *
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public void endRow() throws IOException {
+		for (int i = 0; i < Constants.NEWLINE.length(); i++) {
+			put(Constants.NEWLINE.charAt(i));
+		}
+		startOfRow = true;
+	}
+
+	/**
+	 * Writes any buffered bytes to the file.
+	 *
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public void flush() throws IOException {
+		buffer.clear();
+		buffer.limit(pos);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		pos = 0;
+	}
+
+	/**
+	 * Writes any buffered bytes and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes a separator if this isn't the first field of the row.
+	 *
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	private void startField() throws IOException {
+		if (!startOfRow) {
+			put(Constants.SEPARATOR);
+		}
+		startOfRow = false;
+	}
+
+	/**
+	 * Formats a whole number into the buffer.
+	 *
+	 * @param value
+	 *            the number to format
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	private void putLong(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			sb.setLength(0);
+			sb.append(value);
+			putASCII(sb);
+			return;
+		}
+		if (value < 0) {
+			put('-');
+			value = -value;
+		}
+		int n = 0;
+		do {
+			digits[n++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		while (n > 0) {
+			put(digits[--n]);
+		}
+	}
+
+	/**
+	 * Copies ASCII characters into the buffer.
+	 *
+	 * @param chars
+	 *            the characters to copy
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	private void putASCII(CharSequence chars) throws IOException {
+		for (int i = 0; i < chars.length(); i++) {
+			put(chars.charAt(i));
+		}
+	}
+
+	/**
+	 * Copies a string into the buffer as UTF-8.
+	 *
+	 * @param s
+	 *            the string to copy
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	private void putUTF8(String s) throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) > 0x7F) {
+				for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+					put(b);
+				}
+				return;
+			}
+		}
+		putASCII(s);
+	}
+
+	/**
+	 * Adds a byte to the buffer, writing the buffer to the file first if it is
+	 * full.
+	 *
+	 * @param b
+	 *            the byte to add
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	private void put(int b) throws IOException {
+		if (pos == chunk.length) {
+			flush();
+		}
+		chunk[pos++] = (byte) b;
+	}
+
+	/**
+	 * @param value
+	 *            a string field
+	 * @return {@code true} if the field has to be quoted to be read back
+	 *         correctly
+	 */
+	private static boolean needsQuotes(String value) {
+		if (value.isEmpty()) {
+			return false;
+		}
+		// The reader drops whitespace around unquoted fields
+		if (Character.isWhitespace(value.charAt(0)) || Character.isWhitespace(value.charAt(value.length() - 1))) {
+			return true;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == Constants.SEPARATOR || c == Constants.QUOTECHAR || c == Constants.ESCAPECHAR || c == '\n'
+					|| c == '\r') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,137 @@
+package org.hammerhead226.sharkmacro;
+
+/**
+ * A snapshot of the size and hit counters of {@link Parser}'s cache, as
+ * returned by {@link Parser#getCacheStatistics()}.
+ */
+public final class CacheStatistics {
+
+	/**
+	 * Number of files in the cache.
+	 */
+	private final int entryCount;
+
+	/**
+	 * Number of files in the cache that are pinned.
+	 */
+	private final int pinnedCount;
+
+	/**
+	 * Estimated heap cost of every cached file, in bytes.
+	 */
+	private final long bytesUsed;
+
+	/**
+	 * Maximum number of bytes the cache will hold.
+	 */
+	private final long byteBudget;
+
+	/**
+	 * Number of reads that were served from the cache.
+	 */
+	private final long hits;
+
+	/**
+	 * Number of reads that had to decode the file.
+	 */
+	private final long misses;
+
+	/**
+	 * Number of files evicted to stay within the byte budget.
+	 */
+	private final long evictions;
+
+	CacheStatistics(int entryCount, int pinnedCount, long bytesUsed, long byteBudget, long hits, long misses,
+			long evictions) {
+		this.entryCount = entryCount;
+		this.pinnedCount = pinnedCount;
+		this.bytesUsed = bytesUsed;
+		this.byteBudget = byteBudget;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+	}
+
+	/**
+	 * @return the number of files in the cache
+	 */
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * @return the number of files in the cache that are pinned
+	 */
+	public int getPinnedCount() {
+		return pinnedCount;
+	}
+
+	/**
+	 * @return the estimated heap cost of every cached file, in bytes
+	 */
+	public long getBytesUsed() {
+		return bytesUsed;
+	}
+
+	/**
+	 * @return the maximum number of bytes the cache will hold
+	 */
+	public long getByteBudget() {
+		return byteBudget;
+	}
+
+	/**
+	 * @return the number of reads that were served from the cache
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of reads that had to decode the file
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of files evicted to stay within the byte budget
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return the fraction of reads served from the cache, or {@code 0} if there
+	 *         haven't been any reads
+	 */
+	public double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0.0 : (double) hits / total;
+	}
+
+	/**
+	 * Generates a string representation of these statistics.
+	 *
+	 * @return the string representation
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(entryCount);
+		sb.append(" entries (");
+		sb.append(pinnedCount);
+		sb.append(" pinned), ");
+		sb.append(bytesUsed);
+		sb.append("/");
+		sb.append(byteBudget);
+		sb.append(" bytes, ");
+		sb.append(hits);
+		sb.append(" hits, ");
+		sb.append(misses);
+		sb.append(" misses, ");
+		sb.append(evictions);
+		sb.append(" evictions");
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,152 @@
+package org.hammerhead226.sharkmacro;
+
+/**
+ * A description of one saved file in a storage directory, as listed by
+ * {@code ProfileParser.getCatalog()} and {@code ActionListParser.getCatalog()}.
+ */
+public final class CatalogEntry {
+
+	/**
+	 * Name of the file, without its directory.
+	 */
+	private final String filename;
+
+	/**
+	 * Number of the file in the prefix + number naming convention, or {@code -1}
+	 * if it isn't named that way.
+	 */
+	private final int number;
+
+	/**
+	 * Size of the file, in bytes.
+	 */
+	private final long size;
+
+	/**
+	 * Last modified time of the file, in milliseconds since the epoch.
+	 */
+	private final long modified;
+
+	/**
+	 * Number of points or actions in the file, or {@code -1} if it couldn't be
+	 * read or hasn't been read yet.
+	 */
+	private final int pointCount;
+
+	/**
+	 * Length of the recording, in seconds, or {@code NaN} if the file hasn't been
+	 * read yet.
+	 */
+	private final double duration;
+
+	CatalogEntry(String filename, int number, long size, long modified, int pointCount, double duration) {
+		this.filename = filename;
+		this.number = number;
+		this.size = size;
+		this.modified = modified;
+		this.pointCount = pointCount;
+		this.duration = duration;
+	}
+
+	/**
+	 * Creates an entry for a file that has only been listed, not read.
+	 *
+	 * @param filename
+	 *            name of the file, without its directory
+	 * @param number
+	 *            number of the file, or {@code -1}
+	 * @param size
+	 *            size of the file, in bytes
+	 * @param modified
+	 *            last modified time of the file, in milliseconds
+	 * @return the entry
+	 */
+	static CatalogEntry listed(String filename, int number, long size, long modified) {
+		return new CatalogEntry(filename, number, size, modified, -1, Double.NaN);
+	}
+
+	/**
+	 * @return the name of the file, without its directory
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * @return the number of the file in the prefix + number naming convention, or
+	 *         {@code -1} if it isn't named that way
+	 */
+	public int getNumber() {
+		return number;
+	}
+
+	/**
+	 * @return the size of the file, in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the last modified time of the file, in milliseconds since the epoch
+	 */
+	public long getModified() {
+		return modified;
+	}
+
+	/**
+	 * @return the number of motion profile points or actions in the file, or
+	 *         {@code -1} if the file couldn't be read or hasn't been read yet
+	 */
+	public int getPointCount() {
+		return pointCount;
+	}
+
+	/**
+	 * @return the length of the recording, in seconds, or {@code NaN} if the file
+	 *         hasn't been read yet
+	 */
+	public double getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Files found by listing the directory, rather than saved by SharkMacro, are
+	 * read on a background thread to find their point count and duration.
+	 *
+	 * @return {@code true} if the point count and duration are known
+	 */
+	public boolean isDescribed() {
+		return !Double.isNaN(duration);
+	}
+
+	/**
+	 * @return the extension of the file, which decides the {@link Codec} it is read
+	 *         with
+	 */
+	public String getFormat() {
+		int dot = filename.lastIndexOf('.');
+		return dot < 0 ? "" : filename.substring(dot);
+	}
+
+	/**
+	 * Generates a string representation of this entry.
+	 *
+	 * @return the string representation
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(filename);
+		sb.append(": ");
+		if (isDescribed()) {
+			sb.append(pointCount);
+			sb.append(" points, ");
+			sb.append(duration);
+			sb.append(" s, ");
+		}
+		sb.append(size);
+		sb.append(" bytes");
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,46 @@
+package org.hammerhead226.sharkmacro;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Reads and writes one on-disk representation of a recorded object. A
+ * {@link Parser} picks the {@link Codec} to use from the extension of the file
+ * it was given.
+ *
+ * @param <T>
+ *            the type of object this codec reads and writes
+ */
+public interface Codec<T> {
+
+	/**
+	 * @return the file extension, including the leading dot, of files written by
+	 *         this {@link Codec}
+	 */
+	String getExtension();
+
+	/**
+	 * Reads and decodes the given file.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @return the decoded object
+	 * @throws IOException
+	 *             if the file can't be read or isn't in this codec's format
+	 */
+	T read(Path file) throws IOException;
+
+	/**
+	 * Encodes the given object and writes it to a file, replacing the file if it
+	 * already exists.
+	 *
+	 * @param file
+	 *            the file to write
+	 * @param data
+	 *            the object to write
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	void write(Path file, T data) throws IOException;
+
+}
@@ -13,20 +13,58 @@ public final class Constants {
 	public static final char ESCAPECHAR = '\\';
 	public static final String NEWLINE = "\n";
 
+	public static final String CSV_EXTENSION = ".csv";
+	public static final String BINARY_EXTENSION = ".bin";
+	public static final String COMPRESSED_EXTENSION = ".smz";
+	public static final String SEGMENTED_EXTENSION = ".sms";
+	public static final String DEFAULT_SAVE_EXTENSION = BINARY_EXTENSION;
+	public static final int CSV_CHUNK_BYTES = 8192;
+
+	public static final long PARSER_CACHE_DEFAULT_BYTE_BUDGET = 16L * 1024L * 1024L;
+	public static final int PARSER_PREWARM_MAX_THREADS = 2;
+	public static final int WRITE_QUEUE_MAX_BATCH = 8;
+	public static final String CATALOG_FILENAME = ".catalog";
+	public static final int WATCHER_DEBOUNCE_MS = 250;
+	public static final String BUNDLE_FILE = "/home/lvuser/routines.smb";
+
 	// Motion profiling
 
 	public static final double DT_MS = 10.0;
 	public static final double DT_SECONDS = DT_MS / 1000.0;
 	public static final int PROFILERECORDER_LIST_DEFAULT_LENGTH = 2500;
+	public static final int PROFILERECORDER_CHUNK_SAMPLES = 500;
+	public static final double PROFILERECORDER_JITTER_BIN_MS = 1.0;
+	public static final int PROFILERECORDER_JITTER_BINS = 20;
+	public static final double PROFILERECORDER_LATE_TICK_MS = 2 * DT_MS;
+	public static final int PROFILERECORDER_VELOCITY_FIT_SAMPLES = 7;
+	public static final int JOURNAL_BATCH_SAMPLES = 50;
+	public static final int JOURNAL_MAX_PENDING_BATCHES = 64;
 
 	public static final String PROFILE_DEFAULT_PREFIX = "profile";
 	public static final String PROFILE_STORAGE_DIRECTORY = "/home/lvuser/profiles";
+	public static final String SEGMENTED_PROFILE_STORAGE_DIRECTORY = "/home/lvuser/segmentedprofiles";
+	public static final String PROFILE_SEGMENT_DIRECTORY = "/home/lvuser/segments";
 
 	public static final int MINIMUM_POINTS_IN_TALON = 5;
 	public static final int TALON_TOP_BUFFER_MAX_COUNT = 512;
 	public static final int TALON_BTM_BUFFER_MAX_COUNT = 128;
 	public static final double ENCODER_COUNTS_PER_REV = 4096.0;
 	public static final int MOTIONCONTROL_FRAME_PERIOD = (int) Math.round((Constants.DT_MS / 2.0));
+	public static final int PROFILE_COMPRESSED_BLOCK_POINTS = 256;
+	public static final int PROFILE_COMPRESSED_MAX_DECIMALS = 3;
+	public static final int PROFILE_STREAM_CHUNK_POINTS = 256;
+	public static final int PROFILE_SEGMENT_MIN_POINTS = 64;
+	public static final int PROFILE_SEGMENT_AVERAGE_POINTS = 256;
+	public static final int PROFILE_SEGMENT_MAX_POINTS = 1024;
+	public static final int PROFILE_MAX_CHANNELS = 16;
+	public static final int PROFILE_DECIMATION_MAX_DURATION_MS = 100;
+	public static final double PROFILE_EXECUTOR_PERIOD_SECONDS = 0.025;
+	public static final double PROFILE_BUFFER_MIN_PERIOD_SECONDS = MOTIONCONTROL_FRAME_PERIOD / 1000.0;
+	public static final double PROFILE_BUFFER_MAX_PERIOD_SECONDS = 0.1;
+	public static final double PROFILE_BUFFER_LEAD_FRACTION = 0.25;
+	public static final double PROFILE_BUFFER_LOW_WATER = 0.25;
+	public static final double PROFILE_BUFFER_HIGH_WATER = 0.75;
+	public static final double PROFILE_DRAIN_RATE_SMOOTHING = 0.3;
 
 	// Actions
 
@@ -35,4 +73,9 @@ public final class Constants {
 	public static final String ACTIONLIST_DEFAULT_PREFIX = "actionlist";
 	public static final String ACTIONLIST_STORAGE_DIRECTORY = "/home/lvuser/actionlists";
 
+	// Tools
+
+	public static final double TOOL_MAX_ENCODER_REVS_PER_SECOND = 25.0;
+	public static final int TOOL_MAX_REPORTED_ISSUES = 10;
+
 }
\ No newline at end of file
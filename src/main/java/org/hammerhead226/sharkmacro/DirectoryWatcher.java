@@ -0,0 +1,167 @@
+package org.hammerhead226.sharkmacro;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Watches storage directories for files that are added, changed or deleted by
+ * other programs, such as an SFTP client, and reloads them in {@link Parser}'s
+ * cache on a background thread.
+ * <p>
+ * A copy over SFTP changes a file many times, so changes are only acted on
+ * once a directory has been quiet for
+ * {@value org.hammerhead226.sharkmacro.Constants#WATCHER_DEBOUNCE_MS} ms. Only
+ * files that are already cached are decoded again; the new version replaces
+ * the old one in a single step, so a reader gets either the old or the new
+ * version and never has to parse the file itself.
+ */
+final class DirectoryWatcher {
+
+	/**
+	 * Notifies this watcher of changes in the watched directories.
+	 */
+	private final WatchService service;
+
+	/**
+	 * The parser factory of each watched directory, keyed by its
+	 * {@link java.nio.file.WatchKey WatchKey}.
+	 */
+	private final ConcurrentHashMap<WatchKey, Registration> registrations = new ConcurrentHashMap<WatchKey, Registration>();
+
+	/**
+	 * Files that have changed since the last reload, keyed by path.
+	 */
+	private final LinkedHashMap<Path, Registration> pending = new LinkedHashMap<Path, Registration>();
+
+	/**
+	 * The thread that waits for changes and reloads files.
+	 */
+	private final Thread thread;
+
+	/**
+	 * Constructs a new {@link DirectoryWatcher} and starts its thread.
+	 *
+	 * @throws IOException
+	 *             if the filesystem can't be watched
+	 */
+	DirectoryWatcher() throws IOException {
+		this.service = FileSystems.getDefault().newWatchService();
+		this.thread = new Thread(this::run, "SharkMacro-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Starts watching a directory.
+	 *
+	 * @param directory
+	 *            the directory to watch
+	 * @param factory
+	 *            creates a parser for a filename in the directory
+	 * @throws IOException
+	 *             if the directory can't be watched
+	 */
+	void watch(Path directory, Function<String, ? extends Parser<?>> factory) throws IOException {
+		WatchKey key = directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		registrations.put(key, new Registration(directory, factory));
+	}
+
+	/**
+	 * Stops watching every directory and ends the thread.
+	 */
+	void close() {
+		try {
+			service.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Collects changed files until the watched directories have been quiet for
+	 * the debounce time, then reloads them. Runs until {@link #close()} is called.
+	 */
+	private void run() {
+		try {
+			while (true) {
+				WatchKey key = pending.isEmpty() ? service.take()
+						: service.poll(Constants.WATCHER_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+				if (key == null) {
+					reloadPending();
+					continue;
+				}
+
+				Registration r = registrations.get(key);
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (r == null) {
+						continue;
+					}
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						// Events were lost, so reload everything cached from the directory
+						String prefix = r.directory + "/";
+						for (String cached : Parser.getCacheKeys()) {
+							if (cached.startsWith(prefix)) {
+								pending.put(r.directory.resolve(cached.substring(prefix.length())), r);
+							}
+						}
+					} else {
+						Path name = (Path) event.context();
+						if (!name.toString().startsWith(".")) {
+							pending.put(r.directory.resolve(name), r);
+						}
+					}
+				}
+				if (!key.reset()) {
+					registrations.remove(key);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			return;
+		}
+	}
+
+	/**
+	 * Reloads every file that changed since the last reload.
+	 */
+	private void reloadPending() {
+		ArrayList<Map.Entry<Path, Registration>> changed = new ArrayList<Map.Entry<Path, Registration>>(
+				pending.entrySet());
+		pending.clear();
+		for (Map.Entry<Path, Registration> e : changed) {
+			try {
+				e.getValue().factory.apply(e.getKey().getFileName().toString()).reload();
+			} catch (RuntimeException ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * A watched directory and the factory for its parsers.
+	 */
+	private static class Registration {
+
+		final Path directory;
+
+		final Function<String, ? extends Parser<?>> factory;
+
+		Registration(Path directory, Function<String, ? extends Parser<?>> factory) {
+			this.directory = directory;
+			this.factory = factory;
+		}
+	}
+
+}
@@ -1,35 +1,58 @@
 package org.hammerhead226.sharkmacro;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-
-import com.opencsv.CSVReader;
-import com.opencsv.CSVWriter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import edu.wpi.first.wpilibj.DriverStation;
 
 /**
- * Class to read and write csv files. This class is extended by two classes,
- * {@link org.hammerhead226.sharkmacro.actions.ActionListParser
+ * Class to read and write recorded files. This class is extended by two
+ * classes, {@link org.hammerhead226.sharkmacro.actions.ActionListParser
  * ActionListParser} and
  * {@link org.hammerhead226.sharkmacro.motionprofiles.ProfileParser
  * ProfileParser}, which call this class's read and write methods and add to
  * {@link #cache}.
+ * <p>
+ * Each subclass supplies a list of {@link Codec}s, one per supported file
+ * format. The codec used for a file is picked from the file's extension. If
+ * the filename has no extension, an existing file with the name and one of the
+ * codecs' extensions is used, in the order the codecs were given. If no such
+ * file exists, the first codec's extension is appended.
+ * <p>
+ * The cache is safe to use from several threads at once. Each file is decoded
+ * only once, even if several threads ask for it at the same time: the first
+ * caller decodes it and the rest wait for and share its result.
+ * <p>
+ * Each storage directory has a {@link StorageCatalog} that records the files
+ * written to it, so file numbers can be found and saved routines listed
+ * without scanning the directory.
  * 
  * @author Alec Minchington
  * @see org.hammerhead226.sharkmacro.actions.ActionListParser ActionListParser
  * @see org.hammerhead226.sharkmacro.motionprofiles.ProfileParser ProfileParser
+ * 
+ * @param <T>
+ *            the type of object read and written by this parser
  */
-public abstract class Parser {
+public abstract class Parser<T> {
 
 	/**
 	 * Directory to read or write files to.
@@ -47,11 +70,69 @@ public abstract class Parser {
 	protected final String filename;
 
 	/**
-	 * HashMap object representing a cache of all previously loaded or cached
+	 * The {@link Codec} matching the extension of {@link #filename}, or
+	 * {@code null} if no codec supports it.
+	 */
+	private final Codec<T> codec;
+
+	/**
+	 * The codecs for each file format this parser supports.
+	 */
+	private final List<? extends Codec<T>> codecs;
+
+	/**
+	 * Cache of previously loaded or cached
 	 * {@link org.hammerhead226.sharkmacro.motionprofiles.Profile Profiles} and
-	 * {@link org.hammerhead226.sharkmacro.actions.ActionList ActionLists}.
+	 * {@link org.hammerhead226.sharkmacro.actions.ActionList ActionLists}, keyed by
+	 * absolute filename. Each value is the object decoded by the {@link Codec} of
+	 * the {@link Parser} that cached it. The least recently used files are evicted
+	 * once the cache holds more than
+	 * {@value org.hammerhead226.sharkmacro.Constants#PARSER_CACHE_DEFAULT_BYTE_BUDGET}
+	 * bytes, unless they are pinned.
+	 */
+	private static final ParserCache cache = new ParserCache(Constants.PARSER_CACHE_DEFAULT_BYTE_BUDGET);
+
+	/**
+	 * Loads that are currently in progress, keyed by absolute filename. A thread
+	 * that finds a file here waits for the load instead of decoding the file
+	 * again.
+	 */
+	private static final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<String, CompletableFuture<Object>>();
+
+	/**
+	 * Watches storage directories for changes made by other programs. Created by
+	 * the first call to {@link #watch(String, Function)}.
+	 */
+	private static DirectoryWatcher watcher;
+
+	/**
+	 * Background queue for {@link #writeToFileAsync(Object)}.
 	 */
-	private static HashMap<String, List<String[]>> cache = new HashMap<String, List<String[]>>();
+	private static final WriteQueue writeQueue = new WriteQueue();
+
+	/**
+	 * Catalogs of the storage directories, keyed by directory.
+	 */
+	/**
+	 * Extension of the filenames returned by
+	 * {@link #getNewFilename(String, String)}, which picks the format new
+	 * recordings are saved in.
+	 */
+	private static volatile String saveExtension = Constants.DEFAULT_SAVE_EXTENSION;
+
+	private static final ConcurrentHashMap<String, StorageCatalog> catalogs = new ConcurrentHashMap<String, StorageCatalog>();
+
+	/**
+	 * The parser factory of each storage directory {@link RoutineBundle} bundles,
+	 * in the order they were registered. Guarded by its own lock.
+	 */
+	private static final LinkedHashMap<String, Function<String, ? extends Parser<?>>> bundled = new LinkedHashMap<String, Function<String, ? extends Parser<?>>>();
+
+	/**
+	 * Executor that decodes files for {@link #cacheAllAsync(String, Function)}.
+	 * Created the first time it is needed.
+	 */
+	private static ExecutorService prewarmExecutor;
 
 	/**
 	 * Constructs a new {@link Parser} object.
@@ -62,32 +143,42 @@ public abstract class Parser {
 	 *            the prefix to name new files or read existing files with
 	 * @param filename
 	 *            name of the file to read or write a new file with
+	 * @param codecs
+	 *            the codecs for each file format this parser supports
 	 */
-	public Parser(String directory, String prefix, String filename) {
+	public Parser(String directory, String prefix, String filename, List<? extends Codec<T>> codecs) {
 		this.directory = directory;
 		this.prefix = prefix;
 
-		this.filename = format(directory, filename);
+		this.filename = format(directory, filename, codecs);
+		this.codec = codecFor(this.filename, codecs);
+		this.codecs = codecs;
 	}
 
 	/**
-	 * Given values to write, this method writes those values to a csv file.
+	 * Given an object to write, this method encodes it with the {@link Codec}
+	 * matching {@link #filename} and writes it to file. The file is written to a
+	 * temporary file and renamed into place once it is on disk, so a power loss
+	 * during the write leaves the old file intact.
 	 * 
 	 * @param data
-	 *            the lines of the file to be written
+	 *            the object to be written
 	 * @return {@code true} if the file was written successfully, {@code false} if
 	 *         the storage directory wasn't able to be created or the file wasn't
 	 *         able to be written.
 	 */
-	protected boolean writeToFile(ArrayList<String[]> data) {
+	protected boolean writeToFile(T data) {
+		if (codec == null) {
+			DriverStation.getInstance();
+			DriverStation.reportError("No codec can write file: " + filename, false);
+			return false;
+		}
+
 		touchDirectory(directory);
 
-		CSVWriter writer;
 		try {
-			writer = new CSVWriter(new FileWriter(filename), Constants.SEPARATOR, Constants.QUOTECHAR,
-					Constants.ESCAPECHAR, Constants.NEWLINE);
-			writer.writeAll(data);
-			writer.close();
+			WriteQueue.writeNow(Paths.get(filename), file -> codec.write(file, data));
+			updateCatalog(data);
 			return true;
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -97,137 +188,510 @@ public abstract class Parser {
 	}
 
 	/**
-	 * Reads the contents of a csv file and returns the result as a
-	 * {@link java.util.List List} with each String array containing the values in
-	 * each row of the file.
+	 * Queues an object to be encoded and written to file on a background thread,
+	 * in the same crash-safe way as {@link #writeToFile(Object)}. Use this instead
+	 * of {@code writeToFile} in commands so a slow save doesn't stall the
+	 * scheduler. The object must not be modified until the returned future
+	 * completes.
 	 * 
-	 * @return a list containing the contents of the read file
+	 * @param data
+	 *            the object to be written
+	 * @return a future that completes once the file is on disk or the write has
+	 *         failed
 	 */
-	protected List<String[]> readFromFile() {
-		if (cache.containsKey(filename)) {
-			return cache.get(filename);
+	protected CompletableFuture<WriteResult> writeToFileAsync(T data) {
+		if (codec == null) {
+			DriverStation.getInstance();
+			DriverStation.reportError("No codec can write file: " + filename, false);
+			return rejectWrite("No codec can write file: " + filename);
 		}
 
-		return cache();
+		touchDirectory(directory);
+
+		// Reserve the file's number so the next new filename doesn't reuse it
+		// before this write lands
+		final StorageCatalog catalog = catalogFor(directory, prefix);
+		final String name = Paths.get(filename).getFileName().toString();
+		catalog.reserve(name);
+
+		return writeQueue.submit(Paths.get(filename), file -> codec.write(file, data)).thenApply(result -> {
+			if (result.isSuccessful()) {
+				updateCatalog(data);
+			}
+			catalog.release(name);
+			return result;
+		});
 	}
 
 	/**
-	 * Add a file to the cache.
+	 * Creates the result of a write that was refused before being queued.
 	 * 
-	 * @param directory
-	 *            the directory of the file to be cached
-	 * @param filename
-	 *            the file to cache
+	 * @param reason
+	 *            why the write was refused
+	 * @return an already completed future holding the failed write
 	 */
-	protected static List<String[]> cache(String directory, String filename) {
-		filename = format(directory, filename);
+	protected CompletableFuture<WriteResult> rejectWrite(String reason) {
+		return CompletableFuture.completedFuture(new WriteResult(filename, new IOException(reason), 0, 0));
+	}
 
-		if (cache.containsKey(filename)) {
+	/**
+	 * Reads and decodes the contents of {@link #filename}, or returns the
+	 * previously decoded object if the file is in the cache.
+	 * 
+	 * @return the decoded object, or {@code null} if the file couldn't be read
+	 */
+	@SuppressWarnings("unchecked")
+	protected T readFromFile() {
+		T cached = (T) cache.get(filename);
+		if (cached != null) {
+			return cached;
+		}
+
+		return load(false);
+	}
+
+	/**
+	 * Returns the previously decoded object if the file is in the cache, without
+	 * reading the file otherwise.
+	 * 
+	 * @return the cached object, or {@code null} if the file isn't cached
+	 */
+	@SuppressWarnings("unchecked")
+	protected T getCached() {
+		return (T) cache.get(filename);
+	}
+
+	/**
+	 * Add the file at this instance's passed filename to the cache.
+	 * 
+	 * @return the decoded object, or {@code null} if the file couldn't be read
+	 */
+	@SuppressWarnings("unchecked")
+	protected T cache() {
+		T cached = (T) cache.peek(filename);
+		if (cached != null) {
 			DriverStation.getInstance();
 			DriverStation.reportWarning("Tried to cache an already cached file!", false);
-			return cache.get(filename);
+			return cached;
 		}
 
-		List<String[]> rawFile = parseCSV(filename);
+		return load(false);
+	}
 
-		cache.put(filename, rawFile);
+	/**
+	 * Add the file at this instance's passed filename to the cache if it isn't
+	 * already cached, and protect it from eviction until {@link #unpin()} or
+	 * {@link #unpinAll()} is called. Use this for the routines selected for the
+	 * current match.
+	 * 
+	 * @return the decoded object, or {@code null} if the file couldn't be read
+	 */
+	@SuppressWarnings("unchecked")
+	protected T pin() {
+		if (cache.setPinned(filename, true)) {
+			T cached = (T) cache.peek(filename);
+			if (cached != null) {
+				return cached;
+			}
+		}
 
-		return rawFile;
+		return load(true);
 	}
 
 	/**
-	 * Add the file at this instance's passed filename to the cache.
+	 * Allow the file at this instance's passed filename to be evicted from the
+	 * cache again.
+	 */
+	protected void unpin() {
+		cache.setPinned(filename, false);
+	}
+
+	/**
+	 * Allow every file in the cache to be evicted again.
+	 */
+	public static void unpinAll() {
+		cache.unpinAll();
+	}
+
+	/**
+	 * Remove the file at this instance's passed filename from the cache, even if
+	 * it is pinned, so it is read from disk again the next time it is loaded.
+	 */
+	protected void invalidate() {
+		cache.remove(filename);
+	}
+
+	/**
+	 * Remove every file from the cache, even pinned ones.
+	 */
+	public static void clearCache() {
+		cache.clear();
+	}
+
+	/**
+	 * Decodes {@link #filename} again if it is cached, and replaces the cached
+	 * object with the new one. If the file was deleted or can no longer be
+	 * decoded, it is removed from the cache instead. Called by
+	 * {@link DirectoryWatcher} when the file changes on disk.
+	 */
+	void reload() {
+		if (codec == null || !cache.contains(filename)) {
+			return;
+		}
+
+		T decoded = Files.exists(Paths.get(filename)) ? decode() : null;
+		if (decoded == null) {
+			cache.remove(filename);
+		} else {
+			cache.replace(filename, decoded, sizeOf(decoded));
+		}
+	}
+
+	/**
+	 * Start watching a directory for files that are added, changed or deleted by
+	 * other programs. Changed files that are in the cache are decoded again on a
+	 * background thread and swapped into the cache, so loading them returns the
+	 * new version without restarting the robot code.
 	 * 
-	 * @return the parsed CSV in list form
+	 * @param directory
+	 *            the directory to watch
+	 * @param factory
+	 *            creates a parser for a filename in the directory
+	 * @return {@code true} if the directory is being watched, {@code false} if it
+	 *         couldn't be
 	 */
-	protected List<String[]> cache() {
-		if (cache.containsKey(filename)) {
+	protected static synchronized boolean watch(String directory, Function<String, ? extends Parser<?>> factory) {
+		touchDirectory(directory);
+		try {
+			if (watcher == null) {
+				watcher = new DirectoryWatcher();
+			}
+			watcher.watch(Paths.get(directory), factory);
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
 			DriverStation.getInstance();
-			DriverStation.reportWarning("Tried to cache an already cached file!", false);
-			return cache.get(filename);
+			DriverStation.reportError("Unable to watch directory: " + directory, false);
+			return false;
 		}
+	}
 
-		List<String[]> rawFile = parseCSV(filename);
+	/**
+	 * Stop watching every directory passed to
+	 * {@link #watch(String, Function)}.
+	 */
+	public static synchronized void stopWatching() {
+		if (watcher != null) {
+			watcher.close();
+			watcher = null;
+		}
+	}
 
-		cache.put(filename, rawFile);
+	/**
+	 * Add all files in a directory that are supported by a {@link Parser} to the
+	 * cache.
+	 * 
+	 * @param directory
+	 *            the directory the files are located in
+	 * @param factory
+	 *            creates a parser for a filename in the directory
+	 */
+	protected static void cacheAll(String directory, Function<String, ? extends Parser<?>> factory) {
+		for (Parser<?> p : listCacheable(directory, factory)) {
+			p.load(false);
+		}
+	}
 
-		return rawFile;
+	/**
+	 * Add all files in a directory that are supported by a {@link Parser} to the
+	 * cache, decoding them in parallel on background threads. At most
+	 * {@value org.hammerhead226.sharkmacro.Constants#PARSER_PREWARM_MAX_THREADS}
+	 * threads are used, and fewer if the processor has fewer cores. Call this in
+	 * {@code robotInit()} to load routines without blocking the main loop.
+	 * 
+	 * @param directory
+	 *            the directory the files are located in
+	 * @param factory
+	 *            creates a parser for a filename in the directory
+	 * @return a future that completes once every file has been decoded or failed
+	 *         to decode
+	 */
+	protected static CompletableFuture<Void> cacheAllAsync(String directory,
+			Function<String, ? extends Parser<?>> factory) {
+		final ExecutorService executor = getPrewarmExecutor();
+		return CompletableFuture.supplyAsync(() -> listCacheable(directory, factory), executor)
+				.thenCompose(parsers -> {
+					CompletableFuture<?>[] loads = new CompletableFuture<?>[parsers.size()];
+					for (int i = 0; i < loads.length; i++) {
+						final Parser<?> p = parsers.get(i);
+						loads[i] = CompletableFuture.runAsync(() -> p.load(false), executor);
+					}
+					return CompletableFuture.allOf(loads);
+				});
 	}
 
 	/**
-	 * Add all CSV files in a directory to the cache.
+	 * Creates a parser for each file in a directory that has a supported format
+	 * and isn't cached yet.
 	 * 
 	 * @param directory
 	 *            the directory the files are located in
+	 * @param factory
+	 *            creates a parser for a filename in the directory
+	 * @return the parsers of the files to cache
 	 */
-	protected static void cacheAll(String directory) {
-		if (Files.exists(Paths.get(directory))) {
-			File[] files = new File(directory).listFiles();
+	private static List<Parser<?>> listCacheable(String directory, Function<String, ? extends Parser<?>> factory) {
+		ArrayList<Parser<?>> parsers = new ArrayList<Parser<?>>();
+		File[] files = new File(directory).listFiles();
 
-			for (File f : files) {
-				if (f.isFile()) {
-					cache(directory, f.getName());
-				}
-			}
-		} else {
+		if (files == null) {
 			DriverStation.getInstance();
 			DriverStation.reportError("No such directory exists!", false);
+			return parsers;
+		}
+
+		for (File f : files) {
+			if (f.isFile()) {
+				Parser<?> p = factory.apply(f.getName());
+				if (p.codec != null && !cache.contains(p.filename)) {
+					parsers.add(p);
+				}
+			}
 		}
+		return parsers;
+	}
 
+	/**
+	 * @return the executor used to decode files in the background, creating it if
+	 *         it doesn't exist yet
+	 */
+	static synchronized ExecutorService getPrewarmExecutor() {
+		if (prewarmExecutor == null) {
+			int threads = Math.max(1,
+					Math.min(Constants.PARSER_PREWARM_MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+			final AtomicInteger count = new AtomicInteger();
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), r -> {
+						Thread t = new Thread(r, "SharkMacro-prewarm-" + count.incrementAndGet());
+						t.setDaemon(true);
+						t.setPriority(Thread.MIN_PRIORITY);
+						return t;
+					});
+			// Let the threads exit once prewarming is done
+			executor.allowCoreThreadTimeOut(true);
+			prewarmExecutor = executor;
+		}
+		return prewarmExecutor;
 	}
 
 	/**
-	 * Parse the given CSV file into a list of its lines.
+	 * Decode {@link #filename} and add it to the cache. If another thread is
+	 * already loading the file, this waits for that load and returns its result
+	 * instead of decoding the file a second time.
 	 * 
-	 * @param filename
-	 *            CSV to parse
-	 * @return parsed CSV in list form
+	 * @param pinned
+	 *            whether the file should be protected from eviction
+	 * @return the decoded object, or {@code null} if the file couldn't be read
 	 */
-	private static List<String[]> parseCSV(String filename) {
-		CSVReader reader;
-		List<String[]> rawFile = new ArrayList<String[]>(0);
+	@SuppressWarnings("unchecked")
+	private T load(boolean pinned) {
+		CompletableFuture<Object> flight = new CompletableFuture<Object>();
+		CompletableFuture<Object> existing = inFlight.putIfAbsent(filename, flight);
+
+		if (existing != null) {
+			T decoded;
+			try {
+				decoded = (T) existing.join();
+			} catch (CompletionException e) {
+				e.printStackTrace();
+				return null;
+			}
+			if (decoded != null && pinned) {
+				cache.put(filename, decoded, sizeOf(decoded), true);
+			}
+			return decoded;
+		}
+
 		try {
-			reader = new CSVReader(new FileReader(filename));
-			rawFile = reader.readAll();
-			reader.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			// Another thread may have finished loading the file since it was looked up
+			T decoded = (T) cache.peek(filename);
+			if (decoded == null) {
+				decoded = decode();
+				if (decoded != null) {
+					cache.put(filename, decoded, sizeOf(decoded), pinned);
+				}
+			} else if (pinned) {
+				cache.put(filename, decoded, sizeOf(decoded), true);
+			}
+			flight.complete(decoded);
+			return decoded;
+		} catch (RuntimeException e) {
+			flight.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(filename, flight);
+		}
+	}
+
+	/**
+	 * Encodes {@link #filename} for a {@link RoutineBundle}, with the first
+	 * {@link BinaryCodec} this parser supports.
+	 * 
+	 * @return the encoded file, or {@code null} if the file couldn't be read or
+	 *         this parser has no binary codec
+	 */
+	@SuppressWarnings("unchecked")
+	ByteBuffer encodeForBundle() {
+		for (Codec<T> c : codecs) {
+			if (c instanceof BinaryCodec) {
+				T data = (T) cache.peek(filename);
+				if (data == null) {
+					data = decode();
+				}
+				return data == null ? null : ((BinaryCodec<T>) c).encode(data);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Decodes {@link #filename} from its copy in a {@link RoutineBundle} and adds
+	 * it to the cache, unless it is already cached.
+	 * 
+	 * @param buf
+	 *            the encoded file, as written by {@link #encodeForBundle()}
+	 * @return {@code true} if the file was added to the cache
+	 * @throws IOException
+	 *             if no {@link BinaryCodec} of this parser can decode the buffer
+	 */
+	@SuppressWarnings("unchecked")
+	boolean loadFromBundle(ByteBuffer buf) throws IOException {
+		if (cache.contains(filename)) {
+			return false;
+		}
+		int magic = buf.order(ByteOrder.LITTLE_ENDIAN).getInt(buf.position());
+		for (Codec<T> c : codecs) {
+			if (c instanceof BinaryCodec && ((BinaryCodec<T>) c).getMagic() == magic) {
+				T decoded = ((BinaryCodec<T>) c).decode(buf);
+				cache.put(filename, decoded, sizeOf(decoded), false);
+				return true;
+			}
+		}
+		throw new IOException("No codec can decode bundled file: " + filename);
+	}
+
+	/**
+	 * Estimates the number of bytes of heap a decoded object takes up. Used to
+	 * keep the cache within its byte budget.
+	 * 
+	 * @param data
+	 *            a decoded object
+	 * @return the estimated size of the object, in bytes
+	 */
+	protected abstract long sizeOf(T data);
+
+	/**
+	 * Decode {@link #filename} with its {@link Codec}.
+	 * 
+	 * @return the decoded object, or {@code null} if the file couldn't be read
+	 */
+	private T decode() {
+		if (codec == null) {
+			DriverStation.getInstance();
+			DriverStation.reportError("No codec can read file: " + filename, false);
 			return null;
+		}
+
+		try {
+			return codec.read(Paths.get(filename));
 		} catch (IOException e) {
 			e.printStackTrace();
 			return null;
 		}
-
-		return rawFile;
 	}
 
 	/**
-	 * @return a set of the keys in the cache
+	 * @return a set of the keys in the cache, from least to most recently used
 	 */
 	public static String[] getCacheKeys() {
-		Object[] keys = cache.keySet().toArray();
-		String[] arr = new String[keys.length];
-		for (int i = 0; i < arr.length; i++) {
-			arr[i] = keys[i].toString();
+		return cache.keys();
+	}
+
+	/**
+	 * @param key
+	 *            a key returned by {@link #getCacheKeys()}
+	 * @return the estimated heap cost of the cached file, in bytes, or {@code -1}
+	 *         if the file isn't cached
+	 */
+	public static long getCacheEntryBytes(String key) {
+		return cache.getBytes(key);
+	}
+
+	/**
+	 * @return a snapshot of the cache's size and its hit, miss and eviction
+	 *         counters
+	 */
+	public static CacheStatistics getCacheStatistics() {
+		return cache.getStatistics();
+	}
+
+	/**
+	 * Sets the maximum number of bytes of decoded files the cache will hold.
+	 * Least recently used files are evicted immediately if the cache is over the
+	 * new budget.
+	 * 
+	 * @param bytes
+	 *            the new byte budget
+	 */
+	public static void setCacheByteBudget(long bytes) {
+		cache.setByteBudget(bytes);
+	}
+
+	/**
+	 * Sets the format new recordings are saved in, by changing the extension of
+	 * the filenames returned by {@code getNewFilename()}. The default is
+	 * {@value org.hammerhead226.sharkmacro.Constants#DEFAULT_SAVE_EXTENSION},
+	 * which is the fastest to load on the robot. Files that are already saved
+	 * keep their format.
+	 * 
+	 * @param extension
+	 *            {@value org.hammerhead226.sharkmacro.Constants#BINARY_EXTENSION}
+	 *            or {@value org.hammerhead226.sharkmacro.Constants#CSV_EXTENSION},
+	 *            the formats every parser can write
+	 */
+	public static void setSaveExtension(String extension) {
+		if (!extension.equals(Constants.BINARY_EXTENSION) && !extension.equals(Constants.CSV_EXTENSION)) {
+			throw new IllegalArgumentException("Can't save new files as " + extension);
 		}
-		return arr;
+		saveExtension = extension;
+	}
+
+	/**
+	 * @return the extension of the filenames returned by
+	 *         {@code getNewFilename()}
+	 */
+	public static String getSaveExtension() {
+		return saveExtension;
 	}
 
 	/**
-	 * This method generates a new filename to be used for saving a new file. For
-	 * example, if the newest file in the storage directory is
-	 * {@code prefix0003.csv}, the method will return {@code prefix0004.csv}.
+	 * This method generates a new filename to be used for saving a new file, with
+	 * the extension set by {@link #setSaveExtension(String)}. For example, if the
+	 * newest file in the storage directory is {@code prefix0003.csv}, the method
+	 * will return {@code prefix0004.bin}.
 	 * 
 	 * @return a new complete filename in the prefix + number naming convention
 	 */
 	protected static String getNewFilename(String directory, String prefix) {
 		touchDirectory(directory);
-		return prefix + String.format("%04d", findLatestNumberedFile(directory, prefix) + 1) + ".csv";
+		return prefix + String.format("%04d", findLatestNumberedFile(directory, prefix) + 1) + saveExtension;
 	}
 
 	/**
 	 * This method finds the newest file named with prefix + number naming
-	 * convention in the storage directory.
+	 * convention in the storage directory. The returned name has no extension, so
+	 * the {@link Parser} it is passed to will pick whichever format the file was
+	 * saved in.
 	 * 
 	 * @return the complete filename of the latest (highest numbered) file in the
 	 *         storage directory
@@ -239,72 +703,173 @@ public abstract class Parser {
 
 	/**
 	 * Given a prefix, this method returns the number of the highest numbered file
-	 * in the directory. If there are no files named with the prefix in the
-	 * directory, the method returns {@code 0}.
+	 * in the directory, as recorded in the directory's catalog. If there are no
+	 * files named with the prefix in the directory, the method returns {@code 0}.
 	 * 
 	 * @param prefix
 	 *            the string that the file must start with
 	 * @return the number of the newest (highest numbered) file
 	 */
 	protected static int findLatestNumberedFile(String directory, String prefix) {
-		ArrayList<String> str = getFilesWithPrefix(directory, prefix);
-		int[] fileNumbers = toNumbers(str, prefix);
-		// Find greatest number
-		int greatest = Integer.MIN_VALUE;
-		for (int i : fileNumbers) {
-			if (i > greatest) {
-				greatest = i;
-			}
+		return catalogFor(directory, prefix).getNewestNumber();
+	}
+
+	/**
+	 * Registers the {@link Parser} of a storage directory, so the directory's
+	 * catalog can describe its files if it has to be rebuilt. Subclasses call this
+	 * once, from a static initializer.
+	 * 
+	 * @param directory
+	 *            the storage directory
+	 * @param prefix
+	 *            the prefix of numbered files in the directory
+	 * @param factory
+	 *            creates a parser for a filename in the directory
+	 */
+	protected static void registerCatalog(String directory, String prefix,
+			Function<String, ? extends Parser<?>> factory) {
+		catalogs.putIfAbsent(directory, new StorageCatalog(Paths.get(directory), prefix, factory));
+	}
+
+	/**
+	 * Registers the {@link Parser} of a storage directory, so
+	 * {@link RoutineBundle} bundles the directory's files. Subclasses call this
+	 * once, from a static initializer. Directories are bundled, and loaded from a
+	 * bundle, in the order they were registered, so a directory whose files are
+	 * read while decoding another's must be registered first.
+	 * 
+	 * @param directory
+	 *            the storage directory
+	 * @param factory
+	 *            creates a parser for a filename in the directory
+	 */
+	protected static void registerBundled(String directory, Function<String, ? extends Parser<?>> factory) {
+		synchronized (bundled) {
+			bundled.putIfAbsent(directory, factory);
 		}
-		return greatest;
 	}
 
 	/**
-	 * This method returns a list of the files in the storage directory that start
-	 * with {@link #prefix}.
+	 * @return the parser factory of each storage directory registered with
+	 *         {@link #registerBundled(String, Function)}, keyed by directory in
+	 *         the order they were registered
+	 */
+	static Map<String, Function<String, ? extends Parser<?>>> getBundled() {
+		synchronized (bundled) {
+			return new LinkedHashMap<String, Function<String, ? extends Parser<?>>>(bundled);
+		}
+	}
+
+	/**
+	 * Lists the saved files in a storage directory from its catalog. Only the
+	 * directory's modified time is checked, so this is fast enough to call from a
+	 * dashboard.
 	 * 
-	 * @return an {@link java.util.ArrayList ArrayList} of type String of the files
-	 *         starting with the given prefix
-	 */
-	private static ArrayList<String> getFilesWithPrefix(String directory, String prefix) {
-		final File folder = new File(directory);
-		ArrayList<String> str = new ArrayList<String>(folder.listFiles().length);
-		for (final File fileEntry : folder.listFiles()) {
-			if (fileEntry.getName().startsWith(prefix)) {
-				str.add(fileEntry.getName());
-			}
+	 * @param directory
+	 *            the storage directory
+	 * @param prefix
+	 *            the prefix of numbered files in the directory
+	 * @return every file in the directory, ordered by number and then name
+	 */
+	protected static List<CatalogEntry> getCatalog(String directory, String prefix) {
+		touchDirectory(directory);
+		return catalogFor(directory, prefix).list();
+	}
+
+	/**
+	 * @param directory
+	 *            the storage directory
+	 * @param prefix
+	 *            the prefix of numbered files in the directory
+	 * @return the catalog of the directory, created without a {@link Parser} if
+	 *         none was registered for it
+	 */
+	private static StorageCatalog catalogFor(String directory, String prefix) {
+		StorageCatalog catalog = catalogs.get(directory);
+		if (catalog == null) {
+			catalogs.putIfAbsent(directory, new StorageCatalog(Paths.get(directory), prefix, null));
+			catalog = catalogs.get(directory);
 		}
-		return str;
+		return catalog;
 	}
 
 	/**
-	 * This method takes a list of {@link Parser}-generated filenames and enumerates
-	 * them, returning an integer array of the files' numbers. For example, if the
-	 * directory contains {@code prefix0025.csv}, {@code prefix0026.csv}, and
-	 * {@code prefix0027.csv}, this method would return {@code [ 25, 26, 27 ]}.
+	 * Records {@link #filename} in its directory's catalog after it has been
+	 * written.
 	 * 
-	 * @param filenames
-	 *            list of numbered files
-	 * @return an integer array of the file numbers
+	 * @param data
+	 *            the object that was written
 	 */
-	private static int[] toNumbers(ArrayList<String> filenames, String prefix) {
-		if (filenames.isEmpty()) {
-			return new int[] { 0 };
+	private void updateCatalog(T data) {
+		Path p = Paths.get(filename);
+		try {
+			catalogFor(directory, prefix).put(p.getFileName().toString(), Files.size(p), pointCountOf(data),
+					durationOf(data));
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
-		// Isolate number part of filename
-		for (int i = 0; i < filenames.size(); i++) {
-			filenames.set(i, filenames.get(i).substring(prefix.length(), filenames.get(i).length() - 4));
+	}
+
+	/**
+	 * @return {@code true} if a {@link Codec} of this parser supports
+	 *         {@link #filename}
+	 */
+	boolean isSupported() {
+		return codec != null;
+	}
+
+	/**
+	 * Describes {@link #filename} for its directory's catalog, decoding it if it
+	 * isn't cached. This can take a long time, so the catalog only calls it from
+	 * a background thread.
+	 * 
+	 * @return the description of the file, or {@code null} if no {@link Codec}
+	 *         supports it or it no longer exists
+	 */
+	@SuppressWarnings("unchecked")
+	CatalogEntry describe() {
+		if (codec == null) {
+			return null;
 		}
 
-		int[] nums = new int[filenames.size()];
-		for (int i = 0; i < nums.length; i++) {
-			nums[i] = Integer.parseInt(filenames.get(i), 10);
+		Path p = Paths.get(filename);
+		String name = p.getFileName().toString();
+		long size;
+		long modified;
+		try {
+			// Stat before reading, so a file changed while it is read is seen as stale
+			size = Files.size(p);
+			modified = Files.getLastModifiedTime(p).toMillis();
+		} catch (IOException e) {
+			return null;
+		}
+		T data = (T) cache.peek(filename);
+		if (data == null) {
+			data = decode();
 		}
-		return nums;
+		return new CatalogEntry(name, StorageCatalog.parseNumber(name, prefix), size, modified,
+				data == null ? -1 : pointCountOf(data), data == null ? 0 : durationOf(data));
 	}
 
+	/**
+	 * @param data
+	 *            a decoded object
+	 * @return the number of points or actions in the object, for the catalog
+	 */
+	protected abstract int pointCountOf(T data);
+
+	/**
+	 * @param data
+	 *            a decoded object
+	 * @return the length of the recording in the object, in seconds, for the
+	 *         catalog
+	 */
+	protected abstract double durationOf(T data);
+
 	/**
 	 * Checks if read/write directory exists on disk and creates it if it doesn't.
+	 * The first time a directory is touched, temporary files left in it by
+	 * writes that were interrupted by a crash or power loss are deleted.
 	 * 
 	 * @return {@code true} if the directory already exists or was successfully
 	 *         created, {@code false} if an exception was thrown
@@ -320,6 +885,7 @@ public abstract class Parser {
 				return false;
 			}
 		}
+		WriteQueue.deleteStaleTempFiles(p);
 		return true;
 	}
 
@@ -331,14 +897,56 @@ public abstract class Parser {
 	 *            directory to format the complete filename with
 	 * @param filename
 	 *            filename to format the complete filename with
+	 * @param codecs
+	 *            the codecs whose extensions may be appended to the filename
 	 * @return correctly formatted absoulte file path
 	 */
-	private static String format(String directory, String filename) {
-		if (!filename.endsWith(".csv")) {
-			filename += ".csv";
+	private static String format(String directory, String filename, List<? extends Codec<?>> codecs) {
+		if (getExtension(filename).isEmpty()) {
+			String extension = codecs.get(0).getExtension();
+			for (Codec<?> c : codecs) {
+				if (Files.exists(Paths.get(directory, filename + c.getExtension()))) {
+					extension = c.getExtension();
+					break;
+				}
+			}
+			filename += extension;
 		}
 		filename = directory + "/" + filename;
 		return filename;
 	}
 
+	/**
+	 * Finds the {@link Codec} for a file from its extension.
+	 * 
+	 * @param filename
+	 *            the file to find a codec for
+	 * @param codecs
+	 *            the codecs to choose from
+	 * @return the matching codec, or {@code null} if none of them match
+	 */
+	private static <T> Codec<T> codecFor(String filename, List<? extends Codec<T>> codecs) {
+		String extension = getExtension(filename);
+		for (Codec<T> c : codecs) {
+			if (c.getExtension().equalsIgnoreCase(extension)) {
+				return c;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param filename
+	 *            a filename, with or without its directory
+	 * @return the extension of the filename including the leading dot, or an
+	 *         empty string if it has none
+	 */
+	private static String getExtension(String filename) {
+		int dot = filename.lastIndexOf('.');
+		if (dot <= filename.lastIndexOf('/')) {
+			return "";
+		}
+		return filename.substring(dot);
+	}
+
 }
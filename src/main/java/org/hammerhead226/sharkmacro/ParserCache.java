@@ -0,0 +1,303 @@
+package org.hammerhead226.sharkmacro;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of decoded files used by {@link Parser}. The cache holds at most
+ * {@link #getByteBudget()} bytes of decoded objects, measured by the estimate
+ * each entry was added with. When a new entry pushes it over that budget, the
+ * least recently used entries are evicted until it fits again. Pinned entries
+ * are never evicted, but still count towards the budget.
+ * <p>
+ * An unpinned entry larger than the whole budget is never added, so the object
+ * is returned to the caller but not kept.
+ * <p>
+ * Every method is synchronized, so the cache may be used by background
+ * prewarming threads and the main robot thread at the same time.
+ */
+class ParserCache {
+
+	/**
+	 * The cached objects, in order from least to most recently used. Looking an
+	 * entry up here counts as using it.
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/**
+	 * The same entries as {@link #entries}, for lookups that must not change the
+	 * eviction order.
+	 */
+	private final HashMap<String, Entry> index = new HashMap<String, Entry>();
+
+	/**
+	 * Maximum number of bytes to hold. Pinned entries count towards it, but only
+	 * unpinned entries are evicted to stay within it.
+	 */
+	private long byteBudget;
+
+	/**
+	 * Sum of the byte cost of every entry in the cache.
+	 */
+	private long bytesUsed = 0;
+
+	/**
+	 * Number of lookups that found their entry.
+	 */
+	private long hits = 0;
+
+	/**
+	 * Number of lookups that didn't find their entry.
+	 */
+	private long misses = 0;
+
+	/**
+	 * Number of entries removed to stay within {@link #byteBudget}.
+	 */
+	private long evictions = 0;
+
+	/**
+	 * Constructs a new, empty {@link ParserCache}.
+	 *
+	 * @param byteBudget
+	 *            maximum number of bytes to hold
+	 */
+	ParserCache(long byteBudget) {
+		this.byteBudget = byteBudget;
+	}
+
+	/**
+	 * Looks up an entry and marks it as the most recently used. The lookup is
+	 * counted as a hit or a miss.
+	 *
+	 * @param key
+	 *            the absolute filename of the entry
+	 * @return the cached object, or {@code null} if it isn't cached
+	 */
+	synchronized Object get(String key) {
+		Entry e = entries.get(key);
+		if (e == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return e.value;
+	}
+
+	/**
+	 * Looks up an entry without counting the lookup or changing its position in
+	 * the eviction order.
+	 *
+	 * @param key
+	 *            the absolute filename of the entry
+	 * @return the cached object, or {@code null} if it isn't cached
+	 */
+	synchronized Object peek(String key) {
+		Entry e = index.get(key);
+		return e != null ? e.value : null;
+	}
+
+	/**
+	 * @param key
+	 *            the absolute filename of the entry
+	 * @return {@code true} if the entry is cached
+	 */
+	synchronized boolean contains(String key) {
+		return index.containsKey(key);
+	}
+
+	/**
+	 * Adds or replaces an entry, then evicts entries until the cache is within
+	 * its budget. A replaced entry keeps its pin.
+	 *
+	 * @param key
+	 *            the absolute filename of the entry
+	 * @param value
+	 *            the decoded object
+	 * @param bytes
+	 *            estimated heap cost of the decoded object
+	 * @param pinned
+	 *            whether the entry should be protected from eviction
+	 */
+	synchronized void put(String key, Object value, long bytes, boolean pinned) {
+		Entry old = index.remove(key);
+		if (old != null) {
+			entries.remove(key);
+			bytesUsed -= old.bytes;
+			pinned |= old.pinned;
+		}
+		if (!pinned && bytes > byteBudget) {
+			evictions++;
+			return;
+		}
+		Entry e = new Entry(value, bytes, pinned);
+		entries.put(key, e);
+		index.put(key, e);
+		bytesUsed += bytes;
+		evict();
+	}
+
+	/**
+	 * Replaces the value of an entry that is already cached, keeping its pin. Does
+	 * nothing if the entry isn't cached.
+	 *
+	 * @param key
+	 *            the absolute filename of the entry
+	 * @param value
+	 *            the new decoded object
+	 * @param bytes
+	 *            estimated heap cost of the new decoded object
+	 * @return {@code true} if the entry was replaced
+	 */
+	synchronized boolean replace(String key, Object value, long bytes) {
+		if (!index.containsKey(key)) {
+			return false;
+		}
+		put(key, value, bytes, false);
+		return true;
+	}
+
+	/**
+	 * Removes an entry, even if it is pinned.
+	 *
+	 * @param key
+	 *            the absolute filename of the entry
+	 * @return {@code true} if the entry was cached
+	 */
+	synchronized boolean remove(String key) {
+		Entry e = index.remove(key);
+		if (e == null) {
+			return false;
+		}
+		entries.remove(key);
+		bytesUsed -= e.bytes;
+		return true;
+	}
+
+	/**
+	 * Removes every entry, even pinned ones.
+	 */
+	synchronized void clear() {
+		entries.clear();
+		index.clear();
+		bytesUsed = 0;
+	}
+
+	/**
+	 * Pins or unpins a cached entry.
+	 *
+	 * @param key
+	 *            the absolute filename of the entry
+	 * @param pinned
+	 *            whether the entry should be protected from eviction
+	 * @return {@code true} if the entry is cached
+	 */
+	synchronized boolean setPinned(String key, boolean pinned) {
+		Entry e = index.get(key);
+		if (e == null) {
+			return false;
+		}
+		e.pinned = pinned;
+		if (!pinned) {
+			evict();
+		}
+		return true;
+	}
+
+	/**
+	 * Unpins every entry.
+	 */
+	synchronized void unpinAll() {
+		for (Entry e : entries.values()) {
+			e.pinned = false;
+		}
+		evict();
+	}
+
+	/**
+	 * @param key
+	 *            the absolute filename of the entry
+	 * @return the byte cost of the entry, or {@code -1} if it isn't cached
+	 */
+	synchronized long getBytes(String key) {
+		Entry e = index.get(key);
+		return e != null ? e.bytes : -1;
+	}
+
+	/**
+	 * @return the keys of every entry, from least to most recently used
+	 */
+	synchronized String[] keys() {
+		return entries.keySet().toArray(new String[0]);
+	}
+
+	/**
+	 * @return the maximum number of bytes this cache will hold
+	 */
+	synchronized long getByteBudget() {
+		return byteBudget;
+	}
+
+	/**
+	 * Changes the byte budget, evicting entries if the cache no longer fits.
+	 *
+	 * @param byteBudget
+	 *            maximum number of bytes to hold
+	 */
+	synchronized void setByteBudget(long byteBudget) {
+		this.byteBudget = byteBudget;
+		evict();
+	}
+
+	/**
+	 * @return a snapshot of this cache's size and counters
+	 */
+	synchronized CacheStatistics getStatistics() {
+		int pinned = 0;
+		for (Entry e : entries.values()) {
+			if (e.pinned) {
+				pinned++;
+			}
+		}
+		return new CacheStatistics(entries.size(), pinned, bytesUsed, byteBudget, hits, misses, evictions);
+	}
+
+	/**
+	 * Evicts the least recently used unpinned entries until the cache is within
+	 * its budget.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (bytesUsed > byteBudget && it.hasNext()) {
+			Map.Entry<String, Entry> next = it.next();
+			Entry e = next.getValue();
+			if (!e.pinned) {
+				it.remove();
+				index.remove(next.getKey());
+				bytesUsed -= e.bytes;
+				evictions++;
+			}
+		}
+	}
+
+	/**
+	 * A cached object and its bookkeeping.
+	 */
+	private static class Entry {
+
+		final Object value;
+
+		final long bytes;
+
+		boolean pinned;
+
+		Entry(Object value, long bytes, boolean pinned) {
+			this.value = value;
+			this.bytes = bytes;
+			this.pinned = pinned;
+		}
+	}
+
+}
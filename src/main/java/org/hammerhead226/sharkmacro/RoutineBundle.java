@@ -0,0 +1,296 @@
+package org.hammerhead226.sharkmacro;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.function.Function;
+
+import edu.wpi.first.wpilibj.DriverStation;
+
+/**
+ * A single file holding a binary copy of every saved profile and action list,
+ * used to fill {@link Parser}'s cache at boot without opening and parsing each
+ * file separately.
+ * <p>
+ * Every {@link Parser} subclass registers the directories it stores files in
+ * with {@link Parser#registerBundled(String, Function)}, and the bundle holds
+ * the files of each registered directory, such as saved profiles, action lists,
+ * and segmented profiles and their segments. A parser registers when its class
+ * is first used, so {@link #write()} only bundles the kinds of file the robot
+ * code has used. Each file's entry names its parser's class, which
+ * {@link #load()} initializes before decoding the file, so loading a bundle
+ * doesn't depend on which parsers have been used yet.
+ * <p>
+ * Call {@link #write()} after saving or copying new routines, and
+ * {@link #load()} in {@code robotInit()}. Loading maps the bundle and decodes
+ * every file in it in one pass. Each file's size and modified time are stored
+ * in the bundle, and a file that has changed since the bundle was written is
+ * skipped, so it is read from disk as usual the next time it is loaded.
+ * <p>
+ * After the common {@link BinaryCodec} header, the bundle is laid out as
+ * follows:
+ * <p>
+ * <center>
+ * {@code [ <int file count>, <index entry> per file, <encoded files> ]}
+ * </center>
+ * </p>
+ * where each index entry is
+ * {@code [ <string directory>, <string filename>, <string parser class>, <long size>, <long modified time, ms>, <int offset>, <int length> ]}
+ * and each encoded file is a complete file in the binary format of its
+ * {@link Parser}.
+ */
+public final class RoutineBundle {
+
+	/**
+	 * Identifies a bundle file.
+	 */
+	public static final int MAGIC = 0x534D5242;
+
+	/**
+	 * The current layout version.
+	 */
+	public static final int VERSION = 2;
+
+	private RoutineBundle() {
+	}
+
+	/**
+	 * Writes a bundle of every saved profile and action list to
+	 * {@value org.hammerhead226.sharkmacro.Constants#BUNDLE_FILE}.
+	 *
+	 * @return {@code true} if the bundle was written, {@code false} otherwise
+	 */
+	public static boolean write() {
+		return write(Constants.BUNDLE_FILE);
+	}
+
+	/**
+	 * Writes a bundle of every saved profile and action list.
+	 *
+	 * @param bundle
+	 *            the file to write the bundle to
+	 * @return {@code true} if the bundle was written, {@code false} otherwise
+	 */
+	public static boolean write(String bundle) {
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		for (Map.Entry<String, Function<String, ? extends Parser<?>>> e : Parser.getBundled().entrySet()) {
+			File[] files = new File(e.getKey()).listFiles();
+			if (files == null) {
+				continue;
+			}
+			for (File f : files) {
+				if (!f.isFile() || f.getName().startsWith(".")) {
+					continue;
+				}
+				Parser<?> p = e.getValue().apply(f.getName());
+				// Stat before reading, so a file changed while it is read is seen as stale
+				long size = f.length();
+				long modified = f.lastModified();
+				ByteBuffer data = p.encodeForBundle();
+				if (data != null) {
+					entries.add(new Entry(e.getKey(), f.getName(), p.getClass().getName(), size, modified, data));
+				}
+			}
+		}
+
+		int indexBytes = Integer.BYTES;
+		long dataBytes = 0;
+		for (Entry e : entries) {
+			indexBytes += 3 * Short.BYTES + e.directory.length + e.filename.length + e.parser.length
+					+ 2 * Long.BYTES + 2 * Integer.BYTES;
+			dataBytes += e.data.remaining();
+		}
+		if (BinaryCodec.HEADER_BYTES + indexBytes + dataBytes > Integer.MAX_VALUE) {
+			DriverStation.getInstance();
+			DriverStation.reportError("Routines are too large to bundle", false);
+			return false;
+		}
+
+		ByteBuffer buf = ByteBuffer.allocate(BinaryCodec.HEADER_BYTES + indexBytes + (int) dataBytes)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(MAGIC);
+		buf.putShort((short) VERSION);
+		buf.putShort((short) 0);
+		buf.putInt(entries.size());
+		int offset = BinaryCodec.HEADER_BYTES + indexBytes;
+		for (Entry e : entries) {
+			BinaryCodec.putString(buf, e.directory);
+			BinaryCodec.putString(buf, e.filename);
+			BinaryCodec.putString(buf, e.parser);
+			buf.putLong(e.size);
+			buf.putLong(e.modified);
+			buf.putInt(offset);
+			buf.putInt(e.data.remaining());
+			offset += e.data.remaining();
+		}
+		for (Entry e : entries) {
+			buf.put(e.data);
+		}
+		buf.flip();
+
+		try {
+			WriteQueue.writeNow(Paths.get(bundle), file -> {
+				try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+					while (buf.hasRemaining()) {
+						channel.write(buf);
+					}
+				}
+			});
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Fills the cache from the bundle at
+	 * {@value org.hammerhead226.sharkmacro.Constants#BUNDLE_FILE}.
+	 *
+	 * @return the number of files added to the cache
+	 */
+	public static int load() {
+		return load(Constants.BUNDLE_FILE);
+	}
+
+	/**
+	 * Fills the cache from a bundle. Files that have changed or been deleted since
+	 * the bundle was written, and files that are already cached, are skipped.
+	 *
+	 * @param bundle
+	 *            the bundle file to read
+	 * @return the number of files added to the cache
+	 */
+	public static int load(String bundle) {
+		Map<String, Function<String, ? extends Parser<?>>> parsers = Parser.getBundled();
+		HashSet<String> initialized = new HashSet<String>();
+		int loaded = 0;
+
+		try (FileChannel channel = FileChannel.open(Paths.get(bundle), StandardOpenOption.READ)) {
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			BinaryCodec.require(buf, BinaryCodec.HEADER_BYTES + Integer.BYTES);
+			if (buf.getInt() != MAGIC) {
+				throw new IOException("Not a SharkMacro routine bundle");
+			}
+			int version = buf.getShort();
+			buf.getShort();
+			if (version < 1 || version > VERSION) {
+				throw new IOException("Unsupported bundle version: " + version);
+			}
+
+			int count = buf.getInt();
+			for (int i = 0; i < count; i++) {
+				String directory = BinaryCodec.getString(buf);
+				String filename = BinaryCodec.getString(buf);
+				String parser = version >= 2 ? BinaryCodec.getString(buf) : null;
+				BinaryCodec.require(buf, 2 * Long.BYTES + 2 * Integer.BYTES);
+				long size = buf.getLong();
+				long modified = buf.getLong();
+				int offset = buf.getInt();
+				int length = buf.getInt();
+				if (offset < 0 || length < 0 || (long) offset + length > buf.limit()) {
+					throw new IOException("Malformed bundle index");
+				}
+
+				if (parser != null && !parsers.containsKey(directory) && initialized.add(parser)) {
+					initialize(parser);
+					parsers = Parser.getBundled();
+				}
+				Function<String, ? extends Parser<?>> factory = parsers.get(directory);
+				if (factory == null || !isUnchanged(Paths.get(directory, filename), size, modified)) {
+					continue;
+				}
+
+				ByteBuffer data = buf.duplicate();
+				data.limit(offset + length).position(offset);
+				try {
+					if (factory.apply(filename).loadFromBundle(data.slice())) {
+						loaded++;
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			DriverStation.getInstance();
+			DriverStation.reportWarning("Unable to load routine bundle: " + bundle, false);
+		}
+
+		return loaded;
+	}
+
+	/**
+	 * @param file
+	 *            a file listed in a bundle
+	 * @param size
+	 *            the size of the file when the bundle was written
+	 * @param modified
+	 *            the modified time of the file when the bundle was written
+	 * @return {@code true} if the file still has the same size and modified time
+	 */
+	private static boolean isUnchanged(Path file, long size, long modified) {
+		try {
+			return Files.size(file) == size && Files.getLastModifiedTime(file).toMillis() == modified;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Initializes a parser class named in a bundle, so it registers the
+	 * directories it stores files in.
+	 *
+	 * @param parser
+	 *            the binary name of a {@link Parser} subclass
+	 */
+	private static void initialize(String parser) {
+		try {
+			Class.forName(parser, true, RoutineBundle.class.getClassLoader());
+		} catch (ClassNotFoundException | LinkageError e) {
+			DriverStation.getInstance();
+			DriverStation.reportWarning("Unable to load bundled parser: " + parser, false);
+		}
+	}
+
+	/**
+	 * A file to be written to a bundle.
+	 */
+	private static class Entry {
+
+		final byte[] directory;
+
+		final byte[] filename;
+
+		final byte[] parser;
+
+		final long size;
+
+		final long modified;
+
+		final ByteBuffer data;
+
+		Entry(String directory, String filename, String parser, long size, long modified, ByteBuffer data) {
+			this.directory = directory.getBytes(StandardCharsets.UTF_8);
+			this.filename = filename.getBytes(StandardCharsets.UTF_8);
+			this.parser = parser.getBytes(StandardCharsets.UTF_8);
+			this.size = size;
+			this.modified = modified;
+			this.data = data;
+		}
+	}
+
+}
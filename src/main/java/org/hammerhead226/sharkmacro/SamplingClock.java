@@ -0,0 +1,159 @@
+package org.hammerhead226.sharkmacro;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.RobotController;
+
+/**
+ * A single {@link edu.wpi.first.wpilibj.Notifier Notifier} shared by
+ * everything that records a routine, so a drivetrain, an arm and the
+ * {@link org.hammerhead226.sharkmacro.actions.ActionRecorder ActionRecorder}
+ * record against the same time instead of drifting apart on their own
+ * threads and timers.
+ * <p>
+ * Every {@value org.hammerhead226.sharkmacro.Constants#DT_MS} ms the clock
+ * ticks, and each {@link Member} that has {@link #join(Member) joined} is
+ * sampled, in the order they joined, on the clock's one thread. Recordings
+ * made on the same clock are converted onto points that fall on the clock's
+ * ticks, so point {@code k} of each recording started before
+ * {@link #start()} was read in the same tick.
+ */
+public final class SamplingClock {
+
+	/**
+	 * Something sampled on each tick of a {@link SamplingClock}.
+	 */
+	public interface Member {
+
+		/**
+		 * Takes a sample. Called on the clock's thread, and must return quickly.
+		 *
+		 * @param tick
+		 *            the number of ticks before this one since the clock was
+		 *            started
+		 */
+		void sample(long tick);
+	}
+
+	/**
+	 * The thread that ticks the clock.
+	 */
+	private final Notifier notifier;
+
+	/**
+	 * The members sampled on each tick, in the order they joined.
+	 */
+	private final CopyOnWriteArrayList<Member> members = new CopyOnWriteArrayList<Member>();
+
+	/**
+	 * FPGA time, in microseconds, the clock was started at.
+	 */
+	private volatile long origin = 0;
+
+	/**
+	 * Number of ticks since the clock was started. Only written by the clock's
+	 * thread.
+	 */
+	private volatile long ticks = 0;
+
+	/**
+	 * Whether the clock is ticking.
+	 */
+	private volatile boolean running = false;
+
+	/**
+	 * Constructs a new {@link SamplingClock}, which doesn't tick until
+	 * {@link #start()} is called.
+	 */
+	public SamplingClock() {
+		notifier = new Notifier(this::tick);
+	}
+
+	/**
+	 * Starts ticking from tick {@code 0}. Does nothing if the clock is already
+	 * running.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		ticks = 0;
+		origin = RobotController.getFPGATime();
+		running = true;
+		notifier.startPeriodic(Constants.DT_SECONDS);
+	}
+
+	/**
+	 * Stops ticking. Members stay joined, and are sampled again once the clock is
+	 * restarted.
+	 */
+	public synchronized void stop() {
+		running = false;
+		notifier.stop();
+	}
+
+	/**
+	 * Adds a member to be sampled on every tick, starting with the next one.
+	 * Does nothing if it has already joined.
+	 *
+	 * @param member
+	 *            the member to add
+	 */
+	public void join(Member member) {
+		members.addIfAbsent(member);
+	}
+
+	/**
+	 * Removes a member. A tick already in progress may still sample it.
+	 *
+	 * @param member
+	 *            the member to remove
+	 */
+	public void leave(Member member) {
+		members.remove(member);
+	}
+
+	/**
+	 * @return {@code true} if the clock is ticking
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return the FPGA time, in microseconds, the clock was last started at
+	 */
+	public long getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * @return the number of ticks since the clock was last started
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * @return the time since the clock was last started, in seconds
+	 */
+	public double getTime() {
+		return (RobotController.getFPGATime() - origin) / 1e6;
+	}
+
+	/**
+	 * Samples every member. Called by {@link #notifier}.
+	 */
+	private void tick() {
+		if (!running) {
+			return;
+		}
+		long tick = ticks;
+		for (Member member : members) {
+			member.sample(tick);
+		}
+		ticks = tick + 1;
+	}
+
+}
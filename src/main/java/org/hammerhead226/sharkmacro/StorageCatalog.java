@@ -0,0 +1,484 @@
+package org.hammerhead226.sharkmacro;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Catalog of the files in one storage directory, used by {@link Parser} to
+ * find the newest and next free file numbers and to list saved routines
+ * without scanning and decoding the directory each time.
+ * <p>
+ * The catalog is saved as the csv file
+ * {@value org.hammerhead226.sharkmacro.Constants#CATALOG_FILENAME} in the
+ * directory it describes, along with the directory's last modified time. As
+ * long as that time hasn't changed, no file has been added, removed or
+ * renamed, since parsers update the catalog after every file they write. If
+ * the directory was changed some other way, for example by deploying code or
+ * copying files onto the roboRIO, the catalog is rebuilt from a listing of the
+ * directory. Overwriting a file in place doesn't change the directory's
+ * modified time, so each file's size and modified time are also checked
+ * against its entry whenever the catalog is loaded or listed. Only the listing is
+ * done on the caller's thread. Files that are new or have changed since they
+ * were last described are read on {@link Parser}'s background prewarming
+ * threads to fill in their point count and duration.
+ * <p>
+ * The file is laid out as follows:
+ * <p>
+ * <center>
+ * {@code catalog, <version>, <directory modified time, ns>}<br>
+ * {@code <filename>, <size>, <modified time, ms>, <point count>, <duration>}
+ * (one row per file)<br>
+ * {@code end, <number of files>}
+ * </center>
+ * </p>
+ * A catalog without its {@code end} row was only partly written and is
+ * rebuilt.
+ */
+final class StorageCatalog {
+
+	/**
+	 * The current layout version of the catalog file.
+	 */
+	private static final int VERSION = 2;
+
+	/**
+	 * Orders entries by file number, then by name.
+	 */
+	private static final Comparator<CatalogEntry> BY_NUMBER = Comparator.comparingInt(CatalogEntry::getNumber)
+			.thenComparing(CatalogEntry::getFilename);
+
+	/**
+	 * The directory this catalog describes.
+	 */
+	private final Path directory;
+
+	/**
+	 * The catalog file.
+	 */
+	private final Path file;
+
+	/**
+	 * Prefix of numbered files in the directory.
+	 */
+	private final String prefix;
+
+	/**
+	 * Creates a parser for a filename in the directory, used to pick out
+	 * supported files and describe them when the directory is scanned. May be
+	 * {@code null}, in which case scanned files are only described by their name
+	 * and size.
+	 */
+	private final Function<String, ? extends Parser<?>> factory;
+
+	/**
+	 * The files in the directory, keyed by filename.
+	 */
+	private final TreeMap<String, CatalogEntry> entries = new TreeMap<String, CatalogEntry>();
+
+	/**
+	 * Numbers of files that have been queued to be written but haven't been
+	 * written yet, keyed by filename. They count towards the newest number, but
+	 * aren't saved in the catalog file.
+	 */
+	private final TreeMap<String, Integer> reserved = new TreeMap<String, Integer>();
+
+	/**
+	 * The last modified time of the directory, in nanoseconds, when
+	 * {@link #entries} was last known to be up to date, or {@code -1} if it never
+	 * was.
+	 */
+	private long stamp = -1;
+
+	/**
+	 * Whether entries are being described on a background thread.
+	 */
+	private boolean describing = false;
+
+	/**
+	 * Constructs a new {@link StorageCatalog}. Nothing is read until the catalog
+	 * is first used.
+	 *
+	 * @param directory
+	 *            the directory to describe
+	 * @param prefix
+	 *            prefix of numbered files in the directory
+	 * @param factory
+	 *            creates a parser for a filename in the directory
+	 */
+	StorageCatalog(Path directory, String prefix, Function<String, ? extends Parser<?>> factory) {
+		this.directory = directory;
+		this.file = directory.resolve(Constants.CATALOG_FILENAME);
+		this.prefix = prefix;
+		this.factory = factory;
+	}
+
+	/**
+	 * @return every file in the directory, ordered by number and then name
+	 */
+	synchronized List<CatalogEntry> list() {
+		if (!refresh()) {
+			verify();
+		}
+		ArrayList<CatalogEntry> list = new ArrayList<CatalogEntry>(entries.values());
+		list.sort(BY_NUMBER);
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * @return the highest file number in the directory, or {@code 0} if there are
+	 *         no numbered files
+	 */
+	synchronized int getNewestNumber() {
+		refresh();
+		int newest = 0;
+		for (CatalogEntry e : entries.values()) {
+			newest = Math.max(newest, e.getNumber());
+		}
+		for (int number : reserved.values()) {
+			newest = Math.max(newest, number);
+		}
+		return newest;
+	}
+
+	/**
+	 * Reserves the number of a file that has been queued to be written, so it
+	 * isn't handed out again before the file exists.
+	 *
+	 * @param filename
+	 *            name of the file, without its directory
+	 */
+	synchronized void reserve(String filename) {
+		reserved.put(filename, parseNumber(filename, prefix));
+	}
+
+	/**
+	 * Releases a reservation made by {@link #reserve(String)}, once the file has
+	 * been written and {@link #put(String, long, int, double) put} in the
+	 * catalog, or its write has failed.
+	 *
+	 * @param filename
+	 *            name of the file, without its directory
+	 */
+	synchronized void release(String filename) {
+		reserved.remove(filename);
+	}
+
+	/**
+	 * Adds or replaces the entry of a file that was just written, and saves the
+	 * catalog. Writing the file changed the directory's modified time, so if the
+	 * catalog was already loaded it is assumed to still be up to date apart from
+	 * this file. Changes made by other programs while the file was being written
+	 * are picked up the next time the directory changes.
+	 *
+	 * @param filename
+	 *            name of the file, without its directory
+	 * @param size
+	 *            size of the file, in bytes
+	 * @param pointCount
+	 *            number of points or actions in the file
+	 * @param duration
+	 *            length of the recording, in seconds
+	 */
+	synchronized void put(String filename, long size, int pointCount, double duration) {
+		if (stamp == -1) {
+			refresh();
+		}
+		entries.put(filename, new CatalogEntry(filename, parseNumber(filename, prefix), size,
+				modifiedTime(directory.resolve(filename)), pointCount, duration));
+		save();
+	}
+
+	/**
+	 * Makes sure {@link #entries} lists the files in the directory, by loading
+	 * the catalog file or scanning the directory if needed. A loaded catalog is
+	 * also {@link #verify() verified} against the files.
+	 *
+	 * @return {@code true} if the entries were loaded or scanned, so every entry
+	 *         has just been checked against its file, {@code false} if they were
+	 *         already up to date with the directory
+	 */
+	private boolean refresh() {
+		long current = directoryStamp();
+		if (current == -1 || current == stamp) {
+			return false;
+		}
+		if (load() && stamp == current) {
+			verify();
+			describeLater();
+			return true;
+		}
+		scan();
+		save();
+		describeLater();
+		return true;
+	}
+
+	/**
+	 * Checks the size and modified time of every file against its entry, and
+	 * replaces the entry of each file that was overwritten in place with one
+	 * that isn't described yet. Only the files are stat'ed, none are read.
+	 */
+	private void verify() {
+		boolean changed = false;
+		for (CatalogEntry e : new ArrayList<CatalogEntry>(entries.values())) {
+			File f = directory.resolve(e.getFilename()).toFile();
+			if (!f.isFile()) {
+				entries.remove(e.getFilename());
+				changed = true;
+				continue;
+			}
+			long size = f.length();
+			long modified = f.lastModified();
+			if (size != e.getSize() || modified != e.getModified()) {
+				entries.put(e.getFilename(), factory == null
+						? new CatalogEntry(e.getFilename(), e.getNumber(), size, modified, -1, 0)
+						: CatalogEntry.listed(e.getFilename(), e.getNumber(), size, modified));
+				changed = true;
+			}
+		}
+		if (changed) {
+			save();
+			describeLater();
+		}
+	}
+
+	/**
+	 * Reads the catalog file into {@link #entries}.
+	 *
+	 * @return {@code true} if the file was read, {@code false} if it doesn't exist
+	 *         or is malformed
+	 */
+	private boolean load() {
+		if (Files.notExists(file)) {
+			return false;
+		}
+
+		TreeMap<String, CatalogEntry> loaded = new TreeMap<String, CatalogEntry>();
+		long loadedStamp;
+		try (CSVStreamReader reader = new CSVStreamReader(file)) {
+			if (!reader.nextRow() || !reader.nextString().equals("catalog")
+					|| (int) reader.nextDouble() != VERSION) {
+				return false;
+			}
+			loadedStamp = Long.parseLong(reader.nextString());
+
+			while (true) {
+				if (!reader.nextRow()) {
+					// Missing end row, so the catalog was only partly written
+					return false;
+				}
+				String name = reader.nextString();
+				if (name.equals("end")) {
+					if ((int) reader.nextDouble() != loaded.size()) {
+						return false;
+					}
+					break;
+				}
+				long size = Long.parseLong(reader.nextString());
+				long modified = Long.parseLong(reader.nextString());
+				int pointCount = (int) reader.nextDouble();
+				double duration = reader.nextDouble();
+				loaded.put(name,
+						new CatalogEntry(name, parseNumber(name, prefix), size, modified, pointCount, duration));
+			}
+		} catch (IOException | NumberFormatException e) {
+			return false;
+		}
+
+		entries.clear();
+		entries.putAll(loaded);
+		stamp = loadedStamp;
+		return true;
+	}
+
+	/**
+	 * Rebuilds {@link #entries} from a listing of the directory, without reading
+	 * any file. A file with the same size and modified time as its current entry
+	 * keeps that entry. Every other supported file gets an entry that isn't
+	 * described yet.
+	 */
+	private void scan() {
+		File[] files = directory.toFile().listFiles();
+		TreeMap<String, CatalogEntry> scanned = new TreeMap<String, CatalogEntry>();
+		for (int i = 0; files != null && i < files.length; i++) {
+			File f = files[i];
+			String name = f.getName();
+			if (!f.isFile() || name.startsWith(".")) {
+				continue;
+			}
+			long size = f.length();
+			long modified = f.lastModified();
+			CatalogEntry old = entries.get(name);
+			if (old != null && old.getSize() == size && old.getModified() == modified) {
+				scanned.put(name, old);
+			} else if (factory == null) {
+				scanned.put(name, new CatalogEntry(name, parseNumber(name, prefix), size, modified, -1, 0));
+			} else if (factory.apply(name).isSupported()) {
+				scanned.put(name, CatalogEntry.listed(name, parseNumber(name, prefix), size, modified));
+			}
+		}
+		entries.clear();
+		entries.putAll(scanned);
+	}
+
+	/**
+	 * Describes the entries that haven't been described yet on
+	 * {@link Parser}'s prewarming threads, unless that is already under way.
+	 */
+	private void describeLater() {
+		if (describing || factory == null) {
+			return;
+		}
+		ArrayList<String> names = new ArrayList<String>();
+		for (CatalogEntry e : entries.values()) {
+			if (!e.isDescribed()) {
+				names.add(e.getFilename());
+			}
+		}
+		if (names.isEmpty()) {
+			return;
+		}
+		describing = true;
+		Parser.getPrewarmExecutor().execute(() -> describe(names));
+	}
+
+	/**
+	 * Reads files to fill in their entries' point counts and durations, then
+	 * saves the catalog. Runs on a background thread, and only holds the
+	 * catalog's lock between files.
+	 *
+	 * @param names
+	 *            the files to describe
+	 */
+	private void describe(List<String> names) {
+		try {
+			for (String name : names) {
+				CatalogEntry described = factory.apply(name).describe();
+				synchronized (this) {
+					CatalogEntry current = entries.get(name);
+					// Skip files that were replaced or removed while being read
+					if (described != null && current != null && !current.isDescribed()
+							&& described.getSize() == current.getSize()
+							&& described.getModified() == current.getModified()) {
+						entries.put(name, described);
+					}
+				}
+			}
+		} finally {
+			synchronized (this) {
+				describing = false;
+				// If the directory changed meanwhile, saving now would hide the change
+				if (stamp != -1 && directoryStamp() == stamp) {
+					save();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes {@link #entries} to the catalog file, stamped with the directory's
+	 * current modified time.
+	 */
+	private void save() {
+		try {
+			// Create the file before reading the stamp, since creating it changes the
+			// directory's modified time
+			if (Files.notExists(file)) {
+				Files.createFile(file);
+			}
+			stamp = directoryStamp();
+
+			try (CSVStreamWriter writer = new CSVStreamWriter(file)) {
+				writer.writeString("catalog");
+				writer.writeLong(VERSION);
+				writer.writeString(Long.toString(stamp));
+				writer.endRow();
+				for (CatalogEntry e : entries.values()) {
+					writer.writeString(e.getFilename());
+					writer.writeString(Long.toString(e.getSize()));
+					writer.writeString(Long.toString(e.getModified()));
+					writer.writeLong(e.getPointCount());
+					writer.writeDouble(e.getDuration());
+					writer.endRow();
+				}
+				writer.writeString("end");
+				writer.writeLong(entries.size());
+				writer.endRow();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return the last modified time of the directory, in nanoseconds, or
+	 *         {@code -1} if it doesn't exist
+	 */
+	private long directoryStamp() {
+		try {
+			FileTime time = Files.getLastModifiedTime(directory);
+			return time.to(TimeUnit.NANOSECONDS);
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @param file
+	 *            a file
+	 * @return the last modified time of the file, in milliseconds, or {@code 0}
+	 *         if it can't be read
+	 */
+	static long modifiedTime(Path file) {
+		try {
+			return Files.getLastModifiedTime(file).toMillis();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Finds the number of a file named in the prefix + number naming convention.
+	 * For example, {@code prefix0025.csv} is number {@code 25}.
+	 *
+	 * @param filename
+	 *            name of the file, without its directory
+	 * @param prefix
+	 *            the prefix the file must start with
+	 * @return the number of the file, or {@code -1} if it isn't named in the
+	 *         convention
+	 */
+	static int parseNumber(String filename, String prefix) {
+		if (!filename.startsWith(prefix)) {
+			return -1;
+		}
+		int end = filename.indexOf('.', prefix.length());
+		if (end < 0) {
+			end = filename.length();
+		}
+		int digits = end - prefix.length();
+		if (digits == 0 || digits > 9) {
+			return -1;
+		}
+		int number = 0;
+		for (int i = prefix.length(); i < end; i++) {
+			char c = filename.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			number = number * 10 + (c - '0');
+		}
+		return number;
+	}
+
+}
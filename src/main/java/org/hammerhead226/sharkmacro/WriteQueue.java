@@ -0,0 +1,355 @@
+package org.hammerhead226.sharkmacro;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.DirectoryStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.wpi.first.wpilibj.DriverStation;
+
+/**
+ * Writes files for {@link Parser} so that a file on disk is always either its
+ * old contents or its complete new contents, even if the robot loses power
+ * partway through a save.
+ * <p>
+ * Each file is written to a hidden temporary file next to it, synced to disk,
+ * and then renamed over the real file, which the filesystem does atomically.
+ * Writes can be done immediately with {@link #writeNow(Path, FileWriter)} or
+ * queued with {@link #submit(Path, FileWriter)} to be done on a background
+ * thread. Queued writes that are waiting at the same time are synced and
+ * renamed together in batches of up to
+ * {@value org.hammerhead226.sharkmacro.Constants#WRITE_QUEUE_MAX_BATCH}.
+ * Temporary files left behind by a crash are deleted the first time a
+ * directory is written to or used by a {@link Parser}.
+ */
+final class WriteQueue {
+
+	/**
+	 * Writes the contents of a file.
+	 */
+	interface FileWriter {
+
+		/**
+		 * @param file
+		 *            the file to write to
+		 * @throws IOException
+		 *             if the file couldn't be written
+		 */
+		void write(Path file) throws IOException;
+	}
+
+	/**
+	 * Used to give every write its own temporary file, so writes to the same file
+	 * never clash.
+	 */
+	private static final AtomicLong tempCount = new AtomicLong();
+
+	/**
+	 * Directories that have already been cleared of temporary files left by
+	 * earlier runs.
+	 */
+	private static final HashSet<Path> cleaned = new HashSet<Path>();
+
+	/**
+	 * Writes waiting for the background thread.
+	 */
+	private final LinkedBlockingQueue<Job> jobs = new LinkedBlockingQueue<Job>();
+
+	/**
+	 * The background thread, started by the first call to
+	 * {@link #submit(Path, FileWriter)}, or {@code null} if it hasn't been started
+	 * or has died.
+	 */
+	private Thread thread;
+
+	/**
+	 * Queues a file to be written on the background thread.
+	 *
+	 * @param target
+	 *            the file to write
+	 * @param writer
+	 *            writes the contents of the file
+	 * @return a future that completes once the file is on disk or the write failed
+	 */
+	CompletableFuture<WriteResult> submit(Path target, FileWriter writer) {
+		deleteStaleTempFiles(target.toAbsolutePath().getParent());
+		Job job = new Job(target, writer);
+		jobs.add(job);
+		synchronized (this) {
+			if (thread == null) {
+				startThread();
+			}
+		}
+		return job.result;
+	}
+
+	/**
+	 * Starts a new background thread. Only called while holding this queue's
+	 * lock.
+	 */
+	private void startThread() {
+		thread = new Thread(this::run, "SharkMacro-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Writes a file immediately on the calling thread.
+	 *
+	 * @param target
+	 *            the file to write
+	 * @param writer
+	 *            writes the contents of the file
+	 * @throws IOException
+	 *             if the file couldn't be written, in which case the old file is
+	 *             left untouched
+	 */
+	static void writeNow(Path target, FileWriter writer) throws IOException {
+		deleteStaleTempFiles(target.toAbsolutePath().getParent());
+		Path temp = tempFileFor(target);
+		try {
+			writer.write(temp);
+			force(temp);
+			commit(temp, target);
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		syncDirectory(target.toAbsolutePath().getParent());
+	}
+
+	/**
+	 * Deletes the temporary files in a directory that were left by writes
+	 * interrupted by a crash or power loss. Only the first call for each
+	 * directory does anything. Every write into a directory calls this before
+	 * creating its own temporary file, so only files from earlier runs are
+	 * deleted.
+	 *
+	 * @param directory
+	 *            the directory to clean
+	 */
+	static synchronized void deleteStaleTempFiles(Path directory) {
+		if (directory == null || !cleaned.add(directory.toAbsolutePath().normalize())) {
+			return;
+		}
+		try (DirectoryStream<Path> temps = Files.newDirectoryStream(directory, ".*.tmp")) {
+			for (Path temp : temps) {
+				if (isTempFile(temp)) {
+					Files.deleteIfExists(temp);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Takes batches of jobs off the queue and writes them, forever. If the thread
+	 * dies anyway, the jobs it had taken are failed, and another thread is
+	 * started if more jobs are waiting, so no future is left incomplete.
+	 */
+	private void run() {
+		ArrayList<Job> batch = new ArrayList<Job>(Constants.WRITE_QUEUE_MAX_BATCH);
+		try {
+			while (true) {
+				try {
+					batch.add(jobs.take());
+				} catch (InterruptedException e) {
+					return;
+				}
+				jobs.drainTo(batch, Constants.WRITE_QUEUE_MAX_BATCH - 1);
+				writeBatch(batch);
+				batch.clear();
+			}
+		} finally {
+			for (Job job : batch) {
+				job.result.complete(new WriteResult(job.target.toString(),
+						new IOException("Writer thread stopped"), (System.nanoTime() - job.queuedNanos) / 1.0e6,
+						batch.size()));
+			}
+			synchronized (this) {
+				thread = null;
+				if (!jobs.isEmpty()) {
+					startThread();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes every job in a batch to its temporary file, syncs them all, then
+	 * renames them all into place and syncs their directories once each. Anything
+	 * a writer throws, even an {@link Error} such as running out of memory while
+	 * encoding, only fails its own job, and every job's future is completed
+	 * before this returns or throws.
+	 *
+	 * @param batch
+	 *            the jobs to write, in the order they were queued
+	 */
+	private static void writeBatch(ArrayList<Job> batch) {
+		try {
+			for (Job job : batch) {
+				try {
+					job.writer.write(job.temp);
+					force(job.temp);
+				} catch (Throwable e) {
+					job.error = e instanceof IOException ? (IOException) e : new IOException(e);
+				}
+			}
+
+			LinkedHashSet<Path> written = new LinkedHashSet<Path>();
+			for (Job job : batch) {
+				if (job.error == null) {
+					try {
+						commit(job.temp, job.target);
+						job.committed = true;
+						written.add(job.target);
+					} catch (Throwable e) {
+						job.error = e instanceof IOException ? (IOException) e : new IOException(e);
+					}
+				}
+				if (job.error != null) {
+					try {
+						Files.deleteIfExists(job.temp);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+
+			LinkedHashSet<Path> directories = new LinkedHashSet<Path>();
+			for (Path p : written) {
+				directories.add(p.toAbsolutePath().getParent());
+			}
+			for (Path dir : directories) {
+				syncDirectory(dir);
+			}
+		} finally {
+			long now = System.nanoTime();
+			for (Job job : batch) {
+				if (job.error == null && !job.committed) {
+					job.error = new IOException("Write was interrupted");
+				}
+				if (job.error != null) {
+					job.error.printStackTrace();
+					DriverStation.getInstance();
+					DriverStation.reportError("Failed to write file: " + job.target, false);
+				}
+				job.result.complete(new WriteResult(job.target.toString(), job.error,
+						(now - job.queuedNanos) / 1.0e6, batch.size()));
+			}
+		}
+	}
+
+	/**
+	 * @param target
+	 *            the file that will be written
+	 * @return a new hidden temporary file to write the target's contents to first
+	 */
+	private static Path tempFileFor(Path target) {
+		return target.resolveSibling("." + target.getFileName() + "." + tempCount.incrementAndGet() + ".tmp");
+	}
+
+	/**
+	 * @param file
+	 *            a file
+	 * @return {@code true} if the file is named like those made by
+	 *         {@link #tempFileFor(Path)}
+	 */
+	private static boolean isTempFile(Path file) {
+		String name = file.getFileName().toString();
+		int end = name.length() - ".tmp".length();
+		int dot = name.lastIndexOf('.', end - 1);
+		if (!name.startsWith(".") || !name.endsWith(".tmp") || dot <= 1 || dot + 1 == end) {
+			return false;
+		}
+		for (int i = dot + 1; i < end; i++) {
+			if (!Character.isDigit(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Flushes a written file's contents to disk.
+	 *
+	 * @param file
+	 *            the file to sync
+	 * @throws IOException
+	 *             if the file couldn't be synced
+	 */
+	private static void force(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Atomically replaces the target with the synced temporary file.
+	 *
+	 * @param temp
+	 *            the temporary file
+	 * @param target
+	 *            the file to replace
+	 * @throws IOException
+	 *             if the file couldn't be renamed
+	 */
+	private static void commit(Path temp, Path target) throws IOException {
+		Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Syncs a directory so that a rename into it survives a power loss. Not every
+	 * platform allows directories to be opened, so failures are ignored.
+	 *
+	 * @param dir
+	 *            the directory to sync
+	 */
+	private static void syncDirectory(Path dir) {
+		try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// The rename is still atomic, only its durability isn't guaranteed
+		}
+	}
+
+	/**
+	 * A queued write.
+	 */
+	private static class Job {
+
+		final Path target;
+
+		final Path temp;
+
+		final FileWriter writer;
+
+		final CompletableFuture<WriteResult> result = new CompletableFuture<WriteResult>();
+
+		final long queuedNanos = System.nanoTime();
+
+		IOException error;
+
+		/**
+		 * Whether the file has been renamed into place.
+		 */
+		boolean committed;
+
+		Job(Path target, FileWriter writer) {
+			this.target = target;
+			this.temp = tempFileFor(target);
+			this.writer = writer;
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+package org.hammerhead226.sharkmacro;
+
+import java.io.IOException;
+
+/**
+ * The outcome of a file write queued by {@link Parser}, as returned by the
+ * futures of {@code writeToFileAsync}.
+ */
+public final class WriteResult {
+
+	/**
+	 * Absolute filename that was written.
+	 */
+	private final String filename;
+
+	/**
+	 * The exception that stopped the write, or {@code null} if it succeeded.
+	 */
+	private final IOException error;
+
+	/**
+	 * Time from the write being queued until the file was safely on disk, in
+	 * milliseconds.
+	 */
+	private final double latencyMs;
+
+	/**
+	 * Number of files that were synced to disk together with this one.
+	 */
+	private final int batchSize;
+
+	WriteResult(String filename, IOException error, double latencyMs, int batchSize) {
+		this.filename = filename;
+		this.error = error;
+		this.latencyMs = latencyMs;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @return the absolute filename that was written
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * @return {@code true} if the file was written and synced to disk,
+	 *         {@code false} otherwise
+	 */
+	public boolean isSuccessful() {
+		return error == null;
+	}
+
+	/**
+	 * @return the exception that stopped the write, or {@code null} if it
+	 *         succeeded
+	 */
+	public IOException getError() {
+		return error;
+	}
+
+	/**
+	 * @return the time from the write being queued until the file was safely on
+	 *         disk, in milliseconds
+	 */
+	public double getLatencyMs() {
+		return latencyMs;
+	}
+
+	/**
+	 * @return the number of files that were synced to disk together with this one,
+	 *         including itself
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Generates a string representation of this result.
+	 *
+	 * @return the string representation
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(filename);
+		sb.append(isSuccessful() ? " written in " : " failed after ");
+		sb.append(latencyMs);
+		sb.append(" ms (batch of ");
+		sb.append(batchSize);
+		sb.append(")");
+		if (error != null) {
+			sb.append(": ");
+			sb.append(error);
+		}
+		return sb.toString();
+	}
+
+}
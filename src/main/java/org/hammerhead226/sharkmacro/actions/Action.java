@@ -1,8 +1,5 @@
 package org.hammerhead226.sharkmacro.actions;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-
 /**
  * Models an action of a robot. This class's {@link #start()} method can be
  * called to add the {@link edu.wpi.first.wpilibj.command.Command Command}
@@ -78,15 +75,7 @@ public final class Action {
 	 * @return the {@code String[]} representation of this {@code Action}.
 	 */
 	public String[] toStringArray() {
-		@SuppressWarnings("serial")
-		ArrayList<String> list = new ArrayList<String>() {
-			{
-				add(commandName);
-				add(Double.toString(startTime));
-				add(Double.toString(endTime));
-			}
-		};
-		return Arrays.toString(list.toArray()).replace("[", "").replace("]", "").replace(" ", "").split(",");
+		return new String[] { commandName, Double.toString(startTime), Double.toString(endTime) };
 	}
 
 	/**
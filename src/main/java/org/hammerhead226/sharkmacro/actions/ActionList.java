@@ -1,7 +1,7 @@
 package org.hammerhead226.sharkmacro.actions;
 
-import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import org.hammerhead226.sharkmacro.Constants;
 
@@ -13,6 +13,10 @@ import edu.wpi.first.wpilibj.Timer;
  * A list of {@link Action}s. This is executed concurrently with a
  * {@link org.hammerhead226.sharkmacro.motionprofiles.Profile Profile} to form a
  * complete autonomous routine.
+ * <p>
+ * The list itself is never modified, so lists decoded by
+ * {@link ActionListParser} can be shared with the cache, and an
+ * {@code ActionList} can be executed more than once.
  * 
  * @author Alec Minchington
  *
@@ -22,7 +26,19 @@ public class ActionList implements Iterable<Action> {
 	/**
 	 * List that holds the {@link Action}s that make up this {@link ActionList}.
 	 */
-	private ArrayList<Action> actionList;
+	private final List<Action> actionList;
+
+	/**
+	 * Whether each {@link Action} in {@link #actionList} has been started during
+	 * the current execution.
+	 */
+	private boolean[] started;
+
+	/**
+	 * Number of {@link Action}s that haven't been started during the current
+	 * execution.
+	 */
+	private int remaining;
 
 	/**
 	 * {@link edu.wpi.first.wpilibj.Timer Timer} used to keep track of which
@@ -45,15 +61,16 @@ public class ActionList implements Iterable<Action> {
 	 * Constructs a new {@link ActionList} object.
 	 * 
 	 * @param list
-	 *            the list of {@link Action}s this {@code ActionList} represents
+	 *            the list of {@link Action}s this {@code ActionList} represents,
+	 *            which is not copied or modified
 	 */
-	public ActionList(ArrayList<Action> list) {
+	public ActionList(List<Action> list) {
 		this.actionList = list;
 		thread = new Notifier(new PeriodicRunnable(this));
 	}
 
 	/**
-	 * This method returns the {@link java.util.ArrayList#size() size()} property of
+	 * This method returns the {@link java.util.List#size() size()} property of
 	 * this class's {@link #actionList} member.
 	 * 
 	 * @return the number of {@link Action}s this {@code ActionList} contains
@@ -77,6 +94,9 @@ public class ActionList implements Iterable<Action> {
 	public void execute() {
 		if (this.actionList != null) {
 			isFinished = false;
+			started = new boolean[actionList.size()];
+			remaining = actionList.size();
+			timer.reset();
 			timer.start();
 			thread.startPeriodic(Constants.DT_SECONDS);
 		} else {
@@ -118,21 +138,19 @@ public class ActionList implements Iterable<Action> {
 		}
 
 		/**
-		 * Poll the next {@link Action} in the list to see if it is time to start it. If
-		 * it is time, start the {@code Action} and remove it from the list. Then begin
-		 * polling the next {@code Action}.
+		 * Poll each {@link Action} that hasn't been started yet to see if it is time to
+		 * start it. If it is time, start the {@code Action} and mark it as started.
 		 */
 		public void run() {
-			int i = 0;
-			while (i < this.al.actionList.size()) {
-				if (this.al.actionList.get(i).getStartTime() <= timer.get()) {
+			double now = timer.get();
+			for (int i = 0; i < this.al.started.length; i++) {
+				if (!this.al.started[i] && this.al.actionList.get(i).getStartTime() <= now) {
 					this.al.actionList.get(i).start();
-					this.al.actionList.remove(i);
-				} else {
-					i++;
+					this.al.started[i] = true;
+					this.al.remaining--;
 				}
 			}
-			if (this.al.actionList.size() == 0) {
+			if (this.al.remaining == 0) {
 				this.al.isFinished = true;
 				this.al.thread.stop();
 				return;
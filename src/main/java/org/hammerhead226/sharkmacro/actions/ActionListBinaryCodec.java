@@ -0,0 +1,136 @@
+package org.hammerhead226.sharkmacro.actions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.hammerhead226.sharkmacro.BinaryCodec;
+
+/**
+ * Reads and writes lists of {@link Action}s in SharkMacro's binary format.
+ * Command names are stored once each in a string table that the actions refer
+ * to by index. After the common header, the body is laid out as follows:
+ * <p>
+ * <center>
+ * {@code [ <int action count>, <int string count>, <double[] start times>, <double[] end times>, <int[] command name indexes>, <string table> ]}
+ * </center>
+ * </p>
+ * Each entry of the string table is an unsigned short byte length followed by
+ * that many bytes of UTF-8.
+ */
+public class ActionListBinaryCodec extends BinaryCodec<List<Action>> {
+
+	/**
+	 * Identifies a binary action list file.
+	 */
+	public static final int MAGIC = 0x534D414C;
+
+	/**
+	 * The current body layout version.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Constructs a new {@link ActionListBinaryCodec}.
+	 */
+	public ActionListBinaryCodec() {
+		super(MAGIC, VERSION);
+	}
+
+	@Override
+	protected int bodySize(List<Action> actions) {
+		int size = 2 * Integer.BYTES + actions.size() * (2 * Double.BYTES + Integer.BYTES);
+		for (byte[] name : toStringTable(actions, null)) {
+			size += Short.BYTES + name.length;
+		}
+		return size;
+	}
+
+	@Override
+	protected void encodeBody(List<Action> actions, ByteBuffer buf) {
+		int[] nameIdxs = new int[actions.size()];
+		List<byte[]> strings = toStringTable(actions, nameIdxs);
+
+		double[] startTimes = new double[actions.size()];
+		double[] endTimes = new double[actions.size()];
+		for (int i = 0; i < actions.size(); i++) {
+			startTimes[i] = actions.get(i).getStartTime();
+			endTimes[i] = actions.get(i).getEndTime();
+		}
+
+		buf.putInt(actions.size());
+		buf.putInt(strings.size());
+		putDoubles(buf, startTimes);
+		putDoubles(buf, endTimes);
+		putInts(buf, nameIdxs);
+		for (byte[] s : strings) {
+			putString(buf, s);
+		}
+	}
+
+	@Override
+	protected List<Action> decodeBody(ByteBuffer buf, int version) throws IOException {
+		require(buf, 2 * Integer.BYTES);
+		int count = buf.getInt();
+		int stringCount = buf.getInt();
+		if (count < 0 || stringCount < 0 || stringCount > count) {
+			throw new IOException("Malformed binary action list header");
+		}
+		require(buf, (long) count * (2 * Double.BYTES + Integer.BYTES) + (long) stringCount * Short.BYTES);
+
+		double[] startTimes = new double[count];
+		double[] endTimes = new double[count];
+		int[] nameIdxs = new int[count];
+		getDoubles(buf, startTimes);
+		getDoubles(buf, endTimes);
+		getInts(buf, nameIdxs);
+
+		String[] strings = new String[stringCount];
+		for (int i = 0; i < stringCount; i++) {
+			strings[i] = getString(buf);
+		}
+
+		ArrayList<Action> list = new ArrayList<Action>(count);
+		for (int i = 0; i < count; i++) {
+			if (nameIdxs[i] < 0 || nameIdxs[i] >= stringCount) {
+				throw new IOException("Malformed binary action list string index");
+			}
+			list.add(new Action(strings[nameIdxs[i]], startTimes[i], endTimes[i]));
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Builds the table of unique, UTF-8 encoded command names used by a list of
+	 * actions.
+	 *
+	 * @param actions
+	 *            the actions to build the table for
+	 * @param nameIdxs
+	 *            if not {@code null}, filled with each action's index into the
+	 *            table
+	 * @return the string table, in order of first use
+	 */
+	private static List<byte[]> toStringTable(List<Action> actions, int[] nameIdxs) {
+		HashMap<String, Integer> idxs = new HashMap<String, Integer>();
+		ArrayList<byte[]> table = new ArrayList<byte[]>();
+		for (int i = 0; i < actions.size(); i++) {
+			String name = actions.get(i).getCommandName();
+			Integer idx = idxs.get(name);
+			if (idx == null) {
+				idx = table.size();
+				idxs.put(name, idx);
+				table.add(name.getBytes(StandardCharsets.UTF_8));
+			}
+			if (nameIdxs != null) {
+				nameIdxs[i] = idx;
+			}
+		}
+		return table;
+	}
+
+}
@@ -0,0 +1,51 @@
+package org.hammerhead226.sharkmacro.actions;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.hammerhead226.sharkmacro.CSVCodec;
+import org.hammerhead226.sharkmacro.CSVStreamReader;
+import org.hammerhead226.sharkmacro.CSVStreamWriter;
+import org.hammerhead226.sharkmacro.Constants;
+
+/**
+ * Reads and writes lists of {@link Action}s as csv files. Each line of the file
+ * is formatted as follows:
+ * <p>
+ * <center> {@code <command name>, <start time>, <end time>} </center>
+ * </p>
+ */
+public class ActionListCSVCodec extends CSVCodec<List<Action>> {
+
+	@Override
+	public List<Action> read(Path file) throws IOException {
+		ArrayList<Action> list = new ArrayList<Action>(Constants.ACTIONRECORDER_LIST_DEFAULT_LENGTH);
+
+		try (CSVStreamReader reader = new CSVStreamReader(file)) {
+			while (reader.nextRow()) {
+				String commandName = reader.nextString();
+				double startTime = reader.nextDouble();
+				double endTime = reader.nextDouble();
+				list.add(new Action(commandName, startTime, endTime));
+			}
+		}
+
+		return Collections.unmodifiableList(list);
+	}
+
+	@Override
+	public void write(Path file, List<Action> actions) throws IOException {
+		try (CSVStreamWriter writer = new CSVStreamWriter(file)) {
+			for (Action a : actions) {
+				writer.writeString(a.getCommandName());
+				writer.writeDouble(a.getStartTime());
+				writer.writeDouble(a.getEndTime());
+				writer.endRow();
+			}
+		}
+	}
+
+}
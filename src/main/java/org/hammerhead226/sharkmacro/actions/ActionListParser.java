@@ -1,20 +1,46 @@
 package org.hammerhead226.sharkmacro.actions;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import org.hammerhead226.sharkmacro.CatalogEntry;
+import org.hammerhead226.sharkmacro.Codec;
 import org.hammerhead226.sharkmacro.Constants;
 import org.hammerhead226.sharkmacro.Parser;
+import org.hammerhead226.sharkmacro.WriteResult;
 
 import edu.wpi.first.wpilibj.DriverStation;
 
 /**
- * Handles the reading and writing of {@link ActionList}s.
+ * Handles the reading and writing of {@link ActionList}s. Action lists can be
+ * stored as csv ({@value org.hammerhead226.sharkmacro.Constants#CSV_EXTENSION})
+ * or binary ({@value org.hammerhead226.sharkmacro.Constants#BINARY_EXTENSION})
+ * files, picked by the extension of the filename.
  * 
  * @author Alec Minchington
  *
  */
-public class ActionListParser extends Parser {
+public class ActionListParser extends Parser<List<Action>> {
+
+	/**
+	 * Approximate JVM object layout sizes, used to estimate cache entry sizes.
+	 */
+	private static final int OBJECT_HEADER_BYTES = 16;
+
+	private static final int REFERENCE_BYTES = 8;
+
+	/**
+	 * The formats action lists can be read from and written to.
+	 */
+	private static final List<Codec<List<Action>>> CODECS = Arrays
+			.<Codec<List<Action>>>asList(new ActionListCSVCodec(), new ActionListBinaryCodec());
+
+	static {
+		registerCatalog(Constants.ACTIONLIST_STORAGE_DIRECTORY, Constants.ACTIONLIST_DEFAULT_PREFIX, ActionListParser::new);
+		registerBundled(Constants.ACTIONLIST_STORAGE_DIRECTORY, ActionListParser::new);
+	}
 
 	/**
 	 * Constructs a new {@link ActionListParser} object.
@@ -23,13 +49,14 @@ public class ActionListParser extends Parser {
 	 *            name of the file to read or write a new file with
 	 */
 	public ActionListParser(String filename) {
-		super(Constants.ACTIONLIST_STORAGE_DIRECTORY, Constants.ACTIONLIST_DEFAULT_PREFIX, filename);
+		super(Constants.ACTIONLIST_STORAGE_DIRECTORY, Constants.ACTIONLIST_DEFAULT_PREFIX, filename, CODECS);
 	}
 
 	/**
 	 * This method writes an {@link ActionList} to a file. The given
-	 * {@code ActionList} is transformed into a writable list and then passed to
-	 * {@link org.hammerhead226.sharkmacro.Parser Parser} to be written.
+	 * {@code ActionList} is transformed into a list and then passed to
+	 * {@link org.hammerhead226.sharkmacro.Parser Parser} to be encoded in the
+	 * format matching the filename's extension and written.
 	 * 
 	 * @param al
 	 *            the {@code ActionList} instance to write to file
@@ -43,43 +70,63 @@ public class ActionListParser extends Parser {
 			return false;
 		}
 
-		ArrayList<String[]> actionListToWrite = new ArrayList<String[]>(al.getSize());
+		List<Action> actionListToWrite = new ArrayList<Action>(al.getSize());
 		for (Action a : al) {
-			actionListToWrite.add(a.toStringArray());
+			actionListToWrite.add(a);
 		}
 
 		return super.writeToFile(actionListToWrite);
 	}
 
 	/**
-	 * This method gets the raw action list from
+	 * This method queues an {@link ActionList} to be written to a file on a
+	 * background thread, and returns immediately. The list of {@link Action}s is
+	 * copied before this method returns. Use this when saving from a
+	 * {@link edu.wpi.first.wpilibj.command.Command Command}.
+	 * 
+	 * @param al
+	 *            the {@code ActionList} instance to write to file
+	 * @return a future that completes with the outcome of the write
+	 */
+	public CompletableFuture<WriteResult> writeToFileAsync(ActionList al) {
+		if (al.getSize() == 0) {
+			DriverStation.getInstance();
+			DriverStation.reportWarning("Tried to write empty ActionList!", false);
+			return rejectWrite("Tried to write empty ActionList!");
+		}
+
+		List<Action> actionListToWrite = new ArrayList<Action>(al.getSize());
+		for (Action a : al) {
+			actionListToWrite.add(a);
+		}
+
+		return super.writeToFileAsync(actionListToWrite);
+	}
+
+	/**
+	 * This method gets the decoded action list from
 	 * {@link org.hammerhead226.sharkmacro.Parser Parser} and transforms it into an
 	 * {@link ActionList} instance.
 	 * <p>
 	 * {@link org.hammerhead226.sharkmacro.Parser#cache Parser.cache} is checked
-	 * first to see if the file has already been parsed, and returns a clone of the
-	 * {@code ActionList} from the cache if the file exists in the cache. If the
-	 * file does not exist in the cache, then the file is parsed and added to the
-	 * cache.
+	 * first to see if the file has already been decoded, and the unmodifiable list
+	 * of {@link Action}s from the cache is shared with the new {@code ActionList}
+	 * if the file exists in the cache. If the file does not exist in the cache,
+	 * then the file is decoded and added to the cache.
 	 * 
 	 * @return a new {@code ActionList} instance
 	 */
 	public ActionList toObject() {
 
-		List<String[]> actionListRaw = readFromFile();
+		List<Action> decoded = readFromFile();
 
-		if (actionListRaw == null) {
+		if (decoded == null) {
 			DriverStation.getInstance();
 			DriverStation.reportError("Tried to load nonexistant ActionList from name: " + super.filename, false);
 			return new ActionList(null);
 		}
 
-		ArrayList<Action> list = new ArrayList<Action>(Constants.ACTIONRECORDER_LIST_DEFAULT_LENGTH);
-		for (String[] s : actionListRaw) {
-			list.add(new Action(s[0], Double.parseDouble(s[1]), Double.parseDouble(s[2])));
-		}
-
-		ActionList al = new ActionList(list);
+		ActionList al = new ActionList(decoded);
 
 		return al;
 	}
@@ -91,20 +138,121 @@ public class ActionListParser extends Parser {
 	 *            the name of the actionlist to cache
 	 */
 	public static void cache(String filename) {
-		Parser.cache(Constants.ACTIONLIST_STORAGE_DIRECTORY, filename);
+		new ActionListParser(filename).cache();
+	}
+
+	/**
+	 * Cache a saved action list and protect it from eviction. Call this for the
+	 * action lists selected for the current match.
+	 * 
+	 * @param filename
+	 *            the name of the action list to pin
+	 */
+	public static void pin(String filename) {
+		new ActionListParser(filename).pin();
+	}
+
+	/**
+	 * Allow a pinned action list to be evicted from the cache again.
+	 * 
+	 * @param filename
+	 *            the name of the action list to unpin
+	 */
+	public static void unpin(String filename) {
+		new ActionListParser(filename).unpin();
+	}
+
+	/**
+	 * Remove a action list from the cache, even if it is pinned, so it is read from
+	 * disk again the next time it is loaded.
+	 * 
+	 * @param filename
+	 *            the name of the action list to remove
+	 */
+	public static void invalidate(String filename) {
+		new ActionListParser(filename).invalidate();
+	}
+
+	/**
+	 * Start watching the action list storage directory, so action lists that are copied onto
+	 * the robot replace their cached versions in the background.
+	 * 
+	 * @return {@code true} if the directory is being watched, {@code false} if it
+	 *         couldn't be
+	 */
+	public static boolean watch() {
+		return Parser.watch(Constants.ACTIONLIST_STORAGE_DIRECTORY, ActionListParser::new);
 	}
 
 	/**
 	 * Cache all action lists in the action list storage directory.
 	 */
 	public static void cacheAll() {
-		Parser.cacheAll(Constants.ACTIONLIST_STORAGE_DIRECTORY);
+		Parser.cacheAll(Constants.ACTIONLIST_STORAGE_DIRECTORY, ActionListParser::new);
+	}
+
+	/**
+	 * Cache all action lists in the action list storage directory, decoding them in parallel
+	 * on background threads. Call this in {@code robotInit()} to load every
+	 * routine without blocking the main loop.
+	 * 
+	 * @return a future that completes once every action list has been cached
+	 */
+	public static CompletableFuture<Void> cacheAllAsync() {
+		return Parser.cacheAllAsync(Constants.ACTIONLIST_STORAGE_DIRECTORY, ActionListParser::new);
+	}
+
+	/**
+	 * Estimates the heap used by a decoded list of {@link Action}s: the list, each
+	 * action, and each action's command name.
+	 */
+	@Override
+	protected long sizeOf(List<Action> actions) {
+		long bytes = OBJECT_HEADER_BYTES + actions.size() * REFERENCE_BYTES;
+		for (Action a : actions) {
+			bytes += REFERENCE_BYTES + OBJECT_HEADER_BYTES + 2 * Double.BYTES;
+			bytes += OBJECT_HEADER_BYTES + a.getCommandName().length();
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the number of actions in the list
+	 */
+	@Override
+	protected int pointCountOf(List<Action> actions) {
+		return actions.size();
+	}
+
+	/**
+	 * @return the time the last action ends, in seconds
+	 */
+	@Override
+	protected double durationOf(List<Action> actions) {
+		double end = 0;
+		for (Action a : actions) {
+			end = Math.max(end, a.getEndTime());
+		}
+		return end;
+	}
+
+	/**
+	 * Lists the saved action lists in the action list storage directory, ordered by number.
+	 * Each entry gives the file's size, number of points, length and format. The
+	 * list comes from the directory's catalog, so the files aren't read.
+	 * 
+	 * @return every saved action list
+	 */
+	public static List<CatalogEntry> getCatalog() {
+		return getCatalog(Constants.ACTIONLIST_STORAGE_DIRECTORY, Constants.ACTIONLIST_DEFAULT_PREFIX);
 	}
 
 	/**
 	 * This method generates a new filename to be used for saving a new file. For
 	 * example, if the newest file in the storage directory is
-	 * {@code prefix0003.csv}, the method will return {@code prefix0004.csv}.
+	 * {@code prefix0003.bin}, the method will return {@code prefix0004.bin}, or
+	 * whichever extension was set with
+	 * {@link org.hammerhead226.sharkmacro.Parser#setSaveExtension(String)}.
 	 * 
 	 * @return a new complete filename in the prefix + number naming convention
 	 */
@@ -3,6 +3,7 @@ package org.hammerhead226.sharkmacro.actions;
 import java.util.ArrayList;
 
 import org.hammerhead226.sharkmacro.Constants;
+import org.hammerhead226.sharkmacro.SamplingClock;
 
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.Timer;
@@ -29,6 +30,12 @@ public class ActionRecorder {
 	 */
 	private static Timer timer = new Timer();
 
+	/**
+	 * The clock {@link Action}s are timed by instead of {@link #timer}, or
+	 * {@code null} to use the timer.
+	 */
+	private static SamplingClock clock = null;
+
 	/**
 	 * This list serves as a buffer for recorded {@link Action}s to be stored in
 	 * before they're exported to an {@link ActionList}.
@@ -42,11 +49,29 @@ public class ActionRecorder {
 	public static void start() {
 		if (!isRecording) {
 			buffer.clear();
+			clock = null;
 			timer.start();
 			isRecording = true;
 		}
 	}
 
+	/**
+	 * This method starts listening for calls to {@link #addAction(Action)}, timing
+	 * {@link Action}s by the time since a {@link SamplingClock} was started
+	 * instead of by {@link #timer}. Actions then line up with the motion profiles
+	 * recorded on the same clock.
+	 * 
+	 * @param samplingClock
+	 *            the clock to time actions by
+	 */
+	public static void start(SamplingClock samplingClock) {
+		if (!isRecording) {
+			buffer.clear();
+			clock = samplingClock;
+			isRecording = true;
+		}
+	}
+
 	/**
 	 * This method stops listening for calls to {@link #addAction(Action)} and
 	 * returns an {@link ActionList} containing the {@link Action}s in
@@ -58,6 +83,7 @@ public class ActionRecorder {
 		if (isRecording) {
 			timer.stop();
 			timer.reset();
+			clock = null;
 			isRecording = false;
 			return new ActionList(buffer);
 		} else {
@@ -87,10 +113,13 @@ public class ActionRecorder {
 	 * This method gets the time since listening for calls to
 	 * {@link #addAction(Action)} started.
 	 * 
-	 * @return the time elapsed since recording was started
+	 * @return the time elapsed since recording was started, or since the
+	 *         {@link SamplingClock} passed to {@link #start(SamplingClock)} was
+	 *         started
 	 */
 	public static double getTime() {
-		return timer.get();
+		SamplingClock c = clock;
+		return c != null ? c.getTime() : timer.get();
 	}
 	
 	/**
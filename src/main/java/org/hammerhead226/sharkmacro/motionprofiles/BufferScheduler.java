@@ -0,0 +1,130 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import org.hammerhead226.sharkmacro.Constants;
+
+/**
+ * Decides how often a {@link ProfileHandler} fills the Talons' top buffers and
+ * funnels points into their bottom buffers, from how full the buffers are and
+ * how fast the Talons are executing points.
+ * <p>
+ * The rate the Talons execute points at is measured from the statuses read on
+ * each fill, as the change in the number of points that have left both
+ * buffers. While the buffers hold plenty of points, both threads back off, up
+ * to {@value org.hammerhead226.sharkmacro.Constants#PROFILE_BUFFER_MAX_PERIOD_SECONDS}
+ * seconds apart. As the buffers run low, they are called more often, but never
+ * more often than the Talons send the motion control status frame, since the
+ * buffer counts can't change any faster. Until a rate has been measured, the
+ * fixed periods the handler has always used are kept.
+ */
+final class BufferScheduler {
+
+	/**
+	 * Smoothed rate the Talons execute points at, in points per second, or
+	 * {@code 0} if it hasn't been measured.
+	 */
+	private volatile double drainRate = 0;
+
+	/**
+	 * Number of points that had been executed at the last update.
+	 */
+	private int lastExecuted = 0;
+
+	/**
+	 * FPGA time, in microseconds, of the last update, or {@code -1} if there
+	 * hasn't been one.
+	 */
+	private long lastTime = -1;
+
+	/**
+	 * Measures the rate points are executed at.
+	 *
+	 * @param executed
+	 *            number of points pushed so far that are in neither buffer
+	 * @param time
+	 *            FPGA time, in microseconds, the buffers were read
+	 */
+	void update(int executed, long time) {
+		if (lastTime >= 0 && time > lastTime) {
+			double rate = (executed - lastExecuted) / ((time - lastTime) / 1e6);
+			if (drainRate == 0) {
+				drainRate = rate;
+			} else {
+				drainRate += Constants.PROFILE_DRAIN_RATE_SMOOTHING * (rate - drainRate);
+			}
+		}
+		lastExecuted = executed;
+		lastTime = time;
+	}
+
+	/**
+	 * @return the smoothed rate the Talons execute points at, in points per
+	 *         second, or {@code 0} if it hasn't been measured
+	 */
+	double getDrainRate() {
+		return drainRate;
+	}
+
+	/**
+	 * Decides when to next fill the top buffers and check on execution. The
+	 * fill is scheduled well before the top buffers would run out. Once every
+	 * point has been pushed, it is scheduled before both buffers would run out,
+	 * so the end of the profile is noticed promptly.
+	 *
+	 * @param topBufferCnt
+	 *            fewest points in any Talon's top buffer
+	 * @param btmBufferCnt
+	 *            fewest points in any Talon's bottom buffer
+	 * @param allPushed
+	 *            {@code true} if every point of the profile has been pushed
+	 * @return seconds until the next fill
+	 */
+	double nextFillPeriod(int topBufferCnt, int btmBufferCnt, boolean allPushed) {
+		if (drainRate <= 0) {
+			return Constants.PROFILE_EXECUTOR_PERIOD_SECONDS;
+		}
+		int buffered = allPushed ? topBufferCnt + btmBufferCnt : topBufferCnt;
+		return clamp(Constants.PROFILE_BUFFER_LEAD_FRACTION * buffered / drainRate);
+	}
+
+	/**
+	 * Decides when to next funnel points into the bottom buffers. Below the low
+	 * water mark points are funnelled twice per point executed, to refill the
+	 * bottom buffers, and above the high water mark once per two points
+	 * executed, letting them drain. In between, the rate is interpolated. Once
+	 * the top buffers are empty and every point has been pushed, there is
+	 * nothing left to funnel.
+	 *
+	 * @param topBufferCnt
+	 *            most points in any Talon's top buffer
+	 * @param btmBufferCnt
+	 *            fewest points in any Talon's bottom buffer
+	 * @param allPushed
+	 *            {@code true} if every point of the profile has been pushed
+	 * @return seconds until the bottom buffers are next processed
+	 */
+	double nextProcessPeriod(int topBufferCnt, int btmBufferCnt, boolean allPushed) {
+		if (topBufferCnt == 0 && allPushed) {
+			return Constants.PROFILE_BUFFER_MAX_PERIOD_SECONDS;
+		}
+		if (drainRate <= 0) {
+			return Constants.DT_SECONDS / 2.0;
+		}
+		double level = (double) btmBufferCnt / Constants.TALON_BTM_BUFFER_MAX_COUNT;
+		double fraction = (level - Constants.PROFILE_BUFFER_LOW_WATER)
+				/ (Constants.PROFILE_BUFFER_HIGH_WATER - Constants.PROFILE_BUFFER_LOW_WATER);
+		fraction = Math.max(0, Math.min(1, fraction));
+		return clamp((0.5 + 1.5 * fraction) / drainRate);
+	}
+
+	/**
+	 * @param period
+	 *            a period, in seconds
+	 * @return the period, kept between the status frame period and the longest
+	 *         allowed
+	 */
+	private static double clamp(double period) {
+		return Math.max(Constants.PROFILE_BUFFER_MIN_PERIOD_SECONDS,
+				Math.min(Constants.PROFILE_BUFFER_MAX_PERIOD_SECONDS, period));
+	}
+
+}
@@ -0,0 +1,229 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import java.util.Arrays;
+
+import org.hammerhead226.sharkmacro.Constants;
+
+/**
+ * The steps that turn a {@link Recording} into a motion profile. The recorded
+ * columns are copied and cut to the same length, then each
+ * {@link ConversionStage} is applied in order, each in a single pass over
+ * primitive columns. Finally, each channel is linearly interpolated from its
+ * own read times onto points exactly
+ * {@value org.hammerhead226.sharkmacro.Constants#DT_MS} ms apart and, if
+ * tolerances were given, decimated with a {@link ProfileDecimator}. Recordings
+ * made on a {@link org.hammerhead226.sharkmacro.SamplingClock SamplingClock}
+ * are interpolated onto the ticks their samples were taken on.
+ * <p>
+ * A pipeline holds no state of its own while converting, so one pipeline can
+ * convert any number of recordings, on any threads.
+ */
+public final class ConversionPipeline {
+
+	/**
+	 * The pipeline used by {@link Recording#toProfile()}, which only drops the
+	 * samples recorded before the robot started moving.
+	 */
+	public static final ConversionPipeline STANDARD = new ConversionPipeline(ConversionStage.trimLeadingZeros());
+
+	/**
+	 * The pipeline used by {@link Recording#toProfile()} for recordings made on a
+	 * {@link org.hammerhead226.sharkmacro.SamplingClock SamplingClock}, which
+	 * keeps every sample so that every recording made on the clock starts on the
+	 * same tick.
+	 */
+	public static final ConversionPipeline SYNCHRONIZED = new ConversionPipeline();
+
+	/**
+	 * Derives velocities for recordings of positions only.
+	 */
+	private static final ConversionStage POSITION_VELOCITY = ConversionStage
+			.savitzkyGolayVelocity(Constants.PROFILERECORDER_VELOCITY_FIT_SAMPLES);
+
+	/**
+	 * The stages, in order.
+	 */
+	private final ConversionStage[] stages;
+
+	/**
+	 * Whether to decimate the resampled profile.
+	 */
+	private final boolean decimate;
+
+	/**
+	 * Position tolerance passed to the {@link ProfileDecimator}.
+	 */
+	private final double positionTolerance;
+
+	/**
+	 * Feedforward tolerance passed to the {@link ProfileDecimator}.
+	 */
+	private final double feedforwardTolerance;
+
+	/**
+	 * Constructs a new {@link ConversionPipeline} that keeps every resampled
+	 * point.
+	 *
+	 * @param stages
+	 *            the stages to apply, in order
+	 */
+	public ConversionPipeline(ConversionStage... stages) {
+		this(false, 0, 0, stages);
+	}
+
+	/**
+	 * Constructs a new {@link ConversionPipeline} that decimates the resampled
+	 * profile.
+	 *
+	 * @param positionTolerance
+	 *            largest distance, in raw units, a removed point's position may be
+	 *            from the line that replaces it
+	 * @param feedforwardTolerance
+	 *            largest distance a removed point's velocity or feedforward value
+	 *            may be from the line that replaces it
+	 * @param stages
+	 *            the stages to apply, in order
+	 */
+	public ConversionPipeline(double positionTolerance, double feedforwardTolerance, ConversionStage... stages) {
+		this(true, positionTolerance, feedforwardTolerance, stages);
+	}
+
+	/**
+	 * @param decimate
+	 *            whether to decimate the resampled profile
+	 * @param positionTolerance
+	 *            position tolerance for decimation
+	 * @param feedforwardTolerance
+	 *            feedforward tolerance for decimation
+	 * @param stages
+	 *            the stages to apply, in order
+	 */
+	private ConversionPipeline(boolean decimate, double positionTolerance, double feedforwardTolerance,
+			ConversionStage[] stages) {
+		this.decimate = decimate;
+		this.positionTolerance = positionTolerance;
+		this.feedforwardTolerance = feedforwardTolerance;
+		this.stages = stages.clone();
+	}
+
+	/**
+	 * Converts recorded columns into profile points.
+	 *
+	 * @param recordings
+	 *            the recorded position, feedforward value and read time of each
+	 *            Talon, which are not modified
+	 * @param ticks
+	 *            the clock tick each sample was taken on, or {@code null} if the
+	 *            samples weren't taken on a clock
+	 * @param positionOnly
+	 *            {@code true} if only positions were recorded, so velocities
+	 *            should be derived after the other stages
+	 * @param clockOrigin
+	 *            FPGA time, in microseconds, the clock the samples were taken on
+	 *            was started at, or {@code NaN} if they weren't
+	 * @return the converted points
+	 */
+	ProfileData convert(double[][] recordings, double[] ticks, boolean positionOnly, double clockOrigin) {
+		SampleColumns samples = new SampleColumns(recordings, ticks);
+		for (ConversionStage stage : stages) {
+			stage.apply(samples);
+		}
+		if (positionOnly) {
+			POSITION_VELOCITY.apply(samples);
+		}
+		ProfileData data = resample(samples, clockOrigin);
+		return decimate ? ProfileDecimator.decimate(data, positionTolerance, feedforwardTolerance) : data;
+	}
+
+	/**
+	 * Interpolates every channel onto points exactly
+	 * {@value org.hammerhead226.sharkmacro.Constants#DT_MS} ms apart. The points
+	 * cover the time every channel was being recorded. If the samples were
+	 * taken on a clock, point {@code k} is instead at the time tick
+	 * {@code k} after the first sampled tick was due, taken from the tick
+	 * recorded with each sample, so recordings made on the same clock line up
+	 * however late their reads were.
+	 *
+	 * @param samples
+	 *            the samples to resample
+	 * @param clockOrigin
+	 *            FPGA time, in microseconds, the clock was started at, or
+	 *            {@code NaN}
+	 * @return the resampled points
+	 */
+	private static ProfileData resample(SampleColumns samples, double clockOrigin) {
+		int start = samples.getStart();
+		int end = samples.getEnd();
+		int channels = samples.getChannelCount();
+		double dtUs = Constants.DT_MS * 1000.0;
+
+		// Find the time every channel was being recorded
+		double first = Double.NEGATIVE_INFINITY;
+		double last = Double.POSITIVE_INFINITY;
+		for (int c = 0; c < channels && end > start; c++) {
+			double[] times = samples.times(c);
+			first = Math.max(first, times[start]);
+			last = Math.min(last, times[end - 1]);
+		}
+		int length = end > start ? (int) Math.floor((last - first) / dtUs) + 1 : 0;
+		double[] ticks = samples.ticks();
+		if (ticks != null && !Double.isNaN(clockOrigin) && end > start) {
+			// A Notifier first fires one period after it is started, so tick n is
+			// due at origin + (n + 1) * DT
+			first = clockOrigin + (ticks[start] + 1) * dtUs;
+			length = (int) (ticks[end - 1] - ticks[start]) + 1;
+		}
+		if (length < 0) {
+			length = 0;
+		}
+
+		double[][] positions = new double[channels][length];
+		double[][] velocities = new double[channels][length];
+		for (int c = 0; c < channels; c++) {
+			double[] times = samples.times(c);
+			interpolate(times, samples.positions(c), start, end, first, dtUs, positions[c]);
+			interpolate(times, samples.feedforwards(c), start, end, first, dtUs, velocities[c]);
+		}
+		int[] durations = new int[length];
+		Arrays.fill(durations, (int) Constants.DT_MS);
+
+		return new ProfileData(positions, velocities, durations);
+	}
+
+	/**
+	 * Linearly interpolates recorded values onto a uniform grid.
+	 *
+	 * @param times
+	 *            the time each value was read, in increasing order
+	 * @param values
+	 *            the recorded values
+	 * @param from
+	 *            the first sample to use
+	 * @param to
+	 *            one past the last sample to use
+	 * @param first
+	 *            the time of the first grid point. Points before
+	 *            {@code times[from]} take the first value
+	 * @param step
+	 *            the time between grid points
+	 * @param out
+	 *            filled with the value at each grid point
+	 */
+	private static void interpolate(double[] times, double[] values, int from, int to, double first, double step,
+			double[] out) {
+		int j = from;
+		for (int k = 0; k < out.length; k++) {
+			double t = first + k * step;
+			while (j + 1 < to && times[j + 1] <= t) {
+				j++;
+			}
+			if (j + 1 < to && times[j + 1] > times[j] && t > times[j]) {
+				double fraction = (t - times[j]) / (times[j + 1] - times[j]);
+				out[k] = values[j] + fraction * (values[j + 1] - values[j]);
+			} else {
+				out[k] = values[j];
+			}
+		}
+	}
+
+}
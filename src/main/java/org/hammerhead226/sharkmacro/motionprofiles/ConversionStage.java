@@ -0,0 +1,278 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+/**
+ * One step of a {@link ConversionPipeline}. A stage changes the
+ * {@link SampleColumns} of a recording in place, in a single pass over the
+ * samples being converted, before they are resampled into a profile.
+ */
+public interface ConversionStage {
+
+	/**
+	 * Changes the samples in place.
+	 *
+	 * @param samples
+	 *            the samples being converted
+	 */
+	void apply(SampleColumns samples);
+
+	/**
+	 * Drops the samples at the start of the recording where every Talon's
+	 * position and feedforward value is zero, which were recorded before the
+	 * robot started moving. Nothing is dropped if every sample is zero.
+	 *
+	 * @return the stage
+	 */
+	static ConversionStage trimLeadingZeros() {
+		return samples -> {
+			int start = samples.getStart();
+			while (start < samples.getEnd() && isZero(samples, start)) {
+				start++;
+			}
+			if (start < samples.getEnd()) {
+				samples.setRange(start, samples.getEnd());
+			}
+		};
+	}
+
+	/**
+	 * Replaces single-sample glitches with a value interpolated from the samples
+	 * on either side. A sample is a glitch if it jumps away from both its
+	 * neighbours by more than the limit while they are within twice the limit of
+	 * each other.
+	 *
+	 * @param maxPositionJump
+	 *            the largest change in position, in raw units, expected between
+	 *            two samples
+	 * @param maxFeedforwardJump
+	 *            the largest change in velocity or feedforward value expected
+	 *            between two samples
+	 * @return the stage
+	 */
+	static ConversionStage rejectSpikes(double maxPositionJump, double maxFeedforwardJump) {
+		return samples -> {
+			for (int c = 0; c < samples.getChannelCount(); c++) {
+				double[] t = samples.times(c);
+				rejectSpikes(samples.positions(c), t, samples.getStart(), samples.getEnd(), maxPositionJump);
+				rejectSpikes(samples.feedforwards(c), t, samples.getStart(), samples.getEnd(), maxFeedforwardJump);
+			}
+		};
+	}
+
+	/**
+	 * Smooths every position and feedforward value with a centered moving
+	 * average, which doesn't delay the profile the way a trailing average would.
+	 * Samples near either end are averaged over the samples that exist. Read
+	 * times are averaged the same way, so each smoothed value keeps the time it
+	 * is the average of, even when the samples weren't evenly spaced.
+	 *
+	 * @param window
+	 *            the number of samples to average, rounded up to an odd number
+	 * @return the stage
+	 */
+	static ConversionStage smooth(int window) {
+		if (window < 1) {
+			throw new IllegalArgumentException("Smoothing window must be at least one sample");
+		}
+		return samples -> {
+			for (int c = 0; c < samples.getChannelCount(); c++) {
+				smooth(samples.positions(c), samples.getStart(), samples.getEnd(), window / 2);
+				smooth(samples.feedforwards(c), samples.getStart(), samples.getEnd(), window / 2);
+				smooth(samples.times(c), samples.getStart(), samples.getEnd(), window / 2);
+			}
+		};
+	}
+
+	/**
+	 * Replaces the feedforward values with velocities, in raw units per 100ms,
+	 * derived from the positions and their read times. Use this to play back a
+	 * recording made with
+	 * {@link ProfileRecorder.RecordingType#VOLTAGE RecordingType.VOLTAGE} in
+	 * velocity mode, or to get velocities that agree exactly with the positions.
+	 *
+	 * @return the stage
+	 */
+	static ConversionStage deriveVelocity() {
+		return samples -> {
+			int start = samples.getStart();
+			int end = samples.getEnd();
+			for (int c = 0; c < samples.getChannelCount(); c++) {
+				double[] p = samples.positions(c);
+				double[] t = samples.times(c);
+				double[] v = samples.feedforwards(c);
+				for (int i = start; i < end; i++) {
+					int before = Math.max(start, i - 1);
+					int after = Math.min(end - 1, i + 1);
+					double dtUs = t[after] - t[before];
+					v[i] = dtUs > 0 ? (p[after] - p[before]) / dtUs * 100000.0 : (i > start ? v[i - 1] : 0);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Replaces the feedforward values with velocities, in raw units per 100ms,
+	 * from a Savitzky-Golay filter: the slope at each sample of a quadratic
+	 * fitted by least squares to the positions around it. Unlike
+	 * {@link #deriveVelocity()}, which takes the difference of two positions, the
+	 * fit spreads encoder noise over the whole window, and it uses each sample's
+	 * read time, so unevenly spaced samples don't need to be resampled first.
+	 *
+	 * @param window
+	 *            the number of samples to fit, rounded up to an odd number, at
+	 *            least three
+	 * @return the stage
+	 */
+	static ConversionStage savitzkyGolayVelocity(int window) {
+		if (window < 3) {
+			throw new IllegalArgumentException("Velocity fit needs at least three samples");
+		}
+		return samples -> {
+			int start = samples.getStart();
+			int end = samples.getEnd();
+			int half = window / 2;
+			for (int c = 0; c < samples.getChannelCount(); c++) {
+				double[] p = samples.positions(c);
+				double[] t = samples.times(c);
+				double[] v = samples.feedforwards(c);
+				for (int i = start; i < end; i++) {
+					int from = Math.max(start, i - half);
+					int to = Math.min(end, i + half + 1);
+					v[i] = fitSlope(p, t, i, from, to, i > start ? v[i - 1] : 0);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Fits a quadratic to a window of positions by least squares.
+	 *
+	 * @param p
+	 *            the positions
+	 * @param t
+	 *            the read time of each position, in microseconds
+	 * @param center
+	 *            the sample to find the slope at
+	 * @param from
+	 *            the first sample of the window
+	 * @param to
+	 *            one past the last sample of the window
+	 * @param fallback
+	 *            the slope to return if the window's times don't determine one
+	 * @return the slope at {@code center}, in raw units per 100ms
+	 */
+	private static double fitSlope(double[] p, double[] t, int center, int from, int to, double fallback) {
+		// Centered on the sample, in milliseconds, to keep the sums well scaled
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0, y0 = 0, y1 = 0, y2 = 0;
+		for (int j = from; j < to; j++) {
+			double x = (t[j] - t[center]) / 1000.0;
+			double y = p[j] - p[center];
+			double x2 = x * x;
+			s0 += 1;
+			s1 += x;
+			s2 += x2;
+			s3 += x2 * x;
+			s4 += x2 * x2;
+			y0 += y;
+			y1 += x * y;
+			y2 += x2 * y;
+		}
+
+		// Solve the normal equations for the linear term with Cramer's rule
+		double det = s0 * (s2 * s4 - s3 * s3) - s1 * (s1 * s4 - s3 * s2) + s2 * (s1 * s3 - s2 * s2);
+		if (Math.abs(det) > 1e-9 * Math.max(1, s4 * s4)) {
+			double detB = s0 * (y1 * s4 - s3 * y2) - y0 * (s1 * s4 - s3 * s2) + s2 * (s1 * y2 - y1 * s2);
+			return detB / det * 100.0;
+		}
+
+		// Too few distinct times for a quadratic, so fit a line
+		double denominator = s0 * s2 - s1 * s1;
+		if (denominator > 1e-12) {
+			return (s0 * y1 - s1 * y0) / denominator * 100.0;
+		}
+		return fallback;
+	}
+
+	/**
+	 * @param samples
+	 *            the samples
+	 * @param idx
+	 *            the sample to check
+	 * @return {@code true} if every position and feedforward value of the sample
+	 *         is zero
+	 */
+	private static boolean isZero(SampleColumns samples, int idx) {
+		for (int c = 0; c < samples.getChannelCount(); c++) {
+			if (samples.positions(c)[idx] != 0 || samples.feedforwards(c)[idx] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces single-sample glitches in a column.
+	 *
+	 * @param v
+	 *            the column
+	 * @param t
+	 *            the read time of each sample
+	 * @param start
+	 *            the first sample
+	 * @param end
+	 *            one past the last sample
+	 * @param maxJump
+	 *            the largest change expected between two samples
+	 */
+	private static void rejectSpikes(double[] v, double[] t, int start, int end, double maxJump) {
+		for (int i = start + 1; i < end - 1; i++) {
+			double prev = v[i - 1];
+			double next = v[i + 1];
+			if (Math.abs(v[i] - prev) > maxJump && Math.abs(v[i] - next) > maxJump
+					&& Math.abs(next - prev) <= 2 * maxJump) {
+				double span = t[i + 1] - t[i - 1];
+				double fraction = span > 0 ? (t[i] - t[i - 1]) / span : 0.5;
+				v[i] = prev + fraction * (next - prev);
+			}
+		}
+	}
+
+	/**
+	 * Applies a centered moving average to a column in place. The original values
+	 * still needed are kept in a ring of {@code 2 * half + 1} values.
+	 *
+	 * @param v
+	 *            the column
+	 * @param start
+	 *            the first sample
+	 * @param end
+	 *            one past the last sample
+	 * @param half
+	 *            the number of samples on each side to average
+	 */
+	private static void smooth(double[] v, int start, int end, int half) {
+		int width = 2 * half + 1;
+		double[] ring = new double[width];
+		double sum = 0;
+		int count = 0;
+		for (int j = start; j < Math.min(end, start + half); j++) {
+			ring[(j - start) % width] = v[j];
+			sum += v[j];
+			count++;
+		}
+		for (int i = start; i < end; i++) {
+			int leaving = i - half - 1;
+			if (leaving >= start) {
+				sum -= ring[(leaving - start) % width];
+				count--;
+			}
+			int entering = i + half;
+			if (entering < end) {
+				ring[(entering - start) % width] = v[entering];
+				sum += v[entering];
+				count++;
+			}
+			v[i] = sum / count;
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.hammerhead226.sharkmacro.BinaryCodec;
+
+/**
+ * A {@link PointSource} that decodes points from a memory-mapped profile file
+ * in the binary or compressed format as they are read.
+ * <p>
+ * Only the pages of the file holding the requested points are read from disk,
+ * and only the requested points are decoded, so the memory used while playing
+ * back a profile doesn't depend on its length, and playback can start before
+ * the rest of the file has been read.
+ */
+public final class MappedPointSource implements PointSource {
+
+	/**
+	 * Decodes files in the binary format.
+	 */
+	private static final ProfileBinaryCodec BINARY = new ProfileBinaryCodec();
+
+	/**
+	 * Decodes files in the compressed format.
+	 */
+	private static final ProfileCompressedCodec COMPRESSED = new ProfileCompressedCodec();
+
+	/**
+	 * The mapped file.
+	 */
+	private final MappedByteBuffer buf;
+
+	/**
+	 * Whether the file is in the compressed format rather than the binary
+	 * format.
+	 */
+	private final boolean compressed;
+
+	/**
+	 * The number of points in each channel.
+	 */
+	private final int length;
+
+	/**
+	 * The number of channels in the file.
+	 */
+	private final int channels;
+
+	/**
+	 * Maps a profile file and reads its header.
+	 *
+	 * @param file
+	 *            the {@code .bin} or {@code .smz} profile to read
+	 * @throws IOException
+	 *             if the file can't be mapped or isn't a supported profile
+	 */
+	public MappedPointSource(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		if (buf.limit() < BinaryCodec.HEADER_BYTES + 2 * Integer.BYTES) {
+			throw new IOException("Truncated SharkMacro binary file");
+		}
+
+		int magic = buf.getInt(0);
+		if (magic == ProfileCompressedCodec.MAGIC) {
+			compressed = true;
+		} else if (magic == ProfileBinaryCodec.MAGIC) {
+			compressed = false;
+		} else {
+			throw new IOException("Not a SharkMacro binary or compressed profile");
+		}
+
+		// Both formats start their body with the point and channel counts
+		length = buf.getInt(BinaryCodec.HEADER_BYTES);
+		channels = buf.getInt(BinaryCodec.HEADER_BYTES + Integer.BYTES);
+		read(0, 0);
+	}
+
+	@Override
+	public int getLength() {
+		return length;
+	}
+
+	@Override
+	public int getChannelCount() {
+		return channels;
+	}
+
+	@Override
+	public ProfileData read(int start, int count) throws IOException {
+		// Each read gets its own view of the mapping, so reads never share a position
+		ByteBuffer view = buf.duplicate();
+		if (compressed) {
+			return COMPRESSED.decodeRange(view, start, count);
+		}
+		return BINARY.decodeRange(view, start, count);
+	}
+
+}
@@ -0,0 +1,42 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import java.io.IOException;
+
+/**
+ * Supplies the points of a motion profile to a {@link ProfileHandler} a chunk
+ * at a time, so a profile doesn't have to be decoded in full before it can be
+ * played back.
+ * <p>
+ * {@link ProfileData} is a source that already holds every point.
+ * {@link MappedPointSource} decodes points from a file as they are needed, and
+ * {@link SegmentedProfile} joins shared segments end to end.
+ */
+public interface PointSource {
+
+	/**
+	 * @return the total number of points in each channel
+	 */
+	int getLength();
+
+	/**
+	 * @return the number of channels, or Talons, the profile drives
+	 */
+	int getChannelCount();
+
+	/**
+	 * Reads a range of points.
+	 *
+	 * @param start
+	 *            index of the first point to read
+	 * @param count
+	 *            the maximum number of points to read
+	 * @return the points, with point {@code start} at index {@code 0}. There may be
+	 *         fewer than {@code count}, such as at the end of the profile or of a
+	 *         segment of a {@link SegmentedProfile}, but there is at least one
+	 *         unless {@code start} is past the end of the profile.
+	 * @throws IOException
+	 *             if the points can't be read
+	 */
+	ProfileData read(int start, int count) throws IOException;
+
+}
@@ -1,5 +1,6 @@
 package org.hammerhead226.sharkmacro.motionprofiles;
 
+import java.io.IOException;
 import java.util.Arrays;
 
 import com.ctre.phoenix.motorcontrol.can.TalonSRX;
@@ -9,14 +10,24 @@ import edu.wpi.first.wpilibj.DriverStation;
 /**
  * Class representation of a motion profile. Formatted to work with Talon SRX
  * motion profiling mode.
- * 
+ * <p>
+ * The points themselves are held in an immutable {@link ProfileData}, which may
+ * be shared with other {@link Profile}s loaded from the same file, or read a
+ * chunk at a time from a {@link PointSource} while the profile executes.
+ * <p>
+ * A profile has one channel for each Talon it drives. Profiles recorded from a
+ * drivetrain have the left side as channel {@code 0} and the right side as
+ * channel {@code 1}; profiles for other mechanisms can have any number of
+ * channels, up to
+ * {@value org.hammerhead226.sharkmacro.Constants#PROFILE_MAX_CHANNELS}.
+ *
  * @author Alec Minchington
  *
  */
 public class Profile {
 
 	/**
-	 * The number of points in both {@link #leftProfile} and {@link #rightProfile}.
+	 * The number of points in each channel.
 	 */
 	public final int length;
 
@@ -32,28 +43,18 @@ public class Profile {
 	private ProfileHandler handler;
 
 	/**
-	 * the Talon to execute the left profile with
+	 * The Talons to execute each channel with.
 	 */
-	private TalonSRX leftTalon;
+	private TalonSRX[] talons;
 
 	/**
-	 * the Talon to execute the right profile with
+	 * The motion profile for each Talon, one channel each.
 	 */
-	private TalonSRX rightTalon;
-
-	/**
-	 * The left motion profile.
-	 */
-	private double[][] leftProfile;
-
-	/**
-	 * The right motion profile.
-	 */
-	private double[][] rightProfile;
+	private final PointSource points;
 
 	/**
 	 * Constructs a new {@link Profile} object.
-	 * 
+	 *
 	 * @param leftProfile
 	 *            the left motion profile
 	 * @param rightProfile
@@ -65,22 +66,15 @@ public class Profile {
 	 */
 	public Profile(double[][] leftProfile, double[][] rightProfile, TalonSRX leftTalon, TalonSRX rightTalon,
 			int leftPidSlotIdx, int rightPidSlotIdx) {
-		this.leftProfile = leftProfile;
-		this.rightProfile = rightProfile;
-		this.leftTalon = leftTalon;
-		this.rightTalon = rightTalon;
-		this.length = this.leftProfile.length;
-		this.dt = (int) this.leftProfile[0][2];
-
-		handler = new ProfileHandler(new double[][][] { leftProfile, rightProfile },
-				new TalonSRX[] { leftTalon, rightTalon }, new int[] { leftPidSlotIdx, rightPidSlotIdx });
+		this(ProfileData.fromRows(leftProfile, rightProfile), leftTalon, rightTalon, leftPidSlotIdx,
+				rightPidSlotIdx);
 	}
 
 	/**
 	 * Constructs a new {@link Profile} object. Passed {@link java.lang.String
 	 * String} arrays are automatically converted to and stored as
 	 * {@link java.lang.Double Double} arrays.
-	 * 
+	 *
 	 * @param leftProfile
 	 *            the left motion profile
 	 * @param rightProfile
@@ -92,46 +86,122 @@ public class Profile {
 	 */
 	public Profile(String[][] leftProfile, String[][] rightProfile, TalonSRX leftTalon, TalonSRX rightTalon,
 			int leftPidSlotIdx, int rightPidSlotIdx) {
-		this.leftProfile = toDoubleArray(leftProfile);
-		this.rightProfile = toDoubleArray(rightProfile);
-		this.leftTalon = leftTalon;
-		this.rightTalon = rightTalon;
-		this.length = this.leftProfile.length;
-		this.dt = (int) this.leftProfile[0][2];
+		this(toDoubleArray(leftProfile), toDoubleArray(rightProfile), leftTalon, rightTalon, leftPidSlotIdx,
+				rightPidSlotIdx);
+	}
 
-		handler = new ProfileHandler(new double[][][] { this.leftProfile, this.rightProfile },
-				new TalonSRX[] { leftTalon, rightTalon }, new int[] { leftPidSlotIdx, rightPidSlotIdx });
+	/**
+	 * Constructs a new {@link Profile} object that executes already decoded
+	 * points. The points are not copied.
+	 *
+	 * @param data
+	 *            the left and right motion profiles, as channels {@code 0} and
+	 *            {@code 1}
+	 * @param leftTalon
+	 *            the Talon to execute the left profile with
+	 * @param rightTalon
+	 *            the Talon to execute the right profile with
+	 */
+	public Profile(ProfileData data, TalonSRX leftTalon, TalonSRX rightTalon, int leftPidSlotIdx,
+			int rightPidSlotIdx) {
+		this(data, new TalonSRX[] { leftTalon, rightTalon }, new int[] { leftPidSlotIdx, rightPidSlotIdx });
+	}
 
+	/**
+	 * Constructs a new {@link Profile} object that executes already decoded
+	 * points on any number of Talons. The points are not copied.
+	 *
+	 * @param data
+	 *            the motion profiles, one channel for each Talon
+	 * @param talons
+	 *            the Talon to execute each channel with
+	 * @param pidSlotIdxs
+	 *            the PID slot to execute each channel with
+	 */
+	public Profile(ProfileData data, TalonSRX[] talons, int[] pidSlotIdxs) {
+		checkChannels(data, talons, pidSlotIdxs);
+		this.points = data;
+		this.talons = talons;
+		this.length = data.length;
+		this.dt = this.length == 0 ? 0 : data.getDuration(0);
+
+		handler = new ProfileHandler(data, talons, pidSlotIdxs);
+	}
+
+	/**
+	 * Constructs a new {@link Profile} object that reads its points from a
+	 * {@link PointSource} a chunk at a time as they are executed, rather than
+	 * holding every point in memory.
+	 *
+	 * @param source
+	 *            supplies the left and right motion profiles, as channels
+	 *            {@code 0} and {@code 1}
+	 * @param leftTalon
+	 *            the Talon to execute the left profile with
+	 * @param rightTalon
+	 *            the Talon to execute the right profile with
+	 */
+	public Profile(PointSource source, TalonSRX leftTalon, TalonSRX rightTalon, int leftPidSlotIdx,
+			int rightPidSlotIdx) {
+		this(source, new TalonSRX[] { leftTalon, rightTalon }, new int[] { leftPidSlotIdx, rightPidSlotIdx });
+	}
+
+	/**
+	 * Constructs a new {@link Profile} object that reads its points from a
+	 * {@link PointSource} a chunk at a time as they are executed, and executes
+	 * them on any number of Talons.
+	 *
+	 * @param source
+	 *            supplies the motion profiles, one channel for each Talon
+	 * @param talons
+	 *            the Talon to execute each channel with
+	 * @param pidSlotIdxs
+	 *            the PID slot to execute each channel with
+	 */
+	public Profile(PointSource source, TalonSRX[] talons, int[] pidSlotIdxs) {
+		checkChannels(source, talons, pidSlotIdxs);
+		this.points = source;
+		this.talons = talons;
+		this.length = source.getLength();
+		ProfileData first = read(source, 0, 1);
+		this.dt = first.length == 0 ? 0 : first.getDuration(0);
+
+		handler = new ProfileHandler(source, talons, pidSlotIdxs);
 	}
 
 	/**
 	 * Constructs a new {@link Profile} object without execution Talons or PID slot
 	 * indexes. Only to be used in {@link Recording}.
-	 * 
+	 *
 	 * @param leftProfile
 	 *            the left motion profile
 	 * @param rightProfile
 	 *            the right motion profile
 	 */
 	public Profile(double[][] leftProfile, double[][] rightProfile) {
-		this.leftProfile = leftProfile;
-		this.rightProfile = rightProfile;
-		this.length = this.leftProfile.length;
-		this.dt = (int) this.leftProfile[0][2];
+		this(ProfileData.fromRows(leftProfile, rightProfile));
+	}
+
+	/**
+	 * Constructs a new {@link Profile} object without execution Talons or PID slot
+	 * indexes. The points are not copied.
+	 *
+	 * @param data
+	 *            the motion profiles, one channel for each Talon
+	 */
+	public Profile(ProfileData data) {
+		this.points = data;
+		this.length = data.length;
+		this.dt = this.length == 0 ? 0 : data.getDuration(0);
 	}
 
 	/**
-	 * Execute a motion profile. This is done by passing {@link #leftProfile} and
-	 * {@link #rightProfile} to new {@link ProfileHandler}s and calling their
+	 * Execute a motion profile. This is done by passing the left and right
+	 * profiles to a new {@link ProfileHandler} and calling its
 	 * {@link ProfileHandler#execute() execute()} method.
-	 * 
-	 * @param leftGainsProfile
-	 *            the PID slot index to use to execute the left motion profile
-	 * @param rightGainsProfile
-	 *            the PID slot index to use to execute the right motion profile
 	 */
 	public void execute() {
-		if (leftProfile.length != 0 && rightProfile.length != 0) {
+		if (length != 0) {
 			handler.execute();
 		} else {
 			DriverStation.getInstance();
@@ -155,7 +225,7 @@ public class Profile {
 
 	/**
 	 * Returns whether this {@link Profile} is finished executing.
-	 * 
+	 *
 	 * @return {@code true} if both {@link MotionProfileHandler}s are finished
 	 *         executing their respective profiles, {@code false} otherwise
 	 */
@@ -164,49 +234,147 @@ public class Profile {
 	}
 
 	/**
-	 * Returns this {@link Profile}'s {@link #leftProfile} property.
-	 * 
+	 * Returns this {@link Profile}'s points. The returned object is immutable and
+	 * may be shared with other {@code Profile}s. If this profile reads its points
+	 * from a {@link PointSource}, every point is read into a new
+	 * {@link ProfileData}.
+	 *
+	 * @return the motion profiles, one channel for each Talon
+	 */
+	public ProfileData getData() {
+		ProfileData first = read(points, 0, length);
+		if (first.length >= length || first.length == 0) {
+			return first;
+		}
+
+		// Sources such as a SegmentedProfile return fewer points per read
+		double[][][] rows = new double[first.getChannelCount()][length][];
+		int filled = 0;
+		for (ProfileData part = first; part.length > 0 && filled < length; part = read(points, filled,
+				length - filled)) {
+			for (int c = 0; c < rows.length; c++) {
+				System.arraycopy(part.toRows(c), 0, rows[c], filled, part.length);
+			}
+			filled += part.length;
+		}
+		if (filled < length) {
+			for (int c = 0; c < rows.length; c++) {
+				rows[c] = Arrays.copyOf(rows[c], filled);
+			}
+		}
+		return ProfileData.fromRows(rows);
+	}
+
+	/**
+	 * @return the number of channels in the profile, one for each Talon
+	 */
+	public int getChannelCount() {
+		return points.getChannelCount();
+	}
+
+	/**
+	 * Checks that a profile has a channel for each Talon.
+	 *
+	 * @param source
+	 *            the profile's points
+	 * @param talons
+	 *            the Talons to execute the profile with
+	 * @param pidSlotIdxs
+	 *            the PID slot of each Talon
+	 * @throws IllegalArgumentException
+	 *             if there isn't a channel and a PID slot for every Talon
+	 */
+	private static void checkChannels(PointSource source, TalonSRX[] talons, int[] pidSlotIdxs) {
+		if (talons.length != pidSlotIdxs.length) {
+			throw new IllegalArgumentException("Each Talon needs a PID slot");
+		}
+		if (source.getLength() > 0 && source.getChannelCount() < talons.length) {
+			throw new IllegalArgumentException("Profile has " + source.getChannelCount() + " channels but "
+					+ talons.length + " Talons were given");
+		}
+	}
+
+	/**
+	 * Reads points from a {@link PointSource}, reporting an error and returning an
+	 * empty profile if they can't be read.
+	 *
+	 * @param source
+	 *            the source to read
+	 * @param start
+	 *            index of the first point to read
+	 * @param count
+	 *            the maximum number of points to read
+	 * @return the points read
+	 */
+	private static ProfileData read(PointSource source, int start, int count) {
+		try {
+			return source.read(start, count);
+		} catch (IOException e) {
+			e.printStackTrace();
+			DriverStation.getInstance();
+			DriverStation.reportError("Unable to read motion profile points", false);
+			return ProfileData.fromRows(new double[0][0], new double[0][0]);
+		}
+	}
+
+	/**
+	 * Returns a new copy of one channel of the profile as rows of
+	 * {@code [ <position>, <velocity>, <duration> ]}.
+	 *
+	 * @param channel
+	 *            the channel to copy
+	 * @return the channel's motion profile
+	 */
+	public double[][] getProfile_Double(int channel) {
+		return getData().toRows(channel);
+	}
+
+	/**
+	 * Returns a new copy of the left profile as rows of
+	 * {@code [ <position>, <velocity>, <duration> ]}.
+	 *
 	 * @return the left side motion profile
 	 */
 	public double[][] getLeftProfile_Double() {
-		return this.leftProfile;
+		return getData().toRows(0);
 	}
 
 	/**
-	 * Returns this {@link Profile}'s {@link #rightProfile} property.
-	 * 
+	 * Returns a new copy of the right profile as rows of
+	 * {@code [ <position>, <velocity>, <duration> ]}.
+	 *
 	 * @return the right side motion profile
 	 */
 	public double[][] getRightProfile_Double() {
-		return this.rightProfile;
+		return getData().toRows(1);
 	}
 
 	/**
-	 * Returns the result of {@link #toStringArray(double[][])} on
-	 * {@link #leftProfile}.
-	 * 
-	 * @return the {@link java.lang.String String} array representation of
-	 *         {@link #leftProfile}
+	 * Returns the result of {@link #toStringArray(double[][])} on the left
+	 * profile.
+	 *
+	 * @return the {@link java.lang.String String} array representation of the
+	 *         left profile
 	 */
 	public String[][] getLeftProfile_String() {
-		return toStringArray(this.leftProfile);
+		return toStringArray(getLeftProfile_Double());
 	}
 
 	/**
-	 * Returns the result of {@link #toStringArray(double[][])} on
-	 * {@link #rightProfile}.
-	 * 
-	 * @return the {@link java.lang.String String} array representation of
-	 *         {@link #rightProfile}
+	 * Returns the result of {@link #toStringArray(double[][])} on the right
+	 * profile.
+	 *
+	 * @return the {@link java.lang.String String} array representation of the
+	 *         right profile
 	 */
 	public String[][] getRightProfile_String() {
-		return toStringArray(this.rightProfile);
+		return toStringArray(getRightProfile_Double());
 	}
 
 	/**
 	 * Converts a 2D {@link java.lang.Double Double} array to a 2D array of type
 	 * {@link java.lang.String String}.
-	 * 
+	 *
 	 * @param arr
 	 *            the array to convert
 	 * @return the converted array
@@ -216,9 +384,10 @@ public class Profile {
 			return new String[0][0];
 		}
 		String[][] str = new String[arr.length][arr[0].length];
-		int i = 0;
-		for (double[] d : arr) {
-			str[i++] = Arrays.toString(d).replace("[", "").replace("]", "").replace(" ", "").split(",");
+		for (int i = 0; i < arr.length; i++) {
+			for (int j = 0; j < arr[i].length; j++) {
+				str[i][j] = Double.toString(arr[i][j]);
+			}
 		}
 		return str;
 	}
@@ -226,7 +395,7 @@ public class Profile {
 	/**
 	 * Converts a 2D {@link java.lang.String String} array of numbers to a 2D array
 	 * of type {@link java.lang.Double Double}.
-	 * 
+	 *
 	 * @param arr
 	 *            the array to convert
 	 * @return the converted array
@@ -0,0 +1,123 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.hammerhead226.sharkmacro.BinaryCodec;
+import org.hammerhead226.sharkmacro.Constants;
+
+/**
+ * Reads and writes {@link ProfileData} in SharkMacro's binary format. After
+ * the common header, the body is laid out in columns:
+ * <p>
+ * <center>
+ * {@code [ <int point count>, <int channel count>, <double[] positions, double[] velocities> per channel, <int[] durations> ]}
+ * </center>
+ * </p>
+ * A profile for two Talons stores the left side as channel {@code 0} and the
+ * right side as channel {@code 1}. Columns are copied straight into the arrays of the decoded
+ * {@code ProfileData}.
+ */
+public class ProfileBinaryCodec extends BinaryCodec<ProfileData> {
+
+	/**
+	 * Identifies a binary profile file.
+	 */
+	public static final int MAGIC = 0x534D5046;
+
+	/**
+	 * The current body layout version.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Constructs a new {@link ProfileBinaryCodec}.
+	 */
+	public ProfileBinaryCodec() {
+		super(MAGIC, VERSION);
+	}
+
+	@Override
+	protected int bodySize(ProfileData profile) {
+		return 2 * Integer.BYTES + profile.length * (profile.getChannelCount() * 2 * Double.BYTES + Integer.BYTES);
+	}
+
+	@Override
+	protected void encodeBody(ProfileData profile, ByteBuffer buf) {
+		buf.putInt(profile.length);
+		buf.putInt(profile.getChannelCount());
+		for (int c = 0; c < profile.getChannelCount(); c++) {
+			putDoubles(buf, profile.positionColumn(c));
+			putDoubles(buf, profile.velocityColumn(c));
+		}
+		putInts(buf, profile.durationColumn());
+	}
+
+	@Override
+	protected ProfileData decodeBody(ByteBuffer buf, int version) throws IOException {
+		require(buf, 2 * Integer.BYTES);
+		int length = buf.getInt();
+		int channels = buf.getInt();
+		if (length < 0 || channels < 1 || channels > Constants.PROFILE_MAX_CHANNELS) {
+			throw new IOException("Malformed binary profile header");
+		}
+		require(buf, (long) length * (channels * 2 * Double.BYTES + Integer.BYTES));
+
+		double[][] positions = new double[channels][length];
+		double[][] velocities = new double[channels][length];
+		for (int c = 0; c < channels; c++) {
+			getDoubles(buf, positions[c]);
+			getDoubles(buf, velocities[c]);
+		}
+		int[] durations = new int[length];
+		getInts(buf, durations);
+
+		return new ProfileData(positions, velocities, durations);
+	}
+
+	/**
+	 * Decodes part of a profile from a buffer positioned at the start of its
+	 * header. Only the requested points are copied out of each column.
+	 *
+	 * @param buf
+	 *            the buffer to decode
+	 * @param start
+	 *            index of the first point to decode
+	 * @param count
+	 *            the maximum number of points to decode
+	 * @return the decoded points, which may be fewer than {@code count} if the
+	 *         profile ends first
+	 * @throws IOException
+	 *             if the buffer doesn't hold a valid binary profile
+	 */
+	public ProfileData decodeRange(ByteBuffer buf, int start, int count) throws IOException {
+		readHeader(buf);
+		require(buf, 2 * Integer.BYTES);
+		int length = buf.getInt();
+		int channels = buf.getInt();
+		if (length < 0 || channels < 1 || channels > Constants.PROFILE_MAX_CHANNELS) {
+			throw new IOException("Malformed binary profile header");
+		}
+		require(buf, (long) length * (channels * 2 * Double.BYTES + Integer.BYTES));
+		int base = buf.position();
+
+		int first = Math.max(0, Math.min(start, length));
+		int end = (int) Math.min(length, (long) first + Math.max(0, count));
+		double[][] positions = new double[channels][end - first];
+		double[][] velocities = new double[channels][end - first];
+		int[] durations = new int[end - first];
+
+		for (int c = 0; c < channels; c++) {
+			buf.position(base + ((2 * c) * length + first) * Double.BYTES);
+			getDoubles(buf, positions[c]);
+			buf.position(base + ((2 * c + 1) * length + first) * Double.BYTES);
+			getDoubles(buf, velocities[c]);
+		}
+		buf.position(base + channels * 2 * length * Double.BYTES + first * Integer.BYTES);
+		getInts(buf, durations);
+
+		buf.position(base + length * (channels * 2 * Double.BYTES + Integer.BYTES));
+		return new ProfileData(positions, velocities, durations);
+	}
+
+}
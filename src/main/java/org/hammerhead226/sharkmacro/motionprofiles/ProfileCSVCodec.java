@@ -0,0 +1,108 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.hammerhead226.sharkmacro.CSVCodec;
+import org.hammerhead226.sharkmacro.CSVStreamReader;
+import org.hammerhead226.sharkmacro.CSVStreamWriter;
+import org.hammerhead226.sharkmacro.Constants;
+
+/**
+ * Reads and writes {@link ProfileData} as csv files. Each line of the file is
+ * formatted as follows:
+ * <p>
+ * <center>
+ * {@code <left position>, <left velocity>, <right position>, <right velocity>, <duration>}
+ * </center>
+ * </p>
+ * Profiles for more than two Talons have a position and a velocity for each
+ * channel before the duration. The number of channels is read from the number
+ * of values on the first line.
+ */
+public class ProfileCSVCodec extends CSVCodec<ProfileData> {
+
+	/**
+	 * Rough length of one line of a profile file, used to size the arrays a file
+	 * is read into.
+	 */
+	private static final int ESTIMATED_ROW_BYTES = 30;
+
+	@Override
+	public ProfileData read(Path file) throws IOException {
+		int capacity = (int) Math.max(16, Files.size(file) / ESTIMATED_ROW_BYTES);
+		double[][] positions = null;
+		double[][] velocities = null;
+		int[] durations = new int[capacity];
+		int channels = 0;
+		int length = 0;
+
+		try (CSVStreamReader reader = new CSVStreamReader(file)) {
+			while (reader.nextRow()) {
+				if (positions == null) {
+					// The first line sets the number of channels
+					double[] first = new double[2 * Constants.PROFILE_MAX_CHANNELS + 1];
+					int fields = 0;
+					while (reader.hasNextField()) {
+						if (fields == first.length) {
+							throw new IOException("Too many channels in profile file: " + file);
+						}
+						first[fields++] = reader.nextDouble();
+					}
+					if (fields < 3 || fields % 2 == 0) {
+						throw new IOException("Malformed profile row in file: " + file);
+					}
+					channels = (fields - 1) / 2;
+					positions = new double[channels][capacity];
+					velocities = new double[channels][capacity];
+					for (int c = 0; c < channels; c++) {
+						positions[c][0] = first[2 * c];
+						velocities[c][0] = first[2 * c + 1];
+					}
+					durations[0] = (int) first[fields - 1];
+					length++;
+					continue;
+				}
+				if (length == durations.length) {
+					for (int c = 0; c < channels; c++) {
+						positions[c] = Arrays.copyOf(positions[c], length * 2);
+						velocities[c] = Arrays.copyOf(velocities[c], length * 2);
+					}
+					durations = Arrays.copyOf(durations, length * 2);
+				}
+				for (int c = 0; c < channels; c++) {
+					positions[c][length] = reader.nextDouble();
+					velocities[c][length] = reader.nextDouble();
+				}
+				durations[length] = (int) reader.nextDouble();
+				length++;
+			}
+		}
+
+		if (positions == null) {
+			return ProfileData.fromRows(new double[0][0], new double[0][0]);
+		}
+		for (int c = 0; c < channels; c++) {
+			positions[c] = Arrays.copyOf(positions[c], length);
+			velocities[c] = Arrays.copyOf(velocities[c], length);
+		}
+		return new ProfileData(positions, velocities, Arrays.copyOf(durations, length));
+	}
+
+	@Override
+	public void write(Path file, ProfileData profile) throws IOException {
+		try (CSVStreamWriter writer = new CSVStreamWriter(file)) {
+			for (int i = 0; i < profile.length; i++) {
+				for (int c = 0; c < profile.getChannelCount(); c++) {
+					writer.writeDouble(profile.getPosition(c, i));
+					writer.writeDouble(profile.getVelocity(c, i));
+				}
+				writer.writeLong(profile.getDuration(i));
+				writer.endRow();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,414 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.hammerhead226.sharkmacro.BinaryCodec;
+import org.hammerhead226.sharkmacro.Constants;
+
+/**
+ * Reads and writes {@link ProfileData} in SharkMacro's compressed binary
+ * format, which is usually several times smaller than a csv file.
+ * <p>
+ * Each position and velocity column is stored as whole numbers: values are
+ * multiplied by the smallest power of ten, up to
+ * 10<sup>{@value org.hammerhead226.sharkmacro.Constants#PROFILE_COMPRESSED_MAX_DECIMALS}</sup>,
+ * that makes every value in the column whole. A column that is already whole,
+ * such as raw encoder readings, is stored exactly. Every other column is
+ * rounded to 10<sup>-{@value org.hammerhead226.sharkmacro.Constants#PROFILE_COMPRESSED_MAX_DECIMALS}</sup>,
+ * which includes the positions and velocities of a converted recording, since
+ * they are interpolated onto evenly spaced points. The difference between each number and the one before it is
+ * then stored as a variable-length integer, which is a single byte for most
+ * points. If every point has the same duration, it is stored once.
+ * <p>
+ * Points are split into blocks of
+ * {@value org.hammerhead226.sharkmacro.Constants#PROFILE_COMPRESSED_BLOCK_POINTS}
+ * that can each be decoded on their own, and an index of where each block
+ * starts follows the header. {@link #read(Path, int, int)} uses the index to
+ * decode only part of a profile. After the common header, the body is laid
+ * out as follows:
+ * <p>
+ * <center>
+ * {@code [ <int point count>, <int channel count>, <int points per block>, <int duration, or 0 if stored per point>, <double position scale, double velocity scale> per channel, <int block count>, <int[] block offsets>, <int block data length>, <blocks> ]}
+ * </center>
+ * </p>
+ * Each block holds, for each channel, its positions and then its velocities,
+ * followed by its durations if they are stored per point. Each column starts
+ * with its first value and continues with differences.
+ */
+public class ProfileCompressedCodec extends BinaryCodec<ProfileData> {
+
+	/**
+	 * Identifies a compressed profile file.
+	 */
+	public static final int MAGIC = 0x534D505A;
+
+	/**
+	 * The current body layout version.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Largest magnitude a scaled value may have and still be stored exactly.
+	 */
+	private static final double MAX_SCALED = 1L << 53;
+
+	/**
+	 * Constructs a new {@link ProfileCompressedCodec}.
+	 */
+	public ProfileCompressedCodec() {
+		super(MAGIC, VERSION);
+	}
+
+	@Override
+	public String getExtension() {
+		return Constants.COMPRESSED_EXTENSION;
+	}
+
+	@Override
+	public void write(Path file, ProfileData profile) throws IOException {
+		double limit = MAX_SCALED / Math.pow(10, Constants.PROFILE_COMPRESSED_MAX_DECIMALS);
+		for (int c = 0; c < profile.getChannelCount(); c++) {
+			for (int i = 0; i < profile.length; i++) {
+				if (!(Math.abs(profile.getPosition(c, i)) < limit && Math.abs(profile.getVelocity(c, i)) < limit)) {
+					throw new IOException("Profile value can't be compressed at point " + i);
+				}
+			}
+		}
+		super.write(file, profile);
+	}
+
+	/**
+	 * Decodes part of a compressed profile file. Only the blocks holding the
+	 * requested points are decoded, so playback can start partway through a long
+	 * profile without reading all of it.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @param start
+	 *            index of the first point to decode
+	 * @param count
+	 *            the maximum number of points to decode
+	 * @return the decoded points, which may be fewer than {@code count} if the
+	 *         profile ends first
+	 * @throws IOException
+	 *             if the file can't be read or is malformed
+	 */
+	public ProfileData read(Path file, int start, int count) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return decodeRange(buf, start, count);
+		}
+	}
+
+	/**
+	 * Decodes part of a profile from a buffer positioned at the start of its
+	 * header.
+	 *
+	 * @param buf
+	 *            the buffer to decode
+	 * @param start
+	 *            index of the first point to decode
+	 * @param count
+	 *            the maximum number of points to decode
+	 * @return the decoded points, which may be fewer than {@code count} if the
+	 *         profile ends first
+	 * @throws IOException
+	 *             if the buffer doesn't hold a valid compressed profile
+	 */
+	public ProfileData decodeRange(ByteBuffer buf, int start, int count) throws IOException {
+		readHeader(buf);
+		return decodePoints(buf, start, count);
+	}
+
+	@Override
+	protected int bodySize(ProfileData profile) {
+		return new Encoding(profile).bodySize;
+	}
+
+	@Override
+	protected void encodeBody(ProfileData profile, ByteBuffer buf) {
+		new Encoding(profile).write(buf);
+	}
+
+	@Override
+	protected ProfileData decodeBody(ByteBuffer buf, int version) throws IOException {
+		return decodePoints(buf, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Decodes the points in a range from a buffer positioned just after the
+	 * header.
+	 *
+	 * @param buf
+	 *            the little-endian buffer to read from
+	 * @param start
+	 *            index of the first point to decode
+	 * @param count
+	 *            the maximum number of points to decode
+	 * @return the decoded points
+	 * @throws IOException
+	 *             if the body is malformed or truncated
+	 */
+	private static ProfileData decodePoints(ByteBuffer buf, int start, int count) throws IOException {
+		require(buf, 4 * Integer.BYTES);
+		int length = buf.getInt();
+		int channels = buf.getInt();
+		int blockPoints = buf.getInt();
+		int dt = buf.getInt();
+		if (length < 0 || channels < 1 || channels > Constants.PROFILE_MAX_CHANNELS || blockPoints <= 0
+				|| dt < 0) {
+			throw new IOException("Malformed compressed profile header");
+		}
+
+		require(buf, (long) channels * 2 * Double.BYTES);
+		double[] positionScales = new double[channels];
+		double[] velocityScales = new double[channels];
+		for (int c = 0; c < channels; c++) {
+			positionScales[c] = buf.getDouble();
+			velocityScales[c] = buf.getDouble();
+			if (!(positionScales[c] >= 1) || !(velocityScales[c] >= 1)) {
+				throw new IOException("Malformed compressed profile scale");
+			}
+		}
+
+		require(buf, Integer.BYTES);
+		int blockCount = buf.getInt();
+		if (blockCount != (int) (((long) length + blockPoints - 1) / blockPoints)) {
+			throw new IOException("Malformed compressed profile index");
+		}
+		require(buf, (long) blockCount * Integer.BYTES);
+		int[] offsets = new int[blockCount];
+		getInts(buf, offsets);
+		require(buf, Integer.BYTES);
+		int dataBytes = buf.getInt();
+		// Every position and velocity takes at least one byte
+		if (dataBytes < (long) length * 2 * channels) {
+			throw new IOException("Truncated compressed profile");
+		}
+		require(buf, dataBytes);
+		int base = buf.position();
+
+		int first = Math.max(0, Math.min(start, length));
+		int end = (int) Math.min(length, (long) first + Math.max(0, count));
+		double[][] positions = new double[channels][end - first];
+		double[][] velocities = new double[channels][end - first];
+		int[] durations = new int[end - first];
+
+		if (end > first) {
+			ByteBuffer block = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			block.limit(base + dataBytes);
+			for (int b = first / blockPoints; b <= (end - 1) / blockPoints; b++) {
+				if (offsets[b] < 0 || offsets[b] >= dataBytes) {
+					throw new IOException("Malformed compressed profile index");
+				}
+				block.position(base + offsets[b]);
+				int blockStart = b * blockPoints;
+				int blockLength = Math.min(blockPoints, length - blockStart);
+				for (int c = 0; c < channels; c++) {
+					getColumn(block, blockStart, blockLength, positionScales[c], first, end, positions[c]);
+					getColumn(block, blockStart, blockLength, velocityScales[c], first, end, velocities[c]);
+				}
+				for (int i = blockStart; i < blockStart + blockLength; i++) {
+					int duration = dt != 0 ? dt : (int) getVarLong(block);
+					if (i >= first && i < end) {
+						durations[i - first] = duration;
+					}
+				}
+			}
+		}
+
+		buf.position(base + dataBytes);
+		return new ProfileData(positions, velocities, durations);
+	}
+
+	/**
+	 * Decodes one column of one block, keeping the values that fall within the
+	 * requested range.
+	 *
+	 * @param block
+	 *            the buffer to read from, positioned at the start of the column
+	 * @param blockStart
+	 *            index of the block's first point
+	 * @param blockLength
+	 *            number of points in the block
+	 * @param scale
+	 *            the number the column's values were multiplied by
+	 * @param first
+	 *            index of the first point to keep
+	 * @param end
+	 *            index after the last point to keep
+	 * @param column
+	 *            the array to fill, starting with point {@code first}
+	 * @throws IOException
+	 *             if the block is truncated
+	 */
+	private static void getColumn(ByteBuffer block, int blockStart, int blockLength, double scale, int first,
+			int end, double[] column) throws IOException {
+		long value = 0;
+		for (int i = blockStart; i < blockStart + blockLength; i++) {
+			value += getVarLong(block);
+			if (i >= first && i < end) {
+				column[i - first] = value / scale;
+			}
+		}
+	}
+
+	/**
+	 * A profile converted to scaled whole numbers, ready to be written.
+	 */
+	private static class Encoding {
+
+		final ProfileData profile;
+
+		final int channels;
+
+		final double[] positionScales;
+
+		final double[] velocityScales;
+
+		final long[][] positions;
+
+		final long[][] velocities;
+
+		/**
+		 * The duration shared by every point, or {@code 0} if they differ.
+		 */
+		final int dt;
+
+		final int blockPoints = Constants.PROFILE_COMPRESSED_BLOCK_POINTS;
+
+		final int[] offsets;
+
+		final int dataBytes;
+
+		final int bodySize;
+
+		Encoding(ProfileData profile) {
+			this.profile = profile;
+			this.channels = profile.getChannelCount();
+			positionScales = new double[channels];
+			velocityScales = new double[channels];
+			positions = new long[channels][];
+			velocities = new long[channels][];
+			for (int c = 0; c < channels; c++) {
+				positionScales[c] = chooseScale(profile.positionColumn(c));
+				velocityScales[c] = chooseScale(profile.velocityColumn(c));
+				positions[c] = quantize(profile.positionColumn(c), positionScales[c]);
+				velocities[c] = quantize(profile.velocityColumn(c), velocityScales[c]);
+			}
+
+			int shared = profile.length == 0 ? 0 : profile.getDuration(0);
+			for (int i = 1; i < profile.length && shared != 0; i++) {
+				if (profile.getDuration(i) != shared) {
+					shared = 0;
+				}
+			}
+			this.dt = Math.max(0, shared);
+
+			offsets = new int[(profile.length + blockPoints - 1) / blockPoints];
+			int size = 0;
+			for (int b = 0; b < offsets.length; b++) {
+				offsets[b] = size;
+				int blockStart = b * blockPoints;
+				int blockEnd = Math.min(profile.length, blockStart + blockPoints);
+				for (int c = 0; c < channels; c++) {
+					size += columnSize(positions[c], blockStart, blockEnd);
+					size += columnSize(velocities[c], blockStart, blockEnd);
+				}
+				if (dt == 0) {
+					for (int i = blockStart; i < blockEnd; i++) {
+						size += varLongSize(profile.getDuration(i));
+					}
+				}
+			}
+			dataBytes = size;
+			bodySize = 4 * Integer.BYTES + channels * 2 * Double.BYTES + Integer.BYTES
+					+ offsets.length * Integer.BYTES + Integer.BYTES + dataBytes;
+		}
+
+		void write(ByteBuffer buf) {
+			buf.putInt(profile.length);
+			buf.putInt(channels);
+			buf.putInt(blockPoints);
+			buf.putInt(dt);
+			for (int c = 0; c < channels; c++) {
+				buf.putDouble(positionScales[c]);
+				buf.putDouble(velocityScales[c]);
+			}
+			buf.putInt(offsets.length);
+			putInts(buf, offsets);
+			buf.putInt(dataBytes);
+
+			for (int b = 0; b < offsets.length; b++) {
+				int blockStart = b * blockPoints;
+				int blockEnd = Math.min(profile.length, blockStart + blockPoints);
+				for (int c = 0; c < channels; c++) {
+					putColumn(buf, positions[c], blockStart, blockEnd);
+					putColumn(buf, velocities[c], blockStart, blockEnd);
+				}
+				if (dt == 0) {
+					for (int i = blockStart; i < blockEnd; i++) {
+						putVarLong(buf, profile.getDuration(i));
+					}
+				}
+			}
+		}
+
+		/**
+		 * Finds the smallest power of ten that makes every value in a column whole,
+		 * up to the largest allowed.
+		 */
+		private static double chooseScale(double[] column) {
+			double scale = 1;
+			for (int d = 0; d < Constants.PROFILE_COMPRESSED_MAX_DECIMALS; d++, scale *= 10) {
+				if (isExact(column, scale)) {
+					return scale;
+				}
+			}
+			return scale;
+		}
+
+		private static boolean isExact(double[] column, double scale) {
+			for (double v : column) {
+				double scaled = Math.rint(v * scale);
+				if (Math.abs(scaled) >= MAX_SCALED || scaled / scale != v) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static long[] quantize(double[] column, double scale) {
+			long[] q = new long[column.length];
+			for (int i = 0; i < q.length; i++) {
+				q[i] = (long) Math.rint(column[i] * scale);
+			}
+			return q;
+		}
+
+		private static int columnSize(long[] column, int blockStart, int blockEnd) {
+			int size = 0;
+			long previous = 0;
+			for (int i = blockStart; i < blockEnd; i++) {
+				size += varLongSize(column[i] - previous);
+				previous = column[i];
+			}
+			return size;
+		}
+
+		private static void putColumn(ByteBuffer buf, long[] column, int blockStart, int blockEnd) {
+			long previous = 0;
+			for (int i = blockStart; i < blockEnd; i++) {
+				putVarLong(buf, column[i] - previous);
+				previous = column[i];
+			}
+		}
+	}
+
+}
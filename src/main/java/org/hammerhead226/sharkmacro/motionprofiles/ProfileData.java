@@ -0,0 +1,200 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import java.util.Arrays;
+
+/**
+ * The decoded points of a motion profile, stored as one column of primitives
+ * per value. Each channel is the profile for one Talon; all channels share the
+ * same point durations.
+ * <p>
+ * Instances are immutable, so a single instance decoded by
+ * {@link ProfileParser} is cached and shared by every {@link Profile} loaded
+ * from the same file.
+ */
+public final class ProfileData implements PointSource {
+
+	/**
+	 * The number of points in each channel.
+	 */
+	public final int length;
+
+	/**
+	 * Positions of each point, indexed by channel and then point.
+	 */
+	private final double[][] positions;
+
+	/**
+	 * Velocities or feedforward values of each point, indexed by channel and then
+	 * point.
+	 */
+	private final double[][] velocities;
+
+	/**
+	 * The time, in milliseconds, the Talons hold each point.
+	 */
+	private final int[] durations;
+
+	/**
+	 * Constructs a new {@link ProfileData} that takes ownership of the given
+	 * columns. The arrays must not be modified afterwards.
+	 *
+	 * @param positions
+	 *            positions of each point, indexed by channel and then point
+	 * @param velocities
+	 *            velocities of each point, indexed by channel and then point
+	 * @param durations
+	 *            the time, in milliseconds, to hold each point
+	 */
+	ProfileData(double[][] positions, double[][] velocities, int[] durations) {
+		this.positions = positions;
+		this.velocities = velocities;
+		this.durations = durations;
+		this.length = durations.length;
+	}
+
+	/**
+	 * Builds a {@link ProfileData} from profiles formatted as rows of
+	 * {@code [ <position>, <velocity>, <duration> ]}, copying their values. The
+	 * durations of the first profile are used for every channel.
+	 *
+	 * @param profiles
+	 *            one row-formatted profile per channel, all the same length
+	 * @return the columnar copy of the profiles
+	 */
+	public static ProfileData fromRows(double[][]... profiles) {
+		int length = profiles.length == 0 ? 0 : profiles[0].length;
+		double[][] positions = new double[profiles.length][length];
+		double[][] velocities = new double[profiles.length][length];
+		int[] durations = new int[length];
+
+		for (int c = 0; c < profiles.length; c++) {
+			if (profiles[c].length != length) {
+				throw new IllegalArgumentException("All profiles must have the same number of points");
+			}
+			for (int i = 0; i < length; i++) {
+				positions[c][i] = profiles[c][i][0];
+				velocities[c][i] = profiles[c][i][1];
+			}
+		}
+		for (int i = 0; i < length; i++) {
+			durations[i] = (int) profiles[0][i][2];
+		}
+
+		return new ProfileData(positions, velocities, durations);
+	}
+
+	@Override
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the number of channels, or Talons, this profile drives
+	 */
+	@Override
+	public int getChannelCount() {
+		return positions.length;
+	}
+
+	/**
+	 * Returns this instance if every point is requested, or a copy of the
+	 * requested points otherwise.
+	 */
+	@Override
+	public ProfileData read(int start, int count) {
+		int first = Math.max(0, Math.min(start, length));
+		int end = (int) Math.min(length, (long) first + Math.max(0, count));
+		if (first == 0 && end == length) {
+			return this;
+		}
+
+		double[][] p = new double[positions.length][];
+		double[][] v = new double[velocities.length][];
+		for (int c = 0; c < positions.length; c++) {
+			p[c] = Arrays.copyOfRange(positions[c], first, end);
+			v[c] = Arrays.copyOfRange(velocities[c], first, end);
+		}
+		return new ProfileData(p, v, Arrays.copyOfRange(durations, first, end));
+	}
+
+	/**
+	 * @param channel
+	 *            the channel to read
+	 * @param idx
+	 *            the point to read
+	 * @return the position of the point
+	 */
+	public double getPosition(int channel, int idx) {
+		return positions[channel][idx];
+	}
+
+	/**
+	 * @param channel
+	 *            the channel to read
+	 * @param idx
+	 *            the point to read
+	 * @return the velocity or feedforward value of the point
+	 */
+	public double getVelocity(int channel, int idx) {
+		return velocities[channel][idx];
+	}
+
+	/**
+	 * @param idx
+	 *            the point to read
+	 * @return the time, in milliseconds, the Talons hold the point
+	 */
+	public int getDuration(int idx) {
+		return durations[idx];
+	}
+
+	/**
+	 * Copies one channel into rows formatted as
+	 * {@code [ <position>, <velocity>, <duration> ]}.
+	 *
+	 * @param channel
+	 *            the channel to copy
+	 * @return a new row-formatted copy of the channel
+	 */
+	public double[][] toRows(int channel) {
+		double[][] rows = new double[length][3];
+		for (int i = 0; i < length; i++) {
+			rows[i][0] = positions[channel][i];
+			rows[i][1] = velocities[channel][i];
+			rows[i][2] = durations[i];
+		}
+		return rows;
+	}
+
+	/**
+	 * Gives codecs in this package direct access to a position column.
+	 *
+	 * @param channel
+	 *            the channel to get
+	 * @return the position column of the channel, which must not be modified
+	 */
+	double[] positionColumn(int channel) {
+		return positions[channel];
+	}
+
+	/**
+	 * Gives codecs in this package direct access to a velocity column.
+	 *
+	 * @param channel
+	 *            the channel to get
+	 * @return the velocity column of the channel, which must not be modified
+	 */
+	double[] velocityColumn(int channel) {
+		return velocities[channel];
+	}
+
+	/**
+	 * Gives codecs in this package direct access to the duration column.
+	 *
+	 * @return the duration column, which must not be modified
+	 */
+	int[] durationColumn() {
+		return durations;
+	}
+
+}
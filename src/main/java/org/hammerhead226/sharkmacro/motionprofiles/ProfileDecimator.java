@@ -0,0 +1,289 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import java.util.Arrays;
+
+import org.hammerhead226.sharkmacro.Constants;
+
+/**
+ * Removes the points of a motion profile that a straight line between the
+ * points kept on either side reproduces within a tolerance, so straight and
+ * steadily curving stretches of a path are sent to the Talons as a few long
+ * points instead of many short ones. The kept points are held for as long as
+ * the points they replace, so the profile's total duration doesn't change.
+ * <p>
+ * Points are decimated as they are {@link #add(double[], double[], int)
+ * added}, one after another. A line is extended from the last kept point for
+ * as long as every point it skips stays within the tolerance of it, in every
+ * channel, and the point before the first one that doesn't fit is kept. Only
+ * the points since the last kept point are held, and no point is held for
+ * longer than
+ * {@value org.hammerhead226.sharkmacro.Constants#PROFILE_DECIMATION_MAX_DURATION_MS}
+ * ms, so each point takes a bounded amount of work.
+ */
+public final class ProfileDecimator {
+
+	/**
+	 * Largest distance, in raw units, a removed point's position may be from the
+	 * line that replaces it.
+	 */
+	private final double positionTolerance;
+
+	/**
+	 * Largest distance a removed point's velocity or feedforward value may be from
+	 * the line that replaces it.
+	 */
+	private final double feedforwardTolerance;
+
+	/**
+	 * Number of channels in each point.
+	 */
+	private final int channels;
+
+	/**
+	 * The last kept point, followed by the points added since, indexed by channel
+	 * and then point. Only the first {@link #windowSize} points are used.
+	 */
+	private double[][] windowPositions;
+
+	/**
+	 * Velocities or feedforward values of the points in the window.
+	 */
+	private double[][] windowVelocities;
+
+	/**
+	 * Durations of the points in the window.
+	 */
+	private int[] windowDurations;
+
+	/**
+	 * Number of points in the window.
+	 */
+	private int windowSize = 0;
+
+	/**
+	 * The points kept so far, indexed by channel and then point. Only the first
+	 * {@link #keptSize} points are used.
+	 */
+	private double[][] keptPositions;
+
+	/**
+	 * Velocities or feedforward values of the kept points.
+	 */
+	private double[][] keptVelocities;
+
+	/**
+	 * Durations of the kept points.
+	 */
+	private int[] keptDurations;
+
+	/**
+	 * Number of kept points.
+	 */
+	private int keptSize = 0;
+
+	/**
+	 * Constructs a new {@link ProfileDecimator}.
+	 *
+	 * @param channels
+	 *            the number of channels in each point
+	 * @param positionTolerance
+	 *            largest distance, in raw units, a removed point's position may be
+	 *            from the line that replaces it
+	 * @param feedforwardTolerance
+	 *            largest distance a removed point's velocity or feedforward value
+	 *            may be from the line that replaces it
+	 */
+	public ProfileDecimator(int channels, double positionTolerance, double feedforwardTolerance) {
+		if (positionTolerance < 0 || feedforwardTolerance < 0) {
+			throw new IllegalArgumentException("Tolerances can't be negative");
+		}
+		this.channels = channels;
+		this.positionTolerance = positionTolerance;
+		this.feedforwardTolerance = feedforwardTolerance;
+
+		int windowCapacity = (int) Math.ceil(Constants.PROFILE_DECIMATION_MAX_DURATION_MS / Constants.DT_MS) + 2;
+		windowPositions = new double[channels][windowCapacity];
+		windowVelocities = new double[channels][windowCapacity];
+		windowDurations = new int[windowCapacity];
+		keptPositions = new double[channels][Constants.PROFILE_STREAM_CHUNK_POINTS];
+		keptVelocities = new double[channels][Constants.PROFILE_STREAM_CHUNK_POINTS];
+		keptDurations = new int[Constants.PROFILE_STREAM_CHUNK_POINTS];
+	}
+
+	/**
+	 * Decimates a whole profile.
+	 *
+	 * @param profile
+	 *            the profile to decimate
+	 * @param positionTolerance
+	 *            largest distance, in raw units, a removed point's position may be
+	 *            from the line that replaces it
+	 * @param feedforwardTolerance
+	 *            largest distance a removed point's velocity or feedforward value
+	 *            may be from the line that replaces it
+	 * @return a new profile holding the kept points
+	 */
+	public static ProfileData decimate(ProfileData profile, double positionTolerance, double feedforwardTolerance) {
+		int channels = profile.getChannelCount();
+		ProfileDecimator decimator = new ProfileDecimator(channels, positionTolerance, feedforwardTolerance);
+		double[] positions = new double[channels];
+		double[] velocities = new double[channels];
+		for (int i = 0; i < profile.length; i++) {
+			for (int c = 0; c < channels; c++) {
+				positions[c] = profile.getPosition(c, i);
+				velocities[c] = profile.getVelocity(c, i);
+			}
+			decimator.add(positions, velocities, profile.getDuration(i));
+		}
+		return decimator.finish();
+	}
+
+	/**
+	 * Adds the next point of the profile.
+	 *
+	 * @param positions
+	 *            the position of each channel, copied
+	 * @param velocities
+	 *            the velocity or feedforward value of each channel, copied
+	 * @param duration
+	 *            the time, in milliseconds, to hold the point
+	 */
+	public void add(double[] positions, double[] velocities, int duration) {
+		if (windowSize >= 2 && !fits(positions, velocities)) {
+			keep(windowSize - 1);
+		}
+		if (windowSize == windowDurations.length) {
+			growWindow();
+		}
+		for (int c = 0; c < channels; c++) {
+			windowPositions[c][windowSize] = positions[c];
+			windowVelocities[c][windowSize] = velocities[c];
+		}
+		windowDurations[windowSize] = duration;
+		windowSize++;
+	}
+
+	/**
+	 * Keeps the last point added, and returns every kept point. The decimator
+	 * is empty afterwards and can be reused.
+	 *
+	 * @return a new profile holding the kept points
+	 */
+	public ProfileData finish() {
+		if (windowSize >= 2) {
+			keep(windowSize - 1);
+		}
+		if (windowSize == 1) {
+			appendKept(0, windowDurations[0]);
+		}
+		windowSize = 0;
+
+		double[][] p = new double[channels][];
+		double[][] v = new double[channels][];
+		for (int c = 0; c < channels; c++) {
+			p[c] = Arrays.copyOf(keptPositions[c], keptSize);
+			v[c] = Arrays.copyOf(keptVelocities[c], keptSize);
+		}
+		ProfileData data = new ProfileData(p, v, Arrays.copyOf(keptDurations, keptSize));
+		keptSize = 0;
+		return data;
+	}
+
+	/**
+	 * Checks whether the line from the last kept point to a new point reproduces
+	 * every point in between.
+	 *
+	 * @param positions
+	 *            the position of each channel of the new point
+	 * @param velocities
+	 *            the velocity or feedforward value of each channel of the new
+	 *            point
+	 * @return {@code true} if the points in between can be removed
+	 */
+	private boolean fits(double[] positions, double[] velocities) {
+		long span = 0;
+		for (int i = 0; i < windowSize; i++) {
+			span += windowDurations[i];
+		}
+		if (span > Constants.PROFILE_DECIMATION_MAX_DURATION_MS) {
+			return false;
+		}
+
+		long elapsed = 0;
+		for (int i = 1; i < windowSize; i++) {
+			elapsed += windowDurations[i - 1];
+			double fraction = (double) elapsed / span;
+			for (int c = 0; c < channels; c++) {
+				double p = windowPositions[c][0] + fraction * (positions[c] - windowPositions[c][0]);
+				double v = windowVelocities[c][0] + fraction * (velocities[c] - windowVelocities[c][0]);
+				if (Math.abs(p - windowPositions[c][i]) > positionTolerance
+						|| Math.abs(v - windowVelocities[c][i]) > feedforwardTolerance) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Keeps the first point of the window, held until a later point of the window
+	 * is reached, and starts a new window at that point.
+	 *
+	 * @param next
+	 *            the point in the window that becomes the last kept point
+	 */
+	private void keep(int next) {
+		int duration = 0;
+		for (int i = 0; i < next; i++) {
+			duration += windowDurations[i];
+		}
+		appendKept(0, duration);
+
+		int remaining = windowSize - next;
+		for (int c = 0; c < channels; c++) {
+			System.arraycopy(windowPositions[c], next, windowPositions[c], 0, remaining);
+			System.arraycopy(windowVelocities[c], next, windowVelocities[c], 0, remaining);
+		}
+		System.arraycopy(windowDurations, next, windowDurations, 0, remaining);
+		windowSize = remaining;
+	}
+
+	/**
+	 * Appends a point of the window to the kept points.
+	 *
+	 * @param idx
+	 *            the point in the window
+	 * @param duration
+	 *            the time, in milliseconds, to hold it
+	 */
+	private void appendKept(int idx, int duration) {
+		if (keptSize == keptDurations.length) {
+			int capacity = 2 * keptSize;
+			for (int c = 0; c < channels; c++) {
+				keptPositions[c] = Arrays.copyOf(keptPositions[c], capacity);
+				keptVelocities[c] = Arrays.copyOf(keptVelocities[c], capacity);
+			}
+			keptDurations = Arrays.copyOf(keptDurations, capacity);
+		}
+		for (int c = 0; c < channels; c++) {
+			keptPositions[c][keptSize] = windowPositions[c][idx];
+			keptVelocities[c][keptSize] = windowVelocities[c][idx];
+		}
+		keptDurations[keptSize] = duration;
+		keptSize++;
+	}
+
+	/**
+	 * Doubles the room in the window, needed only if points are shorter than
+	 * {@value org.hammerhead226.sharkmacro.Constants#DT_MS} ms.
+	 */
+	private void growWindow() {
+		int capacity = 2 * windowDurations.length;
+		for (int c = 0; c < channels; c++) {
+			windowPositions[c] = Arrays.copyOf(windowPositions[c], capacity);
+			windowVelocities[c] = Arrays.copyOf(windowVelocities[c], capacity);
+		}
+		windowDurations = Arrays.copyOf(windowDurations, capacity);
+	}
+
+}
@@ -1,6 +1,8 @@
 
 package org.hammerhead226.sharkmacro.motionprofiles;
 
+import java.io.IOException;
+
 import org.hammerhead226.sharkmacro.Constants;
 
 import com.ctre.phoenix.motion.MotionProfileStatus;
@@ -11,11 +13,16 @@ import com.ctre.phoenix.motorcontrol.can.TalonSRX;
 
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.RobotController;
 
 /**
  * Class to easily manage motion profile execution on a number of Talon SRXs. Some logic
  * taken from <a href=
  * "https://github.com/CrossTheRoadElec/Phoenix-Examples-Languages/blob/master/Java/MotionProfile/src/org/usfirst/frc/team217/robot/MotionProfileExample.java">here</a>
+ * <p>
+ * The threads that fill the Talons' buffers and process them are not run at
+ * fixed rates. A {@link BufferScheduler} reschedules each after every run, from
+ * how full the buffers are and how fast the Talons are executing points.
  * 
  * @author Alec Minchington
  *
@@ -23,9 +30,25 @@ import edu.wpi.first.wpilibj.Notifier;
 public class ProfileHandler {
 
 	/**
-	 * List of the motion profiles to be executed.
+	 * Supplies the points of the motion profiles to be executed, one channel per
+	 * talon.
 	 */
-	private double[][][] profiles;
+	private final PointSource source;
+
+	/**
+	 * The number of points in each motion profile.
+	 */
+	private final int length;
+
+	/**
+	 * The points currently being streamed to the talons.
+	 */
+	private ProfileData chunk;
+
+	/**
+	 * Index in the motion profiles of the first point in {@link #chunk}.
+	 */
+	private int chunkStart = 0;
 
 	/**
 	 * Represents the current point being streamed from the left profile to the left
@@ -82,9 +105,35 @@ public class ProfileHandler {
 	private MotionProfileStatus[] statuses;
 
 	/**
-	 * List of trajectory points to be pushed to each talon.
+	 * The points of {@link #chunk}, compiled into trajectory points ready to be
+	 * pushed to each talon.
 	 */
-	private TrajectoryPoint[] trajPoints;
+	private final TrajectoryStream stream;
+
+	/**
+	 * Decides when {@link #bufferThread} and {@link #executorThread} next run.
+	 */
+	private final BufferScheduler scheduler = new BufferScheduler();
+
+	/**
+	 * Fewest points in any talon's top buffer after the last fill.
+	 */
+	private volatile int lowestTopBufferCnt = 0;
+
+	/**
+	 * Most points in any talon's top buffer after the last fill.
+	 */
+	private volatile int highestTopBufferCnt = 0;
+
+	/**
+	 * Fewest points in any talon's bottom buffer at the last fill.
+	 */
+	private volatile int lowestBtmBufferCnt = 0;
+
+	/**
+	 * Whether the threads have been stopped for good.
+	 */
+	private boolean stopped = false;
 
 	/**
 	 * Constructs a new {@link MotionProfileHandler} object that will handle the
@@ -98,7 +147,59 @@ public class ProfileHandler {
 	 *            the pid profile slots to execute the motion profiles with
 	 */
 	public ProfileHandler(final double[][][] profiles, TalonSRX[] talons, int[] pidSlotIdxs) {
-		this.profiles = profiles;
+		this(ProfileData.fromRows(profiles), talons, pidSlotIdxs);
+	}
+
+	/**
+	 * Constructs a new {@link ProfileHandler} object that will handle the
+	 * execution of already decoded motion profiles on their respective talons. The
+	 * points are read directly from {@code profiles} without being copied.
+	 * 
+	 * @param profiles
+	 *            the motion profiles to be executed, one channel per talon
+	 * @param talons
+	 *            the talons to execute the motion profiles on
+	 * @param pidSlotIdxs
+	 *            the pid profile slots to execute the motion profiles with
+	 */
+	public ProfileHandler(ProfileData profiles, TalonSRX[] talons, int[] pidSlotIdxs) {
+		this(profiles, profiles, talons, pidSlotIdxs);
+	}
+
+	/**
+	 * Constructs a new {@link ProfileHandler} object that will handle the
+	 * execution of motion profiles read from a {@link PointSource}. Points are
+	 * read {@value org.hammerhead226.sharkmacro.Constants#PROFILE_STREAM_CHUNK_POINTS}
+	 * at a time, only as the talons' buffers need them, so only one chunk of the
+	 * profiles is held in memory at once.
+	 * 
+	 * @param source
+	 *            supplies the motion profiles to be executed, one channel per
+	 *            talon
+	 * @param talons
+	 *            the talons to execute the motion profiles on
+	 * @param pidSlotIdxs
+	 *            the pid profile slots to execute the motion profiles with
+	 */
+	public ProfileHandler(PointSource source, TalonSRX[] talons, int[] pidSlotIdxs) {
+		this(source, null, talons, pidSlotIdxs);
+	}
+
+	/**
+	 * @param source
+	 *            supplies the motion profiles to be executed
+	 * @param chunk
+	 *            every point of the profiles if they are already in memory, or
+	 *            {@code null} to read them from {@code source} as needed
+	 * @param talons
+	 *            the talons to execute the motion profiles on
+	 * @param pidSlotIdxs
+	 *            the pid profile slots to execute the motion profiles with
+	 */
+	private ProfileHandler(PointSource source, ProfileData chunk, TalonSRX[] talons, int[] pidSlotIdxs) {
+		this.source = source;
+		this.length = source.getLength();
+		this.chunk = chunk;
 		this.talons = talons;
 		this.pidSlotIdxs = pidSlotIdxs;
 		this.executionState = ExecutionState.WAITING;
@@ -106,20 +207,25 @@ public class ProfileHandler {
 		for (int i = 0; i < statuses.length; i++) {
 			statuses[i] = new MotionProfileStatus();
 		}
-		this.trajPoints = new TrajectoryPoint[talons.length];
-		for (int i = 0; i < trajPoints.length; i++) {
-			trajPoints[i] = new TrajectoryPoint();
+		this.stream = new TrajectoryStream(pidSlotIdxs);
+		if (chunk != null) {
+			stream.compile(chunk, 0, length);
 		}
 
 		bufferThread = new Notifier(new PeriodicBufferProcessor());
-		bufferThread.startPeriodic(Constants.DT_SECONDS / 2.0);
+		schedule(bufferThread, Constants.DT_SECONDS / 2.0);
 
 		for (int i = 0; i < talons.length; i++) {
 			this.talons[i].changeMotionControlFramePeriod(Constants.MOTIONCONTROL_FRAME_PERIOD);
 		}
 
 		executorThread = new Notifier(new PeriodicExecutor());
-		
+
+		for (int i = 0; i < talons.length; i++) {
+			talons[i].clearMotionProfileTrajectories();
+			talons[i].configMotionProfileTrajectoryPeriod(0);
+			talons[i].clearMotionProfileHasUnderrun(0);
+		}
 		fillTalonsWithMotionProfile();
 		DriverStation.getInstance();
 		DriverStation.reportWarning("PROFILE LOADED", false);
@@ -129,16 +235,15 @@ public class ProfileHandler {
 	 * Called to start the execution of the motion profile.
 	 */
 	public void execute() {
-		executorThread.startPeriodic(0.025);
 		started = true;
+		schedule(executorThread, Constants.PROFILE_EXECUTOR_PERIOD_SECONDS);
 	}
 
 	/**
 	 * Called if the motion profile execution needs to be prematurely stopped.
 	 */
 	public void onInterrupt() {
-		bufferThread.stop();
-		executorThread.stop();
+		stopThreads();
 		setMode(SetValueMotionProfile.Disable);
 	}
 
@@ -147,8 +252,7 @@ public class ProfileHandler {
 	 */
 	private void onFinish() {
 		finished = true;
-		bufferThread.stop();
-		executorThread.stop();
+		stopThreads();
 		setMode(SetValueMotionProfile.Disable);
 		for (int i = 0; i < talons.length; i++) {
 			talons[i].clearMotionProfileTrajectories();
@@ -160,8 +264,8 @@ public class ProfileHandler {
 	 * state of the Talons executing the motion profiles.
 	 */
 	public void manage() {
+		// Also refreshes the statuses
 		fillTalonsWithMotionProfile();
-		updateMotionProfilesStatuses();
 
 		boolean readyToProgress = true;
 
@@ -198,6 +302,29 @@ public class ProfileHandler {
 		}
 	}
 
+	/**
+	 * Runs a thread once after a delay, unless the threads have been stopped.
+	 * 
+	 * @param thread
+	 *            the thread to run
+	 * @param delay
+	 *            seconds until it runs
+	 */
+	private synchronized void schedule(Notifier thread, double delay) {
+		if (!stopped) {
+			thread.startSingle(delay);
+		}
+	}
+
+	/**
+	 * Stops both threads for good, so they can't reschedule themselves.
+	 */
+	private synchronized void stopThreads() {
+		stopped = true;
+		bufferThread.stop();
+		executorThread.stop();
+	}
+
 	/**
 	 * Sets the state of the talons.
 	 * 
@@ -212,67 +339,83 @@ public class ProfileHandler {
 	}
 
 	/**
-	 * Fill the talons' top-level buffer with a given motion profile.
-	 * 
+	 * Fill the talons' top-level buffer with a given motion profile. The
+	 * statuses are read once, before any points are pushed, and the points are
+	 * pushed as they were compiled into {@link #stream}, a run of points at a
+	 * time for each talon.
 	 */
 	private void fillTalonsWithMotionProfile() {
-
-		if (profileIndex == 0) {
-			for (int i = 0; i < talons.length; i++) {
-				talons[i].clearMotionProfileTrajectories();
-				talons[i].configMotionProfileTrajectoryPeriod(0);
-				talons[i].clearMotionProfileHasUnderrun(0);
-			}
-		}
-
 		updateMotionProfilesStatuses();
 
 		int maxFilled = statuses[0].topBufferCnt;
+		int minFilled = statuses[0].topBufferCnt;
+		int minBtm = statuses[0].btmBufferCnt;
+		int executed = profileIndex - statuses[0].topBufferCnt - statuses[0].btmBufferCnt;
 		for (int i = 0; i < statuses.length; i++) {
-			if (statuses[i].topBufferCnt > maxFilled) {
-				maxFilled = statuses[i].topBufferCnt;
-			}
+			maxFilled = Math.max(maxFilled, statuses[i].topBufferCnt);
+			minFilled = Math.min(minFilled, statuses[i].topBufferCnt);
+			minBtm = Math.min(minBtm, statuses[i].btmBufferCnt);
+			executed = Math.min(executed, profileIndex - statuses[i].topBufferCnt - statuses[i].btmBufferCnt);
 		}
+		scheduler.update(executed, RobotController.getFPGATime());
 
 		int numPointsToFill = Constants.TALON_TOP_BUFFER_MAX_COUNT - maxFilled;
+		int pushed = 0;
 
-		boolean finished = false;
-
-		while (!finished && numPointsToFill > 0) {
-			for (int i = 0; i < trajPoints.length; i++) {
+		while (numPointsToFill > 0 && profileIndex < length) {
+			if (!readChunk()) {
+				break;
+			}
+			int offset = profileIndex - chunkStart;
+			int end = offset + Math.min(numPointsToFill, stream.getLength() - offset);
 
-				if (profileIndex >= profiles[i].length) {
-					finished = true;
-					break;
+			for (int i = 0; i < talons.length; i++) {
+				TrajectoryPoint[] points = stream.getPoints(i);
+				TalonSRX talon = talons[i];
+				for (int k = offset; k < end; k++) {
+					talon.pushMotionProfileTrajectory(points[k]);
 				}
+			}
 
-				trajPoints[i].position = profiles[i][profileIndex][0];
-				trajPoints[i].velocity = profiles[i][profileIndex][1];
-				trajPoints[i].headingDeg = 0;
-				trajPoints[i].timeDur = (int) profiles[i][profileIndex][2];
-				trajPoints[i].profileSlotSelect0 = pidSlotIdxs[i];
-				trajPoints[i].profileSlotSelect1 = 0;
-
-				trajPoints[i].zeroPos = false;
-				if (profileIndex == 0) {
-					trajPoints[i].zeroPos = true;
-				}
+			profileIndex += end - offset;
+			numPointsToFill -= end - offset;
+			pushed += end - offset;
+		}
 
-				trajPoints[i].isLastPoint = false;
-				if ((profileIndex + 1) == profiles[i].length) {
-					trajPoints[i].isLastPoint = true;
-				}
-			}
+		lowestTopBufferCnt = minFilled + pushed;
+		highestTopBufferCnt = maxFilled + pushed;
+		lowestBtmBufferCnt = minBtm;
+	}
 
-			for (int i = 0; i < trajPoints.length; i++) {
-				talons[i].pushMotionProfileTrajectory(trajPoints[i]);
-			}
+	/**
+	 * Makes sure {@link #chunk} holds the point at {@link #profileIndex}, reading
+	 * and compiling the next chunk from {@link #source} if it doesn't. If the
+	 * source can't be read, execution is stopped.
+	 * 
+	 * @return {@code true} if the point is available, {@code false} otherwise
+	 */
+	private boolean readChunk() {
+		if (chunk != null && profileIndex - chunkStart < chunk.length) {
+			return true;
+		}
 
-			profileIndex++;
-			numPointsToFill--;
+		try {
+			chunk = source.read(profileIndex, Constants.PROFILE_STREAM_CHUNK_POINTS);
+			chunkStart = profileIndex;
+		} catch (IOException e) {
+			e.printStackTrace();
+			chunk = null;
 		}
 
-		updateMotionProfilesStatuses();
+		if (chunk == null || chunk.length == 0) {
+			DriverStation.getInstance();
+			DriverStation.reportError("Unable to read motion profile at point " + profileIndex, false);
+			onInterrupt();
+			finished = true;
+			return false;
+		}
+		stream.compile(chunk, chunkStart, length);
+		return true;
 	}
 
 	/**
@@ -332,7 +475,7 @@ public class ProfileHandler {
 	 * Class to periodically call
 	 * {@link com.ctre.CANTalon#processMotionProfileBuffer()
 	 * processMotionProfileBufffer()} for {@link ProfileHandler#leftTalon} and
-	 * {@link ProfileHandler#rightTalon}.
+	 * {@link ProfileHandler#rightTalon}. Reschedules itself after each run.
 	 */
 	class PeriodicBufferProcessor implements java.lang.Runnable {
 		public void run() {
@@ -341,6 +484,8 @@ public class ProfileHandler {
 					talons[i].processMotionProfileBuffer();
 				}
 			}
+			schedule(bufferThread,
+					scheduler.nextProcessPeriod(highestTopBufferCnt, lowestBtmBufferCnt, profileIndex >= length));
 		}
 	}
 
@@ -352,11 +497,14 @@ public class ProfileHandler {
 	Notifier bufferThread;
 
 	/**
-	 * Class to periodically call {@link ProfileHandler#manage()}.
+	 * Class to periodically call {@link ProfileHandler#manage()}. Reschedules
+	 * itself after each run.
 	 */
 	class PeriodicExecutor implements java.lang.Runnable {
 		public void run() {
 			manage();
+			schedule(executorThread,
+					scheduler.nextFillPeriod(lowestTopBufferCnt, lowestBtmBufferCnt, profileIndex >= length));
 		}
 	}
 
@@ -1,22 +1,53 @@
 package org.hammerhead226.sharkmacro.motionprofiles;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import org.hammerhead226.sharkmacro.CatalogEntry;
+import org.hammerhead226.sharkmacro.Codec;
 import org.hammerhead226.sharkmacro.Constants;
 import org.hammerhead226.sharkmacro.Parser;
+import org.hammerhead226.sharkmacro.WriteResult;
 
 import com.ctre.phoenix.motorcontrol.can.TalonSRX;
 
 import edu.wpi.first.wpilibj.DriverStation;
 
 /**
- * Handles the reading and writing of {@link Profile}s.
+ * Handles the reading and writing of {@link Profile}s. Profiles can be stored
+ * as csv ({@value org.hammerhead226.sharkmacro.Constants#CSV_EXTENSION}),
+ * binary ({@value org.hammerhead226.sharkmacro.Constants#BINARY_EXTENSION}) or
+ * compressed ({@value org.hammerhead226.sharkmacro.Constants#COMPRESSED_EXTENSION})
+ * files, picked by the extension of the filename. Every format stores any
+ * number of channels, one for each Talon the profile was recorded from.
  * 
  * @author Alec Minchington
  *
  */
-public final class ProfileParser extends Parser {
+public final class ProfileParser extends Parser<ProfileData> {
+
+	/**
+	 * Approximate JVM object layout sizes, used to estimate cache entry sizes.
+	 */
+	private static final int OBJECT_HEADER_BYTES = 16;
+
+	private static final int ARRAY_HEADER_BYTES = 16;
+
+	private static final int REFERENCE_BYTES = 8;
+
+	/**
+	 * The formats profiles can be read from and written to.
+	 */
+	private static final List<Codec<ProfileData>> CODECS = Arrays.<Codec<ProfileData>>asList(
+			new ProfileCSVCodec(), new ProfileBinaryCodec(), new ProfileCompressedCodec());
+
+	static {
+		registerCatalog(Constants.PROFILE_STORAGE_DIRECTORY, Constants.PROFILE_DEFAULT_PREFIX, ProfileParser::new);
+		registerBundled(Constants.PROFILE_STORAGE_DIRECTORY, ProfileParser::new);
+	}
 
 	/**
 	 * Constructs a new {@link ProfileParser} object.
@@ -25,13 +56,13 @@ public final class ProfileParser extends Parser {
 	 *            name of the file to read or write a new file with
 	 */
 	public ProfileParser(String filename) {
-		super(Constants.PROFILE_STORAGE_DIRECTORY, Constants.PROFILE_DEFAULT_PREFIX, filename);
+		super(Constants.PROFILE_STORAGE_DIRECTORY, Constants.PROFILE_DEFAULT_PREFIX, filename, CODECS);
 	}
 
 	/**
 	 * This method writes an {@link Profile} to a file. The given {@code Profile} is
-	 * transformed into a writable list and then passed to
-	 * {@link org.hammerhead226.sharkmacro.Parser Parser} to be written.
+	 * passed to {@link org.hammerhead226.sharkmacro.Parser Parser} to be encoded in
+	 * the format matching the filename's extension and written.
 	 * 
 	 * @param al
 	 *            the {@code Profile} instance to write to file
@@ -39,58 +70,115 @@ public final class ProfileParser extends Parser {
 	 *         not
 	 */
 	public boolean writeToFile(Profile profile) {
-		ArrayList<String[]> profileToWrite = new ArrayList<String[]>(profile.length);
-		String[][] left = profile.getLeftProfile_String();
-		String[][] right = profile.getRightProfile_String();
-
-		for (int i = 0; i < profile.length; i++) {
-			String[] line = new String[] { left[i][0], left[i][1], right[i][0], right[i][1],
-					Integer.toString(profile.dt, 10) };
-			profileToWrite.add(line);
-		}
+		return super.writeToFile(profile.getData());
+	}
 
-		return super.writeToFile(profileToWrite);
+	/**
+	 * This method queues a {@link Profile} to be written to a file on a
+	 * background thread, and returns immediately. Use this when saving from a
+	 * {@link edu.wpi.first.wpilibj.command.Command Command}.
+	 * 
+	 * @param profile
+	 *            the {@code Profile} instance to write to file
+	 * @return a future that completes with the outcome of the write
+	 */
+	public CompletableFuture<WriteResult> writeToFileAsync(Profile profile) {
+		return super.writeToFileAsync(profile.getData());
 	}
 
 	/**
-	 * This method gets the raw action list from
-	 * {@link org.hammerhead226.sharkmacro.Parser Parser} and transforms it into an
-	 * {@link Profile} instance.
+	 * This method gets the decoded profile from
+	 * {@link org.hammerhead226.sharkmacro.Parser Parser} and binds it to the given
+	 * Talons and PID slots in a new {@link Profile} instance.
 	 * <p>
 	 * {@link org.hammerhead226.sharkmacro.Parser#cache Parser.cache} is checked
-	 * first to see if the file has already been parsed, and returns a clone of the
-	 * {@code Profile} from the cache if the file exists in the cache. If the file
-	 * does not exist in the cache, then the file is parsed and added to the cache.
+	 * first to see if the file has already been decoded, and the immutable
+	 * {@link ProfileData} from the cache is shared with the new {@code Profile} if
+	 * the file exists in the cache. No parsing or copying of points happens in
+	 * that case. If the file does not exist in the cache, then the file is decoded
+	 * and added to the cache.
 	 * 
 	 * @return a new {@code Profile} instance
 	 */
 	public Profile toObject(TalonSRX leftTalon, TalonSRX rightTalon, int leftPidSlotIdx, int rightPidSlotIdx) {
-		List<String[]> profileRaw = readFromFile();
+		return toObject(new TalonSRX[] { leftTalon, rightTalon }, new int[] { leftPidSlotIdx, rightPidSlotIdx });
+	}
 
-		if (profileRaw == null) {
+	/**
+	 * Binds the saved profile to any number of Talons, one for each channel of
+	 * the profile, as {@link #toObject(TalonSRX, TalonSRX, int, int)} does for a
+	 * drivetrain.
+	 * 
+	 * @param talons
+	 *            the Talon to execute each channel with
+	 * @param pidSlotIdxs
+	 *            the PID slot to execute each channel with
+	 * @return a new {@code Profile} instance
+	 */
+	public Profile toObject(TalonSRX[] talons, int[] pidSlotIdxs) {
+		ProfileData decoded = readFromFile();
+
+		if (decoded == null) {
 			DriverStation.getInstance();
 			DriverStation.reportError("Tried to load nonexistant Profile from name: " + super.filename, false);
-			return new Profile(new double[0][0], new double[0][0], leftTalon, rightTalon, leftPidSlotIdx,
-					rightPidSlotIdx);
+			return new Profile(ProfileData.fromRows(new double[0][0], new double[0][0]), talons, pidSlotIdxs);
 		}
 
-		// Process read values into Profile
-		String[][] left = new String[profileRaw.size()][3];
-		String[][] right = new String[profileRaw.size()][3];
+		Profile p = new Profile(decoded, talons, pidSlotIdxs);
 
-		for (int i = 0; i < profileRaw.size(); i++) {
-			left[i][0] = profileRaw.get(i)[0];
-			left[i][1] = profileRaw.get(i)[1];
-			left[i][2] = profileRaw.get(i)[4];
+		return p;
+	}
 
-			right[i][0] = profileRaw.get(i)[2];
-			right[i][1] = profileRaw.get(i)[3];
-			right[i][2] = profileRaw.get(i)[4];
-		}
+	/**
+	 * Binds the saved profile to the given Talons and PID slots in a new
+	 * {@link Profile} that reads its points from the file only as they are
+	 * executed, through a {@link MappedPointSource}. Memory use doesn't grow with
+	 * the length of the profile, and execution can start before the whole file
+	 * has been read.
+	 * <p>
+	 * If the file is already cached, the cached {@link ProfileData} is used
+	 * instead. Only binary and compressed files can be read in chunks; other
+	 * files are loaded through
+	 * {@link #toObject(TalonSRX, TalonSRX, int, int)}.
+	 * 
+	 * @return a new {@code Profile} instance
+	 */
+	public Profile toStreamingObject(TalonSRX leftTalon, TalonSRX rightTalon, int leftPidSlotIdx,
+			int rightPidSlotIdx) {
+		return toStreamingObject(new TalonSRX[] { leftTalon, rightTalon },
+				new int[] { leftPidSlotIdx, rightPidSlotIdx });
+	}
 
-		Profile p = new Profile(left, right, leftTalon, rightTalon, leftPidSlotIdx, rightPidSlotIdx);
+	/**
+	 * Binds the saved profile to any number of Talons, reading its points from
+	 * the file only as they are executed, as
+	 * {@link #toStreamingObject(TalonSRX, TalonSRX, int, int)} does for a
+	 * drivetrain.
+	 * 
+	 * @param talons
+	 *            the Talon to execute each channel with
+	 * @param pidSlotIdxs
+	 *            the PID slot to execute each channel with
+	 * @return a new {@code Profile} instance
+	 */
+	public Profile toStreamingObject(TalonSRX[] talons, int[] pidSlotIdxs) {
+		ProfileData cached = getCached();
+		if (cached != null) {
+			return new Profile(cached, talons, pidSlotIdxs);
+		}
+		String name = super.filename.toLowerCase();
+		if (!name.endsWith(Constants.BINARY_EXTENSION) && !name.endsWith(Constants.COMPRESSED_EXTENSION)) {
+			return toObject(talons, pidSlotIdxs);
+		}
 
-		return p;
+		try {
+			return new Profile(new MappedPointSource(Paths.get(super.filename)), talons, pidSlotIdxs);
+		} catch (IOException e) {
+			e.printStackTrace();
+			DriverStation.getInstance();
+			DriverStation.reportError("Tried to stream nonexistant Profile from name: " + super.filename, false);
+			return new Profile(ProfileData.fromRows(new double[0][0], new double[0][0]), talons, pidSlotIdxs);
+		}
 	}
 	
 	/**
@@ -100,20 +188,137 @@ public final class ProfileParser extends Parser {
 	 *            the name of the profile to cache
 	 */
 	public static void cache(String filename) {
-		Parser.cache(Constants.PROFILE_STORAGE_DIRECTORY, filename);
+		new ProfileParser(filename).cache();
 	}
 	
+	/**
+	 * Cache a saved profile and protect it from eviction. Call this for the
+	 * profiles selected for the current match.
+	 * 
+	 * @param filename
+	 *            the name of the profile to pin
+	 */
+	public static void pin(String filename) {
+		new ProfileParser(filename).pin();
+	}
+
+	/**
+	 * Allow a pinned profile to be evicted from the cache again.
+	 * 
+	 * @param filename
+	 *            the name of the profile to unpin
+	 */
+	public static void unpin(String filename) {
+		new ProfileParser(filename).unpin();
+	}
+
+	/**
+	 * Remove a profile from the cache, even if it is pinned, so it is read from
+	 * disk again the next time it is loaded.
+	 * 
+	 * @param filename
+	 *            the name of the profile to remove
+	 */
+	public static void invalidate(String filename) {
+		new ProfileParser(filename).invalidate();
+	}
+
+	/**
+	 * Start watching the profile storage directory, so profiles that are copied onto
+	 * the robot replace their cached versions in the background.
+	 * 
+	 * @return {@code true} if the directory is being watched, {@code false} if it
+	 *         couldn't be
+	 */
+	public static boolean watch() {
+		return Parser.watch(Constants.PROFILE_STORAGE_DIRECTORY, ProfileParser::new);
+	}
+
 	/**
 	 * Cache all profiles in the profile storage directory.
 	 */
 	public static void cacheAll() {
-		Parser.cacheAll(Constants.PROFILE_STORAGE_DIRECTORY);
+		Parser.cacheAll(Constants.PROFILE_STORAGE_DIRECTORY, ProfileParser::new);
+	}
+
+	/**
+	 * Cache all profiles in the profile storage directory, decoding them in parallel
+	 * on background threads. Call this in {@code robotInit()} to load every
+	 * routine without blocking the main loop.
+	 * 
+	 * @return a future that completes once every profile has been cached
+	 */
+	public static CompletableFuture<Void> cacheAllAsync() {
+		return Parser.cacheAllAsync(Constants.PROFILE_STORAGE_DIRECTORY, ProfileParser::new);
+	}
+
+	/**
+	 * Estimates the heap used by a decoded {@link ProfileData}: a position and a
+	 * velocity column per channel, plus the duration column.
+	 */
+	@Override
+	protected long sizeOf(ProfileData profile) {
+		return estimateSize(profile);
+	}
+
+	/**
+	 * @param profile
+	 *            a decoded profile
+	 * @return the estimated heap used by the profile
+	 */
+	static long estimateSize(ProfileData profile) {
+		int channels = profile.getChannelCount();
+		return OBJECT_HEADER_BYTES + 2L * (ARRAY_HEADER_BYTES + channels * REFERENCE_BYTES)
+				+ 2L * channels * (ARRAY_HEADER_BYTES + (long) profile.length * Double.BYTES)
+				+ ARRAY_HEADER_BYTES + (long) profile.length * Integer.BYTES;
+	}
+
+	/**
+	 * @return the number of points in each side of the profile
+	 */
+	@Override
+	protected int pointCountOf(ProfileData profile) {
+		return profile.length;
+	}
+
+	/**
+	 * @return the sum of the durations of every point, in seconds
+	 */
+	@Override
+	protected double durationOf(ProfileData profile) {
+		return totalDuration(profile);
+	}
+
+	/**
+	 * @param profile
+	 *            a decoded profile
+	 * @return the sum of the durations of every point, in seconds
+	 */
+	static double totalDuration(ProfileData profile) {
+		long ms = 0;
+		for (int i = 0; i < profile.length; i++) {
+			ms += profile.getDuration(i);
+		}
+		return ms / 1000.0;
+	}
+
+	/**
+	 * Lists the saved profiles in the profile storage directory, ordered by number.
+	 * Each entry gives the file's size, number of points, length and format. The
+	 * list comes from the directory's catalog, so the files aren't read.
+	 * 
+	 * @return every saved profile
+	 */
+	public static List<CatalogEntry> getCatalog() {
+		return getCatalog(Constants.PROFILE_STORAGE_DIRECTORY, Constants.PROFILE_DEFAULT_PREFIX);
 	}
 
 	/**
 	 * This method generates a new filename to be used for saving a new file. For
 	 * example, if the newest file in the storage directory is
-	 * {@code prefix0003.csv}, the method will return {@code prefix0004.csv}.
+	 * {@code prefix0003.bin}, the method will return {@code prefix0004.bin}, or
+	 * whichever extension was set with
+	 * {@link org.hammerhead226.sharkmacro.Parser#setSaveExtension(String)}.
 	 * 
 	 * @return a new complete filename in the prefix + number naming convention
 	 */
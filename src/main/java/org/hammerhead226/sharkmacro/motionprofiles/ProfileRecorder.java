@@ -1,15 +1,47 @@
 package org.hammerhead226.sharkmacro.motionprofiles;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 import org.hammerhead226.sharkmacro.Constants;
+import org.hammerhead226.sharkmacro.SamplingClock;
 
 import com.ctre.phoenix.motorcontrol.can.TalonSRX;
 
+import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.RobotController;
 
 /**
  * Class for recording motion profiles in real time.
+ * <p>
+ * By default every sample is kept in memory until {@link #stop()} is called.
+ * A recorder constructed with a journal file instead streams its samples to a
+ * {@link RecordingJournal} in batches of
+ * {@value org.hammerhead226.sharkmacro.Constants#JOURNAL_BATCH_SAMPLES}, so
+ * only a bounded number of samples are held in memory while recording, and a
+ * recording interrupted by a crash can be recovered with
+ * {@link RecordingJournal#recover(Path, TalonSRX[])}.
+ * <p>
+ * The {@link edu.wpi.first.wpilibj.Notifier Notifier} thread is the only
+ * thread that adds samples, and it never takes a lock. Other threads can call
+ * {@link #snapshot()} at any time to read the samples recorded so far, for
+ * example to show progress on a dashboard, without pausing or slowing the
+ * recorder.
+ * <p>
+ * Each Talon's position is stamped with the FPGA time it was read, so
+ * {@link Recording#toProfile()} can correct for Notifier jitter and for the
+ * time between reading one Talon and the next. When recording stops, a
+ * warning is reported if any tick was late enough to be missed, and
+ * {@link Recording#getJitter()} gives a histogram of the intervals between
+ * samples.
+ * <p>
+ * A recorder constructed with a {@link SamplingClock} doesn't start a
+ * Notifier of its own. It samples on the clock's ticks instead, along with
+ * every other recorder on the same clock, so recordings of several mechanisms
+ * line up point for point.
  * 
  * @author Alec Minchington
  *
@@ -17,12 +49,20 @@ import edu.wpi.first.wpilibj.Notifier;
 public class ProfileRecorder {
 
 	/**
-	 * Whether the {@link ProfileRecorder} is recording or not.
+	 * Whether the {@link ProfileRecorder} is recording or not. Cleared by
+	 * {@link #stop()} before it waits for {@link #inTick}, so a tick that starts
+	 * afterwards records nothing.
 	 */
-	private boolean isRecording = false;
+	private volatile boolean isRecording = false;
 
 	/**
-	 * Whether the {@link ProfileRecorder} will record voltage or speed.
+	 * Whether the Notifier thread is in the middle of recording a sample.
+	 */
+	private volatile boolean inTick = false;
+
+	/**
+	 * Whether the {@link ProfileRecorder} will record voltage, speed or only
+	 * position.
 	 */
 	private RecordingType recordingType;
 
@@ -32,39 +72,59 @@ public class ProfileRecorder {
 	private final TalonSRX[] talons;
 
 	/**
-	 * Holds the recorded positions of the left Talon.
+	 * Holds the recorded position, feedforward value and read time of each Talon,
+	 * one column each, followed by the tick of {@link #clock} each sample was
+	 * taken on if the recorder samples on a clock. The buffer is reused for every
+	 * recording, so recording a sample doesn't allocate. Only the Notifier thread
+	 * adds samples.
 	 */
-	private ArrayList<Double> leftPosition = new ArrayList<Double>(Constants.PROFILERECORDER_LIST_DEFAULT_LENGTH);
+	private final SampleBuffer samples;
 
 	/**
-	 * Holds the recorded velocities of the left Talon.
+	 * Number of values in each sample.
 	 */
-	private ArrayList<Double> leftFeedforwardValues = new ArrayList<Double>(
-			Constants.PROFILERECORDER_LIST_DEFAULT_LENGTH);
+	private final int valuesPerSample;
 
 	/**
-	 * Holds the recorded positions of the right Talon.
+	 * Object that takes a runnable class and starts a new thread to call its
+	 * {@link java.lang.Runnable#run() run()} method periodically, or
+	 * {@code null} if the recorder samples on {@link #clock}.
 	 */
-	private ArrayList<Double> rightPosition = new ArrayList<Double>(Constants.PROFILERECORDER_LIST_DEFAULT_LENGTH);
+	Notifier thread;
 
 	/**
-	 * Holds the recorded velocities of the right Talon.
+	 * The clock the recorder samples on, or {@code null} if it has its own
+	 * {@link #thread}.
 	 */
-	private ArrayList<Double> rightFeedforwardValues = new ArrayList<Double>(
-			Constants.PROFILERECORDER_LIST_DEFAULT_LENGTH);
+	private final SamplingClock clock;
 
 	/**
-	 * A list of the lists holding the Talons' positions and velocities.
+	 * Takes a sample on each tick of {@link #thread} or {@link #clock}.
 	 */
-	private ArrayList<ArrayList<Double>> lists;
+	private final PeriodicRunnable sampler = new PeriodicRunnable();
 
 	/**
-	 * Object that takes a runnable class and starts a new thread to call its
-	 * {@link java.lang.Runnable#run() run()} method periodically.
+	 * The file samples are journaled to, or {@code null} to keep samples in
+	 * memory.
 	 */
-	Notifier thread;
+	private final Path journalFile;
 
-	Object listLock = new Object();
+	/**
+	 * The journal being written while recording, or {@code null} if samples are
+	 * being kept in memory.
+	 */
+	private volatile RecordingJournal journal;
+
+	/**
+	 * Samples recorded since the last batch was handed to {@link #journal}. Only
+	 * used by the Notifier thread while recording.
+	 */
+	private double[] batch;
+
+	/**
+	 * Number of samples in {@link #batch}.
+	 */
+	private int batchCount = 0;
 
 	/**
 	 * Construct a new {@link ProfileRecorder} object.
@@ -77,9 +137,110 @@ public class ProfileRecorder {
 	 *            the type of data that will be recorded, either voltage or velocity
 	 */
 	public ProfileRecorder(TalonSRX left, TalonSRX right, RecordingType recordingType) {
-		talons = new TalonSRX[] { left, right };
-		thread = new Notifier(new PeriodicRunnable());
+		this(new TalonSRX[] { left, right }, recordingType, (Path) null);
+	}
+
+	/**
+	 * Construct a new {@link ProfileRecorder} object that journals its samples to
+	 * a file while recording instead of keeping them in memory.
+	 * 
+	 * @param left
+	 *            the left Talon
+	 * @param right
+	 *            the right Talon
+	 * @param recordingType
+	 *            the type of data that will be recorded, either voltage or velocity
+	 * @param journalFile
+	 *            the file to journal samples to, replaced each time recording is
+	 *            started
+	 */
+	public ProfileRecorder(TalonSRX left, TalonSRX right, RecordingType recordingType, String journalFile) {
+		this(new TalonSRX[] { left, right }, recordingType, Paths.get(journalFile));
+	}
+
+	/**
+	 * Construct a new {@link ProfileRecorder} object that records any number of
+	 * Talons, such as the sides of a drivetrain along with an elevator and an
+	 * arm. Each Talon becomes one channel of the recorded profile, in the order
+	 * given.
+	 * 
+	 * @param talons
+	 *            the Talons to record
+	 * @param recordingType
+	 *            the type of data that will be recorded, either voltage or velocity
+	 */
+	public ProfileRecorder(TalonSRX[] talons, RecordingType recordingType) {
+		this(talons, recordingType, (Path) null);
+	}
+
+	/**
+	 * Construct a new {@link ProfileRecorder} object that records any number of
+	 * Talons and journals its samples to a file while recording.
+	 * 
+	 * @param talons
+	 *            the Talons to record
+	 * @param recordingType
+	 *            the type of data that will be recorded, either voltage or velocity
+	 * @param journalFile
+	 *            the file to journal samples to, replaced each time recording is
+	 *            started
+	 */
+	public ProfileRecorder(TalonSRX[] talons, RecordingType recordingType, String journalFile) {
+		this(talons, recordingType, Paths.get(journalFile));
+	}
+
+	/**
+	 * Construct a new {@link ProfileRecorder} object that samples on the ticks of
+	 * a shared {@link SamplingClock} instead of starting its own Notifier.
+	 * {@link #start()} joins the clock, and {@link #stop()} leaves it, but
+	 * neither starts or stops the clock itself.
+	 * 
+	 * @param talons
+	 *            the Talons to record
+	 * @param recordingType
+	 *            the type of data that will be recorded
+	 * @param clock
+	 *            the clock to sample on
+	 */
+	public ProfileRecorder(TalonSRX[] talons, RecordingType recordingType, SamplingClock clock) {
+		this(talons, recordingType, null, clock);
+	}
+
+	/**
+	 * @param talons
+	 *            the Talons to record
+	 * @param recordingType
+	 *            the type of data that will be recorded
+	 * @param journalFile
+	 *            the file to journal samples to, or {@code null} to keep them in
+	 *            memory
+	 */
+	private ProfileRecorder(TalonSRX[] talons, RecordingType recordingType, Path journalFile) {
+		this(talons, recordingType, journalFile, null);
+	}
+
+	/**
+	 * @param talons
+	 *            the Talons to record
+	 * @param recordingType
+	 *            the type of data that will be recorded
+	 * @param journalFile
+	 *            the file to journal samples to, or {@code null} to keep them in
+	 *            memory
+	 * @param clock
+	 *            the clock to sample on, or {@code null} to start a Notifier
+	 */
+	private ProfileRecorder(TalonSRX[] talons, RecordingType recordingType, Path journalFile, SamplingClock clock) {
+		if (talons.length < 1 || talons.length > Constants.PROFILE_MAX_CHANNELS) {
+			throw new IllegalArgumentException("Can't record " + talons.length + " Talons");
+		}
+		this.talons = talons.clone();
+		this.valuesPerSample = Recording.VALUES_PER_TALON * talons.length + (clock == null ? 0 : 1);
+		this.samples = new SampleBuffer(valuesPerSample, Constants.PROFILERECORDER_LIST_DEFAULT_LENGTH);
+		this.clock = clock;
+		thread = clock == null ? new Notifier(sampler) : null;
 		this.recordingType = recordingType;
+		this.journalFile = journalFile;
 	}
 
 	/**
@@ -87,43 +248,123 @@ public class ProfileRecorder {
 	 */
 	public void start() {
 		clear();
-		thread.startPeriodic(Constants.DT_SECONDS);
+		if (journalFile != null) {
+			try {
+				batch = null;
+				batchCount = 0;
+				journal = new RecordingJournal(journalFile, valuesPerSample, recordingType == RecordingType.POSITION,
+						clock != null);
+				batch = journal.obtainBatch();
+			} catch (IOException e) {
+				e.printStackTrace();
+				DriverStation.getInstance();
+				DriverStation.reportError("Unable to open recording journal, recording to memory instead", false);
+				journal = null;
+			}
+		}
 		isRecording = true;
+		if (clock != null) {
+			clock.join(sampler);
+		} else {
+			thread.startPeriodic(Constants.DT_SECONDS);
+		}
 	}
 
 	/**
 	 * Stops recording and exports the recorded positions and velocities to a new
-	 * {@link Recording}.
+	 * {@link Recording}. If samples were journaled, the recording is read back
+	 * from the journal. A warning is reported if any tick was missed.
 	 * 
 	 * @return a new {@code Recording} of the recorded data
 	 */
 	public Recording stop() {
-		// Stop recording encoder readings
-		thread.stop();
-
-		synchronized (listLock) {
-			lists = new ArrayList<ArrayList<Double>>() {
-				{
-					add(leftPosition);
-					add(leftFeedforwardValues);
-					add(rightPosition);
-					add(rightFeedforwardValues);
-				}
-			};
-		}
+		// Stop recording encoder readings, and wait for a sample in progress
 		isRecording = false;
-		return new Recording(lists, talons[0], talons[1]);
+		if (clock != null) {
+			clock.leave(sampler);
+		} else {
+			thread.stop();
+		}
+		while (inTick) {
+			Thread.onSpinWait();
+		}
+
+		RecordingJournal finished = journal;
+		journal = null;
+		if (finished != null) {
+			finished.submit(batch, batchCount);
+			batch = null;
+			batchCount = 0;
+			try {
+				finished.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			Recording recovered = RecordingJournal.recover(journalFile, talons);
+			return report(recovered == null || clock == null ? recovered : recovered.onClock(clock.getOrigin()));
+		}
+
+		return report(toRecording());
 	}
 
 	/**
-	 * Clear all recorded data.
+	 * Reports a warning if any tick of a finished recording was late enough to
+	 * be missed. The full jitter is left to {@link Recording#getJitter()}.
+	 * 
+	 * @param recording
+	 *            the recording, or {@code null} if it couldn't be read
+	 * @return the recording
 	 */
-	private void clear() {
-		if (lists != null) {
-			for (int i = 0; i < lists.size(); i++) {
-				lists.get(i).clear();
+	private Recording report(Recording recording) {
+		if (recording != null) {
+			SamplingJitter jitter = recording.getJitter();
+			if (jitter.lateTicks > 0) {
+				DriverStation.getInstance();
+				DriverStation.reportWarning("Recorder missed " + jitter.lateTicks + " ticks, longest interval "
+						+ String.format("%.1f", jitter.maxMs) + " ms", false);
 			}
 		}
+		return recording;
+	}
+
+	/**
+	 * Reads the samples recorded so far into a new {@link Recording}, without
+	 * stopping the recorder. Never blocks the Notifier thread, and can be called
+	 * from any thread. If samples are being journaled, the recording holds the
+	 * batches that have been written to the journal so far.
+	 * 
+	 * @return a new {@code Recording} of the data recorded so far
+	 */
+	public Recording snapshot() {
+		RecordingJournal current = journal;
+		if (current != null) {
+			Recording recovered = RecordingJournal.recover(journalFile, talons);
+			return recovered == null || clock == null ? recovered : recovered.onClock(clock.getOrigin());
+		}
+		return toRecording();
+	}
+
+	/**
+	 * Copies the samples in memory into a new {@link Recording}, separating the
+	 * ticks they were taken on if the recorder samples on a clock.
+	 * 
+	 * @return a new {@code Recording} of the samples in memory
+	 */
+	private Recording toRecording() {
+		double[][] columns = samples.toColumns();
+		boolean positionOnly = recordingType == RecordingType.POSITION;
+		if (clock == null) {
+			return new Recording(columns, talons, positionOnly);
+		}
+		return new Recording(Arrays.copyOf(columns, columns.length - 1), columns[columns.length - 1], talons,
+				positionOnly, clock.getOrigin());
+	}
+
+	/**
+	 * Clear all recorded data. Only called while the Notifier is stopped.
+	 */
+	private void clear() {
+		samples.clear();
 	}
 
 	/**
@@ -137,35 +378,112 @@ public class ProfileRecorder {
 	/**
 	 * Simple class to run code periodically. Passed to a
 	 * {@link edu.wpi.first.wpilibj.Notifier Notifier} instance, which calls
-	 * {@link PeriodicRunnable#run() run()} periodically.
+	 * {@link PeriodicRunnable#run() run()} periodically, or joined to a
+	 * {@link SamplingClock}, which calls {@link PeriodicRunnable#sample(long)
+	 * sample()} on each tick.
 	 */
-	class PeriodicRunnable implements java.lang.Runnable {
+	class PeriodicRunnable implements java.lang.Runnable, SamplingClock.Member {
+
+		@Override
+		public void sample(long tick) {
+			record(tick);
+		}
 
 		/**
-		 * Add position and velocity readings from the Talons to their respective list.
+		 * Add position and velocity readings from the Talons to the buffer.
 		 */
 		public void run() {
-			synchronized (listLock) {
-				if (recordingType == RecordingType.VOLTAGE) {
+			record(-1);
+		}
 
-					leftPosition.add((double) talons[0].getSelectedSensorPosition(0));
-					leftFeedforwardValues.add(talons[0].getMotorOutputVoltage());
+		/**
+		 * Add position and velocity readings from the Talons to the buffer, along
+		 * with the tick they were read on if the recorder samples on a clock.
+		 * 
+		 * @param tick
+		 *            the tick of {@link #clock}, or {@code -1} if the recorder has
+		 *            its own Notifier
+		 */
+		private void record(long tick) {
+			// stop() clears isRecording before checking inTick, so it either waits
+			// for this tick or this tick sees that recording has stopped
+			inTick = true;
+			if (!isRecording) {
+				inTick = false;
+				return;
+			}
+			if (journal != null) {
+				journalSample(tick);
+			} else {
+				for (int t = 0; t < talons.length; t++) {
+					int c = Recording.VALUES_PER_TALON * t;
+					samples.set(c, talons[t].getSelectedSensorPosition(0));
+					samples.set(c + 2, RobotController.getFPGATime());
+					samples.set(c + 1, feedforward(talons[t]));
+				}
+				if (clock != null) {
+					samples.set(valuesPerSample - 1, tick);
+				}
+				samples.commit();
+			}
+			inTick = false;
+		}
+	}
 
-					rightPosition.add((double) talons[1].getSelectedSensorPosition(0));
-					rightFeedforwardValues.add(talons[1].getMotorOutputVoltage());
+	/**
+	 * Adds a reading from the Talons to the current batch, and hands the batch to
+	 * the journal once it is full.
+	 * 
+	 * @param tick
+	 *            the tick of {@link #clock} the Talons were read on, or
+	 *            {@code -1} if the recorder has its own Notifier
+	 */
+	private void journalSample(long tick) {
+		int i = batchCount * valuesPerSample;
+		for (int t = 0; t < talons.length; t++) {
+			int c = i + Recording.VALUES_PER_TALON * t;
+			batch[c] = talons[t].getSelectedSensorPosition(0);
+			batch[c + 2] = RobotController.getFPGATime();
+			batch[c + 1] = feedforward(talons[t]);
+		}
+		if (clock != null) {
+			batch[i + valuesPerSample - 1] = tick;
+		}
 
-				} else {
-					leftPosition.add((double) talons[0].getSelectedSensorPosition(0));
-					leftFeedforwardValues.add((double) talons[0].getSelectedSensorVelocity(0));
+		if (++batchCount == Constants.JOURNAL_BATCH_SAMPLES) {
+			// The journal keeps the full array until it is written, so fill another
+			journal.submit(batch, batchCount);
+			batch = journal.obtainBatch();
+			batchCount = 0;
+		}
+	}
 
-					rightPosition.add((double) talons[1].getSelectedSensorPosition(0));
-					rightFeedforwardValues.add((double) talons[1].getSelectedSensorVelocity(0));
-				}
-			}
+	/**
+	 * Reads the value recorded alongside a Talon's position.
+	 * 
+	 * @param talon
+	 *            the Talon to read
+	 * @return the Talon's output voltage or velocity, or {@code 0} if only
+	 *         positions are recorded
+	 */
+	private double feedforward(TalonSRX talon) {
+		switch (recordingType) {
+		case VOLTAGE:
+			return talon.getMotorOutputVoltage();
+		case VELOCITY:
+			return talon.getSelectedSensorVelocity(0);
+		default:
+			return 0;
 		}
 	}
 
+	/**
+	 * What a {@link ProfileRecorder} records alongside each Talon's position.
+	 * {@link #POSITION} records nothing else, halving the CAN reads of
+	 * {@link #VELOCITY}; velocities are derived from the positions when the
+	 * recording is converted.
+	 */
 	public enum RecordingType {
-		VELOCITY, VOLTAGE;
+		VELOCITY, VOLTAGE, POSITION;
 	}
 }
\ No newline at end of file
@@ -1,6 +1,11 @@
 package org.hammerhead226.sharkmacro.motionprofiles;
 
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.hammerhead226.sharkmacro.Constants;
 
@@ -15,22 +20,55 @@ import com.ctre.phoenix.motorcontrol.can.TalonSRX;
 public class Recording {
 
 	/**
-	 * A list containing the lists of recorded positions and velocities.
+	 * Number of values recorded from each Talon in each sample: its position, its
+	 * feedforward value, and the FPGA time the position was read, in
+	 * microseconds.
 	 */
-	private ArrayList<ArrayList<Double>> recordings;
+	static final int VALUES_PER_TALON = 3;
 
 	/**
-	 * Left Talon to pass to the {@link Profile} generated in {@link #toProfile()}.
+	 * The recorded values of each Talon, {@value #VALUES_PER_TALON} arrays each:
+	 * the first Talon's positions, feedforward values and read times, then the
+	 * second Talon's, and so on.
 	 */
-	private TalonSRX leftTalon;
+	private final double[][] recordings;
 
 	/**
-	 * Right Talon to pass to the {@link Profile} generated in {@link #toProfile()}.
+	 * The Talons that were recorded, in order.
 	 */
-	private TalonSRX rightTalon;
+	private TalonSRX[] talons;
 
 	/**
-	 * Constructs a new {@link Recording} object.
+	 * Whether only positions were recorded, so velocities have to be derived from
+	 * them.
+	 */
+	private final boolean positionOnly;
+
+	/**
+	 * FPGA time, in microseconds, the {@link org.hammerhead226.sharkmacro.SamplingClock
+	 * SamplingClock} the recording was made on was started at, or {@code NaN} if
+	 * it was made on its own Notifier.
+	 */
+	private final double clockOrigin;
+
+	/**
+	 * The tick of the {@link org.hammerhead226.sharkmacro.SamplingClock
+	 * SamplingClock} each sample was taken on, or {@code null} if the recording
+	 * wasn't made on one.
+	 */
+	private final double[] ticks;
+
+	/**
+	 * Executor that converts recordings for
+	 * {@link #toProfileAsync(ConversionPipeline)}. Created the first time it is
+	 * needed.
+	 */
+	private static ExecutorService converter;
+
+	/**
+	 * Constructs a new {@link Recording} object. The samples are assumed to have
+	 * been taken exactly {@value org.hammerhead226.sharkmacro.Constants#DT_MS} ms
+	 * apart.
 	 * 
 	 * @param recordings
 	 *            a list containing the lists of recorded positions and velocities
@@ -42,9 +80,137 @@ public class Recording {
 	 *            {@link ProfileRecorder#stop()}
 	 */
 	public Recording(ArrayList<ArrayList<Double>> recordings, TalonSRX leftTalon, TalonSRX rightTalon) {
+		this(withUniformTimes(toColumns(recordings)), new TalonSRX[] { leftTalon, rightTalon });
+	}
+
+	/**
+	 * Constructs a new {@link Recording} object that takes ownership of the given
+	 * columns.
+	 * 
+	 * @param recordings
+	 *            the recorded position, feedforward value and read time of each
+	 *            Talon, in the order they were recorded, which must not be
+	 *            modified afterwards
+	 * @param talons
+	 *            the Talons that were recorded
+	 */
+	Recording(double[][] recordings, TalonSRX[] talons) {
+		this(recordings, talons, false);
+	}
+
+	/**
+	 * Constructs a new {@link Recording} object that takes ownership of the given
+	 * columns.
+	 * 
+	 * @param recordings
+	 *            the recorded position, feedforward value and read time of each
+	 *            Talon, in the order they were recorded, which must not be
+	 *            modified afterwards
+	 * @param talons
+	 *            the Talons that were recorded
+	 * @param positionOnly
+	 *            {@code true} if only positions were recorded, as by
+	 *            {@link ProfileRecorder.RecordingType#POSITION
+	 *            RecordingType.POSITION}
+	 */
+	Recording(double[][] recordings, TalonSRX[] talons, boolean positionOnly) {
+		this(recordings, null, talons, positionOnly, Double.NaN);
+	}
+
+	/**
+	 * Constructs a new {@link Recording} object that takes ownership of the given
+	 * columns.
+	 * 
+	 * @param recordings
+	 *            the recorded position, feedforward value and read time of each
+	 *            Talon, in the order they were recorded, which must not be
+	 *            modified afterwards
+	 * @param ticks
+	 *            the tick of the
+	 *            {@link org.hammerhead226.sharkmacro.SamplingClock SamplingClock}
+	 *            each sample was taken on, or {@code null} if the recording
+	 *            wasn't made on one
+	 * @param talons
+	 *            the Talons that were recorded
+	 * @param positionOnly
+	 *            {@code true} if only positions were recorded
+	 * @param clockOrigin
+	 *            FPGA time, in microseconds, the clock was started at, or
+	 *            {@code NaN} if it isn't known
+	 */
+	Recording(double[][] recordings, double[] ticks, TalonSRX[] talons, boolean positionOnly, double clockOrigin) {
 		this.recordings = recordings;
-		this.leftTalon = leftTalon;
-		this.rightTalon = rightTalon;
+		this.ticks = ticks;
+		this.talons = talons;
+		this.positionOnly = positionOnly;
+		this.clockOrigin = clockOrigin;
+	}
+
+	/**
+	 * @param origin
+	 *            FPGA time, in microseconds, the
+	 *            {@link org.hammerhead226.sharkmacro.SamplingClock SamplingClock}
+	 *            the recording was made on was started at
+	 * @return a recording of the same samples, converted onto the clock's ticks
+	 */
+	Recording onClock(double origin) {
+		return new Recording(recordings, ticks, talons, positionOnly, origin);
+	}
+
+	/**
+	 * @return {@code true} if only positions were recorded, in which case
+	 *         {@link #toProfile()} derives each point's velocity from them
+	 */
+	public boolean isPositionOnly() {
+		return positionOnly;
+	}
+
+	/**
+	 * @return {@code true} if the recording was made on a
+	 *         {@link org.hammerhead226.sharkmacro.SamplingClock SamplingClock}
+	 */
+	public boolean isSynchronized() {
+		return ticks != null && !Double.isNaN(clockOrigin);
+	}
+
+	/**
+	 * Adds read times to columns recorded without them, as if every sample was
+	 * taken exactly {@value org.hammerhead226.sharkmacro.Constants#DT_MS} ms after
+	 * the one before.
+	 * 
+	 * @param untimed
+	 *            the recorded position and feedforward value of each Talon
+	 * @return the columns with a read time column after each Talon's
+	 *         feedforward values
+	 */
+	static double[][] withUniformTimes(double[][] untimed) {
+		int channels = untimed.length / 2;
+		double[][] timed = new double[VALUES_PER_TALON * channels][];
+		for (int c = 0; c < channels; c++) {
+			timed[VALUES_PER_TALON * c] = untimed[2 * c];
+			timed[VALUES_PER_TALON * c + 1] = untimed[2 * c + 1];
+			double[] times = new double[untimed[2 * c].length];
+			for (int i = 0; i < times.length; i++) {
+				times[i] = i * Constants.DT_MS * 1000.0;
+			}
+			timed[VALUES_PER_TALON * c + 2] = times;
+		}
+		return timed;
+	}
+
+	/**
+	 * Measures how evenly the samples of this recording were spaced.
+	 * 
+	 * @return the interval histogram and channel skew of the recording
+	 */
+	public SamplingJitter getJitter() {
+		int minSize = minSize();
+		int channels = recordings.length / VALUES_PER_TALON;
+		double[][] times = new double[channels][];
+		for (int c = 0; c < channels; c++) {
+			times[c] = recordings[VALUES_PER_TALON * c + 2];
+		}
+		return new SamplingJitter(times, minSize);
 	}
 
 	/**
@@ -55,53 +221,141 @@ public class Recording {
 	 * {@code [ <position in raw units>, <velocity in raw units per 100ms>, <time for the Talon to hold this point> ]}
 	 * </center>
 	 * </p>
+	 * The Notifier doesn't tick exactly every
+	 * {@value org.hammerhead226.sharkmacro.Constants#DT_MS} ms, and each Talon is
+	 * read at a slightly different time, so each channel is linearly interpolated
+	 * from its own read times onto a grid of points exactly
+	 * {@value org.hammerhead226.sharkmacro.Constants#DT_MS} ms apart. The grid
+	 * covers the time every channel was being recorded.
+	 * <p>
+	 * If only positions were recorded, velocities are derived from them with
+	 * {@link ConversionStage#savitzkyGolayVelocity(int)} over
+	 * {@value org.hammerhead226.sharkmacro.Constants#PROFILERECORDER_VELOCITY_FIT_SAMPLES}
+	 * samples, after every other stage.
+	 * <p>
+	 * A recording made on a {@link org.hammerhead226.sharkmacro.SamplingClock
+	 * SamplingClock} is converted with {@link ConversionPipeline#SYNCHRONIZED},
+	 * which keeps the samples recorded before the robot moved, so it stays in
+	 * step with the other recordings made on the clock.
 	 * 
 	 * @return a new {@link Profile} containing the new motion profiles
 	 */
 	public Profile toProfile() {
+		return toProfile(isSynchronized() ? ConversionPipeline.SYNCHRONIZED : ConversionPipeline.STANDARD);
+	}
 
-		// Remove differential in list size
-		int minSize = Integer.MAX_VALUE;
-		for (int i = 0; i < recordings.size(); i++) {
-			if (recordings.get(i).size() < minSize) {
-				minSize = recordings.get(i).size();
-			}
-		}
-		for (int i = 0; i < recordings.size(); i++) {
-			recordings.get(i).subList(minSize, recordings.get(i).size()).clear();
-		}
+	/**
+	 * Transforms the recording into a motion profile like {@link #toProfile()},
+	 * then removes every point that a straight line between its neighbours
+	 * reproduces within the given tolerances, using a {@link ProfileDecimator}.
+	 * Straight and steadily curving stretches of a path become a few long points,
+	 * so the profile is smaller, loads faster and takes less CAN traffic to play
+	 * back.
+	 * 
+	 * @param positionTolerance
+	 *            largest distance, in raw units, a removed point's position may be
+	 *            from the line that replaces it
+	 * @param feedforwardTolerance
+	 *            largest distance a removed point's velocity or feedforward value
+	 *            may be from the line that replaces it
+	 * @return a new {@link Profile} containing the decimated motion profiles
+	 */
+	public Profile toProfile(double positionTolerance, double feedforwardTolerance) {
+		return toProfile(isSynchronized() ? new ConversionPipeline(positionTolerance, feedforwardTolerance)
+				: new ConversionPipeline(positionTolerance, feedforwardTolerance, ConversionStage.trimLeadingZeros()));
+	}
 
-		// Remove leading zero rows
-		for (int i = 0; i < minSize; i++) {
-			if (!areEqual(i, 0)) {
-				for (int j = 0; j < recordings.size(); j++) {
-					recordings.get(j).subList(0, i).clear();
-				}
-				minSize -= i;
-				break;
-			}
-		}
+	/**
+	 * Transforms the recording into a motion profile with the given
+	 * {@link ConversionPipeline}. If the recording was made on a
+	 * {@link org.hammerhead226.sharkmacro.SamplingClock SamplingClock}, point
+	 * {@code k} falls on the {@code k}th tick after the first one sampled.
+	 * 
+	 * @param pipeline
+	 *            the stages to convert the recording with
+	 * @return a new {@link Profile} containing the new motion profiles
+	 */
+	public Profile toProfile(ConversionPipeline pipeline) {
+		return new Profile(pipeline.convert(recordings, isSynchronized() ? ticks : null, positionOnly, clockOrigin));
+	}
+
+	/**
+	 * Transforms the recording into a motion profile like {@link #toProfile()} on
+	 * a low-priority background thread, so converting a long recording doesn't
+	 * hold up the robot's main loop.
+	 * 
+	 * @return a future that completes with the new {@link Profile}
+	 */
+	public CompletableFuture<Profile> toProfileAsync() {
+		return CompletableFuture.supplyAsync(this::toProfile, getConverter());
+	}
 
-		ArrayList<Double> leftPosition = recordings.get(0);
-		ArrayList<Double> leftFeedforwardValues = recordings.get(1);
-		ArrayList<Double> rightPosition = recordings.get(2);
-		ArrayList<Double> rightFeedforwardValues = recordings.get(3);
+	/**
+	 * Transforms the recording into a motion profile with the given
+	 * {@link ConversionPipeline} on a low-priority background thread, so
+	 * converting a long recording doesn't hold up the robot's main loop.
+	 * Recordings are converted one at a time, in the order they were submitted.
+	 * 
+	 * @param pipeline
+	 *            the stages to convert the recording with
+	 * @return a future that completes with the new {@link Profile}, or
+	 *         exceptionally if a stage threw
+	 */
+	public CompletableFuture<Profile> toProfileAsync(ConversionPipeline pipeline) {
+		return CompletableFuture.supplyAsync(() -> toProfile(pipeline), getConverter());
+	}
 
-		double[][] leftProfile = new double[minSize][3];
-		double[][] rightProfile = new double[minSize][3];
+	/**
+	 * @return the executor that runs {@link #toProfileAsync(ConversionPipeline)},
+	 *         created the first time it is needed
+	 */
+	private static synchronized ExecutorService getConverter() {
+		if (converter == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), r -> {
+						Thread t = new Thread(r, "SharkMacro-converter");
+						t.setDaemon(true);
+						t.setPriority(Thread.MIN_PRIORITY);
+						return t;
+					});
+			// Let the thread exit between conversions
+			executor.allowCoreThreadTimeOut(true);
+			converter = executor;
+		}
+		return converter;
+	}
 
-		for (int i = 0; i < minSize; i++) {
-			leftProfile[i][0] = leftPosition.get(i);
-			leftProfile[i][1] = leftFeedforwardValues.get(i);
-			leftProfile[i][2] = Constants.DT_MS;
+	/**
+	 * @return the number of samples recorded from every Talon
+	 */
+	private int minSize() {
+		int minSize = Integer.MAX_VALUE;
+		for (int i = 0; i < recordings.length; i++) {
+			if (recordings[i].length < minSize) {
+				minSize = recordings[i].length;
+			}
+		}
+		return recordings.length == 0 ? 0 : minSize;
+	}
 
-			rightProfile[i][0] = rightPosition.get(i);
-			rightProfile[i][1] = rightFeedforwardValues.get(i);
-			rightProfile[i][2] = Constants.DT_MS;
+	/**
+	 * Converts lists of recorded values to arrays.
+	 * 
+	 * @param lists
+	 *            the lists to convert
+	 * @return a new array for each list
+	 */
+	private static double[][] toColumns(ArrayList<ArrayList<Double>> lists) {
+		double[][] columns = new double[lists.size()][];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = new double[lists.get(i).size()];
+			for (int j = 0; j < columns[i].length; j++) {
+				columns[i][j] = lists.get(i).get(j);
+			}
 		}
-		return new Profile(leftProfile, rightProfile);
+		return columns;
 	}
-	
+
 	/**
 	 * Converts an {@code ArrayList} of type Integer to an {@code ArrayList} of type
 	 * Double.
@@ -118,21 +372,6 @@ public class Recording {
 		return d;
 	}
 
-	/**
-	 * Compares the positions and velocities at a given instant in time.
-	 * 
-	 * @param idx
-	 *            list index to get comparable values from
-	 * @param comparator
-	 *            value to compare the positions and velocities to
-	 * @return {@code true} if all four positions and velocities are equal to the
-	 *         comparator, {@code false} otherwise
-	 */
-	private boolean areEqual(int idx, double comparator) {
-		return (recordings.get(0).get(idx) == comparator && recordings.get(1).get(idx) == comparator
-				&& recordings.get(2).get(idx) == comparator && recordings.get(3).get(idx) == comparator);
-	}
-
 	/**
 	 * Converts raw units into wheel rotations.
 	 * 
@@ -0,0 +1,451 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+
+import org.hammerhead226.sharkmacro.Constants;
+
+import com.ctre.phoenix.motorcontrol.can.TalonSRX;
+
+import edu.wpi.first.wpilibj.DriverStation;
+
+/**
+ * Append-only file that a {@link ProfileRecorder} streams its samples to while
+ * recording, so a long recording doesn't have to fit in memory and survives a
+ * crash or brown-out.
+ * <p>
+ * Samples are handed to the journal in batches and appended to the file on a
+ * background thread, which syncs the file after each batch. At most
+ * {@value org.hammerhead226.sharkmacro.Constants#JOURNAL_MAX_PENDING_BATCHES}
+ * batches wait in memory; if the file can't keep up, further batches are
+ * dropped and reported. After a crash, {@link #recover(Path, TalonSRX[])}
+ * reads back every batch that was completely written.
+ * <p>
+ * The file is a little-endian header,
+ * <p>
+ * <center>
+ * {@code [ <int magic number>, <short version>, <short flags>, <int values per sample> ]}
+ * </center>
+ * </p>
+ * followed by any number of batches:
+ * <p>
+ * <center>
+ * {@code [ <int sample count>, <double[] samples>, <int CRC-32 of the count and samples> ]}
+ * </center>
+ * </p>
+ * Each sample holds a position, a feedforward value and the FPGA time the
+ * position was read, in microseconds, for each recorded Talon, the same values
+ * a {@link ProfileRecorder} keeps in memory. For a drivetrain, that is
+ * {@code <left position>, <left feedforward value>, <left time>, <right position>, <right feedforward value>, <right time>}.
+ * A recorder that samples on a {@link org.hammerhead226.sharkmacro.SamplingClock
+ * SamplingClock} adds the tick the sample was taken on as a final value, and
+ * sets a header flag to say so.
+ * Journals written by version 1, which had no times, can still be recovered;
+ * their samples are taken to be exactly
+ * {@value org.hammerhead226.sharkmacro.Constants#DT_MS} ms apart.
+ */
+public final class RecordingJournal {
+
+	/**
+	 * Identifies a recording journal.
+	 */
+	public static final int MAGIC = 0x534D524A;
+
+	/**
+	 * The current layout version.
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * Number of values in each sample of a recording of two Talons.
+	 */
+	public static final int VALUES_PER_SAMPLE = 6;
+
+	/**
+	 * Header flag set if only positions were recorded, and the feedforward values
+	 * are all zero.
+	 */
+	private static final int FLAG_POSITION_ONLY = 1;
+
+	/**
+	 * Header flag set if each sample ends with the tick of the
+	 * {@link org.hammerhead226.sharkmacro.SamplingClock SamplingClock} it was
+	 * taken on.
+	 */
+	private static final int FLAG_TICKED = 2;
+
+	/**
+	 * Size of the file header, in bytes.
+	 */
+	private static final int HEADER_BYTES = 12;
+
+	/**
+	 * Marks the end of the batches in {@link #pending}.
+	 */
+	private static final double[] END = new double[0];
+
+	/**
+	 * Number of values in each sample, three for each recorded Talon, and one
+	 * more if ticks are recorded.
+	 */
+	private final int valuesPerSample;
+
+	/**
+	 * The journal file, open for appending.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Batches waiting to be appended.
+	 */
+	private final ArrayBlockingQueue<double[]> pending = new ArrayBlockingQueue<double[]>(
+			Constants.JOURNAL_MAX_PENDING_BATCHES);
+
+	/**
+	 * Full-sized batch arrays that have been written and can be reused.
+	 */
+	private final ArrayBlockingQueue<double[]> free = new ArrayBlockingQueue<double[]>(
+			Constants.JOURNAL_MAX_PENDING_BATCHES + 1);
+
+	/**
+	 * The thread appending batches to the file.
+	 */
+	private final Thread thread;
+
+	/**
+	 * Number of samples dropped because too many batches were waiting.
+	 */
+	private volatile int dropped = 0;
+
+	/**
+	 * Creates a new journal for a recording of two Talons, replacing any existing
+	 * file, and starts its thread.
+	 *
+	 * @param file
+	 *            the journal file
+	 * @throws IOException
+	 *             if the file can't be created
+	 */
+	public RecordingJournal(Path file) throws IOException {
+		this(file, VALUES_PER_SAMPLE);
+	}
+
+	/**
+	 * Creates a new journal, replacing any existing file, and starts its thread.
+	 *
+	 * @param file
+	 *            the journal file
+	 * @param valuesPerSample
+	 *            number of values in each sample, three for each recorded Talon
+	 * @throws IOException
+	 *             if the file can't be created
+	 */
+	public RecordingJournal(Path file, int valuesPerSample) throws IOException {
+		this(file, valuesPerSample, false);
+	}
+
+	/**
+	 * Creates a new journal, replacing any existing file, and starts its thread.
+	 *
+	 * @param file
+	 *            the journal file
+	 * @param valuesPerSample
+	 *            number of values in each sample, three for each recorded Talon
+	 * @param positionOnly
+	 *            {@code true} if only positions are recorded, as by
+	 *            {@link ProfileRecorder.RecordingType#POSITION
+	 *            RecordingType.POSITION}
+	 * @throws IOException
+	 *             if the file can't be created
+	 */
+	public RecordingJournal(Path file, int valuesPerSample, boolean positionOnly) throws IOException {
+		this(file, valuesPerSample, positionOnly, false);
+	}
+
+	/**
+	 * Creates a new journal, replacing any existing file, and starts its thread.
+	 *
+	 * @param file
+	 *            the journal file
+	 * @param valuesPerSample
+	 *            number of values in each sample, three for each recorded Talon,
+	 *            plus one if {@code ticked}
+	 * @param positionOnly
+	 *            {@code true} if only positions are recorded
+	 * @param ticked
+	 *            {@code true} if each sample ends with the tick of the
+	 *            {@link org.hammerhead226.sharkmacro.SamplingClock SamplingClock}
+	 *            it was taken on
+	 * @throws IOException
+	 *             if the file can't be created
+	 */
+	public RecordingJournal(Path file, int valuesPerSample, boolean positionOnly, boolean ticked)
+			throws IOException {
+		this.valuesPerSample = valuesPerSample;
+		Path parent = file.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putShort((short) VERSION);
+		header.putShort((short) ((positionOnly ? FLAG_POSITION_ONLY : 0) | (ticked ? FLAG_TICKED : 0)));
+		header.putInt(valuesPerSample);
+		header.flip();
+		writeFully(header);
+		channel.force(true);
+
+		thread = new Thread(this::run, "SharkMacro-journal");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns an array to fill with a batch of samples, reusing one that has
+	 * already been written if there is one, so a recorder doesn't allocate a new
+	 * array for every batch.
+	 *
+	 * @return an array with room for
+	 *         {@value org.hammerhead226.sharkmacro.Constants#JOURNAL_BATCH_SAMPLES}
+	 *         samples
+	 */
+	public double[] obtainBatch() {
+		double[] batch = free.poll();
+		return batch != null ? batch : new double[Constants.JOURNAL_BATCH_SAMPLES * valuesPerSample];
+	}
+
+	/**
+	 * Queues a batch of samples to be appended. Never blocks; if too many batches
+	 * are already waiting, the batch is dropped.
+	 *
+	 * @param samples
+	 *            the samples, one after another. The journal
+	 *            takes ownership of the array and may return it from
+	 *            {@link #obtainBatch()} once it has been written
+	 * @param count
+	 *            the number of samples in the array to append
+	 */
+	public void submit(double[] samples, int count) {
+		double[] batch = samples.length == count * valuesPerSample ? samples
+				: Arrays.copyOf(samples, count * valuesPerSample);
+		if (count > 0 && !pending.offer(batch)) {
+			recycle(batch);
+			if (dropped == 0) {
+				DriverStation.getInstance();
+				DriverStation.reportWarning("Recording journal can't keep up, dropping samples", false);
+			}
+			dropped += count;
+		}
+	}
+
+	/**
+	 * Appends every queued batch, then closes the file.
+	 *
+	 * @throws IOException
+	 *             if the file couldn't be closed
+	 */
+	public void close() throws IOException {
+		try {
+			pending.put(END);
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+	}
+
+	/**
+	 * @return the number of samples dropped because the file couldn't keep up
+	 */
+	public int getDroppedSamples() {
+		return dropped;
+	}
+
+	/**
+	 * Appends queued batches until {@link #close()} is called.
+	 */
+	private void run() {
+		ByteBuffer buf = ByteBuffer
+				.allocate(2 * Integer.BYTES + Constants.JOURNAL_BATCH_SAMPLES * valuesPerSample * Double.BYTES)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		CRC32 crc = new CRC32();
+		boolean failed = false;
+
+		while (true) {
+			double[] batch;
+			try {
+				batch = pending.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (batch == END) {
+				return;
+			}
+			if (failed) {
+				recycle(batch);
+				continue;
+			}
+
+			int count = batch.length / valuesPerSample;
+			int size = 2 * Integer.BYTES + batch.length * Double.BYTES;
+			if (buf.capacity() < size) {
+				buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			buf.clear();
+			buf.putInt(count);
+			buf.asDoubleBuffer().put(batch);
+			buf.position(Integer.BYTES + batch.length * Double.BYTES);
+
+			crc.reset();
+			ByteBuffer checked = buf.duplicate();
+			checked.flip();
+			crc.update(checked);
+			buf.putInt((int) crc.getValue());
+			buf.flip();
+
+			try {
+				writeFully(buf);
+				channel.force(false);
+			} catch (IOException e) {
+				e.printStackTrace();
+				DriverStation.getInstance();
+				DriverStation.reportError("Unable to write recording journal", false);
+				failed = true;
+			}
+			recycle(batch);
+		}
+	}
+
+	/**
+	 * Keeps a full-sized batch array to be returned by {@link #obtainBatch()}.
+	 *
+	 * @param batch
+	 *            an array that is no longer needed
+	 */
+	private void recycle(double[] batch) {
+		if (batch.length == Constants.JOURNAL_BATCH_SAMPLES * valuesPerSample) {
+			free.offer(batch);
+		}
+	}
+
+	/**
+	 * @param buf
+	 *            the bytes to append to the file
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	private void writeFully(ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+	}
+
+	/**
+	 * Reads every completely written batch from a journal of two Talons into a new
+	 * {@link Recording}. A batch that was cut off by a crash, and anything after
+	 * it, is ignored.
+	 *
+	 * @param file
+	 *            the journal file
+	 * @param leftTalon
+	 *            the Talon the left side was recorded from
+	 * @param rightTalon
+	 *            the Talon the right side was recorded from
+	 * @return the recovered recording, or {@code null} if the file isn't a
+	 *         readable journal
+	 */
+	public static Recording recover(Path file, TalonSRX leftTalon, TalonSRX rightTalon) {
+		return recover(file, new TalonSRX[] { leftTalon, rightTalon });
+	}
+
+	/**
+	 * Reads every completely written batch from a journal into a new
+	 * {@link Recording}. A batch that was cut off by a crash, and anything after
+	 * it, is ignored.
+	 *
+	 * @param file
+	 *            the journal file
+	 * @param talons
+	 *            the Talons that were recorded, in the order they were recorded
+	 * @return the recovered recording, or {@code null} if the file isn't a
+	 *         readable journal of that many Talons
+	 */
+	public static Recording recover(Path file, TalonSRX[] talons) {
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buf = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			if (buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC) {
+				throw new IOException("Not a SharkMacro recording journal");
+			}
+			int version = buf.getShort();
+			int flags = buf.getShort();
+			if (version < 1 || version > VERSION) {
+				throw new IOException("Unsupported recording journal version: " + version);
+			}
+			int valuesPerSample = buf.getInt();
+			int valuesPerTalon = version == 1 ? 2 : Recording.VALUES_PER_TALON;
+			boolean ticked = (flags & FLAG_TICKED) != 0;
+			if (valuesPerSample != valuesPerTalon * talons.length + (ticked ? 1 : 0)) {
+				throw new IOException("Recording journal doesn't hold " + talons.length + " Talons");
+			}
+
+			SampleBuffer samples = new SampleBuffer(valuesPerSample,
+					buf.remaining() / (valuesPerSample * Double.BYTES));
+
+			CRC32 crc = new CRC32();
+			while (buf.remaining() >= Integer.BYTES) {
+				int start = buf.position();
+				int count = buf.getInt();
+				long valuesBytes = (long) count * valuesPerSample * Double.BYTES;
+				if (count <= 0 || buf.remaining() < valuesBytes + Integer.BYTES) {
+					break;
+				}
+				ByteBuffer checked = buf.duplicate();
+				checked.position(start).limit(start + Integer.BYTES + (int) valuesBytes);
+				crc.reset();
+				crc.update(checked);
+				buf.position(start + Integer.BYTES + (int) valuesBytes);
+				if (buf.getInt() != (int) crc.getValue()) {
+					break;
+				}
+
+				buf.position(start + Integer.BYTES);
+				for (int i = 0; i < count; i++) {
+					for (int v = 0; v < valuesPerSample; v++) {
+						samples.set(v, buf.getDouble());
+					}
+					samples.commit();
+				}
+				buf.position(buf.position() + Integer.BYTES);
+			}
+
+			double[][] columns = samples.toColumns();
+			boolean positionOnly = (flags & FLAG_POSITION_ONLY) != 0;
+			if (ticked) {
+				// The clock's start time isn't journaled, so the recorder adds it
+				return new Recording(Arrays.copyOf(columns, columns.length - 1), columns[columns.length - 1], talons,
+						positionOnly, Double.NaN);
+			}
+			return new Recording(version == 1 ? Recording.withUniformTimes(columns) : columns, talons,
+					positionOnly);
+		} catch (IOException e) {
+			e.printStackTrace();
+			DriverStation.getInstance();
+			DriverStation.reportError("Unable to recover recording journal: " + file, false);
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,184 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+import org.hammerhead226.sharkmacro.Constants;
+
+/**
+ * Growable table of recorded samples, stored as primitive {@code double}
+ * columns split into chunks of
+ * {@value org.hammerhead226.sharkmacro.Constants#PROFILERECORDER_CHUNK_SAMPLES}
+ * samples. Growing the buffer adds a chunk instead of copying what has already
+ * been recorded, and {@link #clear()} keeps every chunk, so a buffer that is
+ * reused for each recording stops allocating once it has held its longest
+ * recording.
+ * <p>
+ * A sample is added by setting each of its values with
+ * {@link #set(int, double)} and then calling {@link #commit()}, which
+ * publishes it. Only one thread may add samples, but any thread can read a
+ * consistent copy of the published samples with {@link #toColumns()} at any
+ * time, without locking. Neither side ever waits for the other; a copy that
+ * overlaps a {@link #clear()} is simply taken again.
+ */
+final class SampleBuffer {
+
+	/**
+	 * Number of values in each sample.
+	 */
+	private final int columns;
+
+	/**
+	 * The chunks, each indexed by column and then sample. Replaced with a longer
+	 * copy when a chunk is added, so readers always see a complete table.
+	 */
+	private volatile double[][][] chunks = new double[0][][];
+
+	/**
+	 * Number of published samples. Written only after the sample's values, so a
+	 * reader that sees a sample also sees its values.
+	 */
+	private volatile int size = 0;
+
+	/**
+	 * Incremented by {@link #clear()}, so a reader can tell if the samples it
+	 * copied were overwritten by a new recording.
+	 */
+	private volatile int generation = 0;
+
+	/**
+	 * Constructs a new {@link SampleBuffer}, allocating enough chunks up front to
+	 * hold the given number of samples.
+	 *
+	 * @param columns
+	 *            number of values in each sample
+	 * @param initialCapacity
+	 *            number of samples to allocate room for
+	 */
+	SampleBuffer(int columns, int initialCapacity) {
+		this.columns = columns;
+		while (capacity(chunks) < initialCapacity) {
+			addChunk();
+		}
+	}
+
+	/**
+	 * Sets a value of the sample being added. Only called by the thread adding
+	 * samples.
+	 *
+	 * @param column
+	 *            the value to set
+	 * @param value
+	 *            the value
+	 */
+	void set(int column, double value) {
+		int idx = size;
+		double[][][] table = chunks;
+		if (idx == capacity(table)) {
+			table = addChunk();
+		}
+		table[idx / Constants.PROFILERECORDER_CHUNK_SAMPLES][column][idx
+				% Constants.PROFILERECORDER_CHUNK_SAMPLES] = value;
+	}
+
+	/**
+	 * Publishes the sample whose values were set with {@link #set(int, double)}.
+	 * Only called by the thread adding samples.
+	 */
+	void commit() {
+		int idx = size;
+		if (idx == capacity(chunks)) {
+			addChunk();
+		}
+		size = idx + 1;
+	}
+
+	/**
+	 * @return the number of published samples
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of values in each sample
+	 */
+	int getColumnCount() {
+		return columns;
+	}
+
+	/**
+	 * @param column
+	 *            the value to get
+	 * @param idx
+	 *            the published sample to get it from
+	 * @return the value
+	 */
+	double get(int column, int idx) {
+		return chunks[idx / Constants.PROFILERECORDER_CHUNK_SAMPLES][column][idx
+				% Constants.PROFILERECORDER_CHUNK_SAMPLES];
+	}
+
+	/**
+	 * Removes every sample, keeping the chunks to be reused. Only called while no
+	 * thread is adding samples.
+	 */
+	void clear() {
+		generation = generation + 1;
+		// Readers must see the new generation before any sample is overwritten
+		VarHandle.storeStoreFence();
+		size = 0;
+	}
+
+	/**
+	 * Copies the published samples out of the buffer. Safe to call from any
+	 * thread while samples are being added.
+	 *
+	 * @return a new array for each column, each holding every sample published
+	 *         when the copy was taken
+	 */
+	double[][] toColumns() {
+		while (true) {
+			int gen = generation;
+			int count = size;
+			double[][][] table = chunks;
+
+			double[][] out = new double[columns][count];
+			for (int start = 0; start < count; start += Constants.PROFILERECORDER_CHUNK_SAMPLES) {
+				double[][] chunk = table[start / Constants.PROFILERECORDER_CHUNK_SAMPLES];
+				int n = Math.min(Constants.PROFILERECORDER_CHUNK_SAMPLES, count - start);
+				for (int c = 0; c < columns; c++) {
+					System.arraycopy(chunk[c], 0, out[c], start, n);
+				}
+			}
+
+			// The copy must be finished before checking that it wasn't overwritten
+			VarHandle.acquireFence();
+			if (generation == gen) {
+				return out;
+			}
+		}
+	}
+
+	/**
+	 * @param table
+	 *            a chunk table
+	 * @return the number of samples the table's chunks can hold
+	 */
+	private static int capacity(double[][][] table) {
+		return table.length * Constants.PROFILERECORDER_CHUNK_SAMPLES;
+	}
+
+	/**
+	 * Publishes a copy of the chunk table with another chunk added.
+	 *
+	 * @return the new chunk table
+	 */
+	private double[][][] addChunk() {
+		double[][][] table = Arrays.copyOf(chunks, chunks.length + 1);
+		table[table.length - 1] = new double[columns][Constants.PROFILERECORDER_CHUNK_SAMPLES];
+		chunks = table;
+		return table;
+	}
+
+}
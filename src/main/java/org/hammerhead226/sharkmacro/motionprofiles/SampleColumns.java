@@ -0,0 +1,155 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import java.util.Arrays;
+
+/**
+ * The samples of a {@link Recording} as they pass through a
+ * {@link ConversionPipeline}: a position, a feedforward value and a read time
+ * for each recorded Talon, stored as one primitive column each. The columns
+ * are a copy of the recording, all cut to the length of the shortest, so
+ * {@link ConversionStage}s change them in place without touching the
+ * recording.
+ * <p>
+ * Only the samples from {@link #getStart()} up to {@link #getEnd()} are
+ * converted. Stages that drop samples, such as
+ * {@link ConversionStage#trimLeadingZeros()}, narrow this range instead of
+ * copying the columns.
+ */
+public final class SampleColumns {
+
+	/**
+	 * The columns, {@value Recording#VALUES_PER_TALON} for each Talon.
+	 */
+	private final double[][] columns;
+
+	/**
+	 * The clock tick each sample was taken on, or {@code null}.
+	 */
+	private final double[] ticks;
+
+	/**
+	 * Number of samples in each column.
+	 */
+	private final int capacity;
+
+	/**
+	 * Index of the first sample to convert.
+	 */
+	private int start;
+
+	/**
+	 * One past the index of the last sample to convert.
+	 */
+	private int end;
+
+	/**
+	 * Copies the columns of a recording, cutting them to the same length.
+	 *
+	 * @param recordings
+	 *            the recorded position, feedforward value and read time of each
+	 *            Talon
+	 * @param ticks
+	 *            the clock tick each sample was taken on, or {@code null} if the
+	 *            samples weren't taken on a clock
+	 */
+	SampleColumns(double[][] recordings, double[] ticks) {
+		int minSize = recordings.length == 0 ? 0 : Integer.MAX_VALUE;
+		for (double[] column : recordings) {
+			minSize = Math.min(minSize, column.length);
+		}
+		if (ticks != null) {
+			minSize = Math.min(minSize, ticks.length);
+		}
+		this.ticks = ticks == null ? null : Arrays.copyOf(ticks, minSize);
+		this.columns = new double[recordings.length][];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = Arrays.copyOf(recordings[i], minSize);
+		}
+		this.capacity = minSize;
+		this.start = 0;
+		this.end = minSize;
+	}
+
+	/**
+	 * @return the number of recorded Talons
+	 */
+	public int getChannelCount() {
+		return columns.length / Recording.VALUES_PER_TALON;
+	}
+
+	/**
+	 * @return index of the first sample to convert
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * @return one past the index of the last sample to convert
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return the number of samples to convert
+	 */
+	public int getLength() {
+		return end - start;
+	}
+
+	/**
+	 * Sets which samples to convert.
+	 *
+	 * @param start
+	 *            index of the first sample to convert
+	 * @param end
+	 *            one past the index of the last sample to convert
+	 */
+	public void setRange(int start, int end) {
+		if (start < 0 || end < start || end > capacity) {
+			throw new IllegalArgumentException("Invalid sample range: " + start + " to " + end);
+		}
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * @param channel
+	 *            the Talon to get
+	 * @return the Talon's positions, in raw units, which may be modified
+	 */
+	public double[] positions(int channel) {
+		return columns[Recording.VALUES_PER_TALON * channel];
+	}
+
+	/**
+	 * @param channel
+	 *            the Talon to get
+	 * @return the Talon's velocities or feedforward values, which may be
+	 *         modified
+	 */
+	public double[] feedforwards(int channel) {
+		return columns[Recording.VALUES_PER_TALON * channel + 1];
+	}
+
+	/**
+	 * @param channel
+	 *            the Talon to get
+	 * @return the FPGA time each of the Talon's positions was read, in
+	 *         microseconds, which may be modified
+	 */
+	public double[] times(int channel) {
+		return columns[Recording.VALUES_PER_TALON * channel + 2];
+	}
+
+	/**
+	 * @return the tick of the {@link org.hammerhead226.sharkmacro.SamplingClock
+	 *         SamplingClock} each sample was taken on, shared by every channel,
+	 *         or {@code null} if the samples weren't taken on a clock
+	 */
+	public double[] ticks() {
+		return ticks;
+	}
+
+}
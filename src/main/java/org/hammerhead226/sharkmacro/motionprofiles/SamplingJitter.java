@@ -0,0 +1,151 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import org.hammerhead226.sharkmacro.Constants;
+
+/**
+ * How evenly the samples of a {@link Recording} were spaced. The intervals
+ * between the first Talon's reads are counted in a histogram of
+ * {@value org.hammerhead226.sharkmacro.Constants#PROFILERECORDER_JITTER_BINS}
+ * bins, each
+ * {@value org.hammerhead226.sharkmacro.Constants#PROFILERECORDER_JITTER_BIN_MS}
+ * ms wide, with every longer interval counted in the last bin. The skew is how
+ * far apart the Talons of a single sample were read.
+ */
+public final class SamplingJitter {
+
+	/**
+	 * Number of intervals in each bin.
+	 */
+	private final int[] histogram = new int[Constants.PROFILERECORDER_JITTER_BINS];
+
+	/**
+	 * Number of intervals measured.
+	 */
+	public final int intervals;
+
+	/**
+	 * Mean interval, in milliseconds.
+	 */
+	public final double meanMs;
+
+	/**
+	 * Shortest interval, in milliseconds.
+	 */
+	public final double minMs;
+
+	/**
+	 * Longest interval, in milliseconds.
+	 */
+	public final double maxMs;
+
+	/**
+	 * Standard deviation of the intervals, in milliseconds.
+	 */
+	public final double stdDevMs;
+
+	/**
+	 * Largest time between the first and last Talon read in a single sample, in
+	 * milliseconds.
+	 */
+	public final double maxSkewMs;
+
+	/**
+	 * Number of intervals of at least
+	 * {@value org.hammerhead226.sharkmacro.Constants#PROFILERECORDER_LATE_TICK_MS}
+	 * ms, meaning at least one tick was late enough to be missed.
+	 */
+	public final int lateTicks;
+
+	/**
+	 * Measures the spacing of recorded samples.
+	 *
+	 * @param times
+	 *            the read times of each Talon, in microseconds
+	 * @param count
+	 *            the number of samples to measure
+	 */
+	SamplingJitter(double[][] times, int count) {
+		double sum = 0, sumSquares = 0, min = Double.POSITIVE_INFINITY, max = 0, skew = 0;
+		int late = 0;
+		for (int i = 0; i < count; i++) {
+			double earliest = Double.POSITIVE_INFINITY, latest = Double.NEGATIVE_INFINITY;
+			for (double[] t : times) {
+				earliest = Math.min(earliest, t[i]);
+				latest = Math.max(latest, t[i]);
+			}
+			skew = Math.max(skew, (latest - earliest) / 1000.0);
+
+			if (i == 0) {
+				continue;
+			}
+			double ms = (times[0][i] - times[0][i - 1]) / 1000.0;
+			sum += ms;
+			sumSquares += ms * ms;
+			min = Math.min(min, ms);
+			max = Math.max(max, ms);
+			if (ms >= Constants.PROFILERECORDER_LATE_TICK_MS) {
+				late++;
+			}
+			int bin = (int) (ms / Constants.PROFILERECORDER_JITTER_BIN_MS);
+			histogram[Math.max(0, Math.min(histogram.length - 1, bin))]++;
+		}
+
+		this.intervals = Math.max(0, count - 1);
+		this.meanMs = intervals > 0 ? sum / intervals : 0;
+		this.minMs = intervals > 0 ? min : 0;
+		this.maxMs = max;
+		this.stdDevMs = intervals > 0 ? Math.sqrt(Math.max(0, sumSquares / intervals - meanMs * meanMs)) : 0;
+		this.maxSkewMs = skew;
+		this.lateTicks = late;
+	}
+
+	/**
+	 * @return the number of bins in the histogram
+	 */
+	public int getBinCount() {
+		return histogram.length;
+	}
+
+	/**
+	 * @param bin
+	 *            the bin to get, starting at {@code bin} times
+	 *            {@value org.hammerhead226.sharkmacro.Constants#PROFILERECORDER_JITTER_BIN_MS}
+	 *            ms
+	 * @return the number of intervals in the bin
+	 */
+	public int getCount(int bin) {
+		return histogram[bin];
+	}
+
+	/**
+	 * @return a summary line followed by a line for each non-empty bin of the
+	 *         histogram
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(
+				"%d intervals: mean %.2f ms, min %.2f ms, max %.2f ms, std dev %.2f ms, %d late, max skew %.2f ms",
+				intervals, meanMs, minMs, maxMs, stdDevMs, lateTicks, maxSkewMs));
+		int most = 1;
+		for (int n : histogram) {
+			most = Math.max(most, n);
+		}
+		for (int b = 0; b < histogram.length; b++) {
+			if (histogram[b] == 0) {
+				continue;
+			}
+			double from = b * Constants.PROFILERECORDER_JITTER_BIN_MS;
+			String range = b == histogram.length - 1 ? String.format("%5.1f+     ", from)
+					: String.format("%5.1f-%5.1f", from, from + Constants.PROFILERECORDER_JITTER_BIN_MS);
+			StringBuilder bar = new StringBuilder();
+			for (int i = 0; i < (histogram[b] * 40 + most - 1) / most; i++) {
+				bar.append('#');
+			}
+			sb.append(System.lineSeparator())
+					.append(String.format("  %s ms %7d %s", range, histogram[b], bar.toString()));
+		}
+		return sb.toString();
+	}
+
+}
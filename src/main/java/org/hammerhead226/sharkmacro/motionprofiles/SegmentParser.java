@@ -0,0 +1,93 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hammerhead226.sharkmacro.Codec;
+import org.hammerhead226.sharkmacro.Constants;
+import org.hammerhead226.sharkmacro.Parser;
+
+/**
+ * Reads and writes the shared segments of {@link SegmentedProfile}s. Each
+ * segment is a binary profile file in
+ * {@value org.hammerhead226.sharkmacro.Constants#PROFILE_SEGMENT_DIRECTORY},
+ * named by its identifier. Segments are loaded through
+ * {@link org.hammerhead226.sharkmacro.Parser Parser}'s cache, so a segment used
+ * by several profiles is decoded once and shared.
+ */
+final class SegmentParser extends Parser<ProfileData> {
+
+	/**
+	 * Segments are only stored in the binary format.
+	 */
+	private static final List<Codec<ProfileData>> CODECS = Arrays
+			.<Codec<ProfileData>>asList(new ProfileBinaryCodec());
+
+	static {
+		registerBundled(Constants.PROFILE_SEGMENT_DIRECTORY, SegmentParser::forFilename);
+	}
+
+	/**
+	 * Constructs a new {@link SegmentParser} object.
+	 * 
+	 * @param id
+	 *            identifier of the segment to read or write
+	 */
+	SegmentParser(String id) {
+		super(Constants.PROFILE_SEGMENT_DIRECTORY, "", id + Constants.BINARY_EXTENSION, CODECS);
+	}
+
+	/**
+	 * @param filename
+	 *            the name of a file in the segment directory
+	 * @return a parser for the file, whose name is normally the segment's
+	 *         identifier and extension
+	 */
+	static SegmentParser forFilename(String filename) {
+		return new SegmentParser(filename.endsWith(Constants.BINARY_EXTENSION)
+				? filename.substring(0, filename.length() - Constants.BINARY_EXTENSION.length())
+				: filename);
+	}
+
+	/**
+	 * @return the segment, from the cache if it has already been decoded, or
+	 *         {@code null} if it couldn't be read
+	 */
+	ProfileData load() {
+		return readFromFile();
+	}
+
+	/**
+	 * Writes a segment, unless it has already been saved. Segments are named by a
+	 * hash of their contents, so an existing file holds the same points.
+	 * 
+	 * @param segment
+	 *            the segment to write
+	 * @return {@code true} if the segment is saved, {@code false} if it couldn't
+	 *         be written
+	 */
+	boolean save(ProfileData segment) {
+		if (Files.exists(Paths.get(super.filename))) {
+			return true;
+		}
+		return writeToFile(segment);
+	}
+
+	@Override
+	protected long sizeOf(ProfileData segment) {
+		return ProfileParser.estimateSize(segment);
+	}
+
+	@Override
+	protected int pointCountOf(ProfileData segment) {
+		return segment.length;
+	}
+
+	@Override
+	protected double durationOf(ProfileData segment) {
+		return ProfileParser.totalDuration(segment);
+	}
+
+}
@@ -0,0 +1,316 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.hammerhead226.sharkmacro.Constants;
+
+/**
+ * A motion profile made of segments that may be shared with other profiles.
+ * Each segment is an immutable {@link ProfileData} identified by a hash of its
+ * contents, so routines that start with the same drive can reference the same
+ * segments, which are stored once and decoded once.
+ * <p>
+ * A profile decoded from a manifest holds only the identifiers and lengths of
+ * its segments, and looks each segment up through
+ * {@link org.hammerhead226.sharkmacro.Parser Parser}'s cache when its points
+ * are read. The cache is then the only thing holding a segment, so each
+ * segment is counted once against the cache's budget however many profiles
+ * use it, and a segment that has been evicted is read from disk again rather
+ * than kept alive by a profile. Only a profile returned by
+ * {@link #split(ProfileData)}, whose segments haven't been saved yet, holds its
+ * segments itself.
+ * <p>
+ * {@link #split(ProfileData)} cuts a profile where a rolling hash of the most
+ * recent points matches a pattern, rather than every fixed number of points. Cuts
+ * therefore depend only on nearby points, so two profiles that share a run of
+ * points get the same segments for that run, wherever it is in each profile.
+ * Segments are between
+ * {@value org.hammerhead226.sharkmacro.Constants#PROFILE_SEGMENT_MIN_POINTS}
+ * and {@value org.hammerhead226.sharkmacro.Constants#PROFILE_SEGMENT_MAX_POINTS}
+ * points long, and about
+ * {@value org.hammerhead226.sharkmacro.Constants#PROFILE_SEGMENT_AVERAGE_POINTS}
+ * on average.
+ * <p>
+ * As a {@link PointSource}, each read returns points from a single segment,
+ * without copying if a whole segment is read. A {@link ProfileHandler} reads
+ * the next segment as soon as the previous one runs out, so the Talons are fed
+ * through segment boundaries without a gap.
+ */
+public final class SegmentedProfile implements PointSource {
+
+	/**
+	 * Number of bytes of the content hash used to identify a segment.
+	 */
+	static final int ID_BYTES = 16;
+
+	/**
+	 * The number of points in each channel.
+	 */
+	public final int length;
+
+	/**
+	 * Identifier of each segment, a hash of its contents in hex.
+	 */
+	private final String[] ids;
+
+	/**
+	 * The segments, in order, if they haven't been saved, or {@code null} if
+	 * they are looked up through the cache.
+	 */
+	private final ProfileData[] unsaved;
+
+	/**
+	 * Index in the profile of the first point of each segment.
+	 */
+	private final int[] starts;
+
+	/**
+	 * The number of channels in each segment.
+	 */
+	private final int channels;
+
+	/**
+	 * Constructs a new {@link SegmentedProfile} whose segments are looked up
+	 * through the cache. The arrays must not be modified afterwards.
+	 *
+	 * @param ids
+	 *            the identifier of each saved segment
+	 * @param lengths
+	 *            the number of points in each segment, none zero
+	 * @param channels
+	 *            the number of channels in every segment
+	 */
+	SegmentedProfile(String[] ids, int[] lengths, int channels) {
+		this(ids, lengths, channels, null);
+	}
+
+	/**
+	 * Constructs a new {@link SegmentedProfile} holding segments that haven't
+	 * been saved. The arrays must not be modified afterwards.
+	 *
+	 * @param ids
+	 *            the identifier of each segment
+	 * @param segments
+	 *            the segments, in order, none empty and all with the same number
+	 *            of channels
+	 */
+	private SegmentedProfile(String[] ids, ProfileData[] segments) {
+		this(ids, lengthsOf(segments), segments.length == 0 ? 2 : segments[0].getChannelCount(), segments);
+		for (ProfileData segment : segments) {
+			if (segment.getChannelCount() != channels) {
+				throw new IllegalArgumentException("Segments must have the same number of channels");
+			}
+		}
+	}
+
+	private SegmentedProfile(String[] ids, int[] lengths, int channels, ProfileData[] unsaved) {
+		this.ids = ids;
+		this.unsaved = unsaved;
+		this.starts = new int[lengths.length];
+		this.channels = channels;
+
+		int start = 0;
+		for (int i = 0; i < lengths.length; i++) {
+			if (lengths[i] <= 0) {
+				throw new IllegalArgumentException("Segments must have points");
+			}
+			starts[i] = start;
+			start += lengths[i];
+		}
+		this.length = start;
+	}
+
+	/**
+	 * @param segments
+	 *            some segments
+	 * @return the number of points in each segment
+	 */
+	private static int[] lengthsOf(ProfileData[] segments) {
+		int[] lengths = new int[segments.length];
+		for (int i = 0; i < segments.length; i++) {
+			lengths[i] = segments[i].length;
+		}
+		return lengths;
+	}
+
+	/**
+	 * Splits a profile into segments.
+	 *
+	 * @param profile
+	 *            the profile to split
+	 * @return the segmented profile, which holds its segments, copies of the
+	 *         profile's points, until they are saved
+	 */
+	public static SegmentedProfile split(ProfileData profile) {
+		ArrayList<ProfileData> segments = new ArrayList<ProfileData>();
+		long mask = Constants.PROFILE_SEGMENT_AVERAGE_POINTS - 1;
+		long rolling = 0;
+		int segmentStart = 0;
+
+		for (int i = 0; i < profile.length; i++) {
+			rolling = (rolling << 1) + hashPoint(profile, i);
+			int size = i + 1 - segmentStart;
+			if ((size >= Constants.PROFILE_SEGMENT_MIN_POINTS && (rolling & mask) == 0)
+					|| size >= Constants.PROFILE_SEGMENT_MAX_POINTS) {
+				segments.add(profile.read(segmentStart, size));
+				segmentStart = i + 1;
+			}
+		}
+		if (segmentStart < profile.length) {
+			segments.add(profile.read(segmentStart, profile.length - segmentStart));
+		}
+
+		String[] ids = new String[segments.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = idOf(segments.get(i));
+		}
+		return new SegmentedProfile(ids, segments.toArray(new ProfileData[segments.size()]));
+	}
+
+	@Override
+	public int getLength() {
+		return length;
+	}
+
+	@Override
+	public int getChannelCount() {
+		return channels;
+	}
+
+	/**
+	 * @return the number of segments in the profile
+	 */
+	public int getSegmentCount() {
+		return ids.length;
+	}
+
+	/**
+	 * @param idx
+	 *            the segment to get
+	 * @return the segment's identifier, which is also its filename without an
+	 *         extension
+	 */
+	public String getSegmentId(int idx) {
+		return ids[idx];
+	}
+
+	/**
+	 * @param idx
+	 *            the segment to get
+	 * @return the number of points in the segment
+	 */
+	public int getSegmentLength(int idx) {
+		return (idx + 1 < starts.length ? starts[idx + 1] : length) - starts[idx];
+	}
+
+	/**
+	 * Gets a segment's points, from the cache, or from disk if it isn't cached.
+	 *
+	 * @param idx
+	 *            the segment to get
+	 * @return the segment's points
+	 * @throws IOException
+	 *             if the segment can't be read, or no longer matches this
+	 *             profile
+	 */
+	public ProfileData getSegment(int idx) throws IOException {
+		if (unsaved != null) {
+			return unsaved[idx];
+		}
+		ProfileData segment = new SegmentParser(ids[idx]).load();
+		if (segment == null) {
+			throw new IOException("Missing profile segment: " + ids[idx]);
+		}
+		if (segment.length != getSegmentLength(idx) || segment.getChannelCount() != channels) {
+			throw new IOException("Profile segment doesn't match manifest: " + ids[idx]);
+		}
+		return segment;
+	}
+
+	/**
+	 * Reads points from the segment holding point {@code start}, stopping at the
+	 * end of that segment.
+	 */
+	@Override
+	public ProfileData read(int start, int count) throws IOException {
+		if (start < 0 || start >= length || count <= 0) {
+			return ProfileData.fromRows(new double[channels][0][]);
+		}
+		int s = Arrays.binarySearch(starts, start);
+		if (s < 0) {
+			s = -s - 2;
+		}
+		int offset = start - starts[s];
+		return getSegment(s).read(offset, Math.min(count, getSegmentLength(s) - offset));
+	}
+
+	/**
+	 * @return a new {@link ProfileData} holding a copy of every point
+	 * @throws IOException
+	 *             if a segment can't be read
+	 */
+	public ProfileData toProfileData() throws IOException {
+		double[][][] rows = new double[channels][length][];
+		for (int s = 0; s < ids.length; s++) {
+			ProfileData segment = getSegment(s);
+			for (int c = 0; c < channels; c++) {
+				int i = starts[s];
+				for (double[] row : segment.toRows(c)) {
+					rows[c][i++] = row;
+				}
+			}
+		}
+		return ProfileData.fromRows(rows);
+	}
+
+	/**
+	 * @param profile
+	 *            a profile
+	 * @param idx
+	 *            the point to hash
+	 * @return a well-mixed hash of every value of the point
+	 */
+	private static long hashPoint(ProfileData profile, int idx) {
+		long h = profile.getDuration(idx);
+		for (int c = 0; c < profile.getChannelCount(); c++) {
+			h = h * 31 + Double.doubleToLongBits(profile.getPosition(c, idx));
+			h = h * 31 + Double.doubleToLongBits(profile.getVelocity(c, idx));
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * @param segment
+	 *            a segment
+	 * @return the first {@value #ID_BYTES} bytes of the SHA-256 hash of the
+	 *         segment's binary encoding, as hex
+	 */
+	static String idOf(ProfileData segment) {
+		ByteBuffer encoded = new ProfileBinaryCodec().encode(segment);
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		digest.update(encoded);
+		byte[] hash = digest.digest();
+
+		StringBuilder sb = new StringBuilder(2 * ID_BYTES);
+		for (int i = 0; i < ID_BYTES; i++) {
+			sb.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,111 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.hammerhead226.sharkmacro.BinaryCodec;
+import org.hammerhead226.sharkmacro.Constants;
+
+/**
+ * Reads and writes the manifest of a {@link SegmentedProfile}, which lists its
+ * segments in order. The segments themselves are stored separately by
+ * {@link SegmentParser} and shared between profiles, so a manifest is only a
+ * few bytes per segment. After the common header, the body is laid out as
+ * follows:
+ * <p>
+ * <center>
+ * {@code [ <int point count>, <int channel count>, <int segment count>, <byte[16] segment id, int segment point count> per segment ]}
+ * </center>
+ * </p>
+ * Decoding checks every segment through
+ * {@link org.hammerhead226.sharkmacro.Parser Parser}'s cache, which leaves them
+ * cached for playback, but the decoded profile keeps only their identifiers
+ * and lengths. Segments that are already in memory for another profile are not
+ * read again.
+ */
+public class SegmentedProfileCodec extends BinaryCodec<SegmentedProfile> {
+
+	/**
+	 * Identifies a segmented profile manifest.
+	 */
+	public static final int MAGIC = 0x534D5053;
+
+	/**
+	 * The current body layout version.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Size of each segment's entry in the manifest, in bytes.
+	 */
+	private static final int ENTRY_BYTES = SegmentedProfile.ID_BYTES + Integer.BYTES;
+
+	/**
+	 * Constructs a new {@link SegmentedProfileCodec}.
+	 */
+	public SegmentedProfileCodec() {
+		super(MAGIC, VERSION);
+	}
+
+	@Override
+	public String getExtension() {
+		return Constants.SEGMENTED_EXTENSION;
+	}
+
+	@Override
+	protected int bodySize(SegmentedProfile profile) {
+		return 3 * Integer.BYTES + profile.getSegmentCount() * ENTRY_BYTES;
+	}
+
+	@Override
+	protected void encodeBody(SegmentedProfile profile, ByteBuffer buf) {
+		buf.putInt(profile.length);
+		buf.putInt(profile.getChannelCount());
+		buf.putInt(profile.getSegmentCount());
+		for (int i = 0; i < profile.getSegmentCount(); i++) {
+			String id = profile.getSegmentId(i);
+			for (int b = 0; b < SegmentedProfile.ID_BYTES; b++) {
+				buf.put((byte) Integer.parseInt(id.substring(2 * b, 2 * b + 2), 16));
+			}
+			buf.putInt(profile.getSegmentLength(i));
+		}
+	}
+
+	@Override
+	protected SegmentedProfile decodeBody(ByteBuffer buf, int version) throws IOException {
+		require(buf, 3 * Integer.BYTES);
+		int length = buf.getInt();
+		int channels = buf.getInt();
+		int count = buf.getInt();
+		require(buf, (long) count * ENTRY_BYTES);
+
+		String[] ids = new String[count];
+		int[] lengths = new int[count];
+		long total = 0;
+		for (int i = 0; i < count; i++) {
+			StringBuilder sb = new StringBuilder(2 * SegmentedProfile.ID_BYTES);
+			for (int b = 0; b < SegmentedProfile.ID_BYTES; b++) {
+				byte v = buf.get();
+				sb.append(Character.forDigit((v >> 4) & 0xF, 16)).append(Character.forDigit(v & 0xF, 16));
+			}
+			ids[i] = sb.toString();
+			lengths[i] = buf.getInt();
+			total += lengths[i];
+		}
+		if (total != length) {
+			throw new IOException("Profile segments don't add up to the profile's length");
+		}
+
+		SegmentedProfile profile;
+		try {
+			profile = new SegmentedProfile(ids, lengths, channels);
+		} catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage());
+		}
+		for (int i = 0; i < count; i++) {
+			profile.getSegment(i);
+		}
+		return profile;
+	}
+
+}
@@ -0,0 +1,227 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hammerhead226.sharkmacro.CatalogEntry;
+import org.hammerhead226.sharkmacro.Codec;
+import org.hammerhead226.sharkmacro.Constants;
+import org.hammerhead226.sharkmacro.Parser;
+
+import com.ctre.phoenix.motorcontrol.can.TalonSRX;
+
+import edu.wpi.first.wpilibj.DriverStation;
+
+/**
+ * Handles the reading and writing of {@link Profile}s stored as
+ * {@link SegmentedProfile}s. A saved profile is a small manifest
+ * ({@value org.hammerhead226.sharkmacro.Constants#SEGMENTED_EXTENSION}) in
+ * {@value org.hammerhead226.sharkmacro.Constants#SEGMENTED_PROFILE_STORAGE_DIRECTORY}
+ * listing segments stored in
+ * {@value org.hammerhead226.sharkmacro.Constants#PROFILE_SEGMENT_DIRECTORY}.
+ * Routines that share a run of points, such as a common opening drive, share
+ * the segments holding it: they are written once, and decoded once no matter
+ * how many routines are loaded.
+ */
+public final class SegmentedProfileParser extends Parser<SegmentedProfile> {
+
+	/**
+	 * Approximate JVM object layout sizes, used to estimate cache entry sizes.
+	 */
+	private static final int OBJECT_HEADER_BYTES = 16;
+
+	private static final int ARRAY_HEADER_BYTES = 16;
+
+	private static final int REFERENCE_BYTES = 8;
+
+	/**
+	 * Segmented profiles are only stored as manifests.
+	 */
+	private static final List<Codec<SegmentedProfile>> CODECS = Arrays
+			.<Codec<SegmentedProfile>>asList(new SegmentedProfileCodec());
+
+	static {
+		registerCatalog(Constants.SEGMENTED_PROFILE_STORAGE_DIRECTORY, Constants.PROFILE_DEFAULT_PREFIX,
+				SegmentedProfileParser::new);
+		// Segments are bundled first, so they are cached before the manifests that
+		// list them are decoded
+		registerBundled(Constants.PROFILE_SEGMENT_DIRECTORY, SegmentParser::forFilename);
+		registerBundled(Constants.SEGMENTED_PROFILE_STORAGE_DIRECTORY, SegmentedProfileParser::new);
+	}
+
+	/**
+	 * Constructs a new {@link SegmentedProfileParser} object.
+	 * 
+	 * @param filename
+	 *            name of the file to read or write a new file with
+	 */
+	public SegmentedProfileParser(String filename) {
+		super(Constants.SEGMENTED_PROFILE_STORAGE_DIRECTORY, Constants.PROFILE_DEFAULT_PREFIX, filename, CODECS);
+	}
+
+	/**
+	 * This method splits a {@link Profile} into segments, writes each segment
+	 * that isn't already stored, and then writes the profile's manifest.
+	 * 
+	 * @param profile
+	 *            the {@code Profile} instance to write to file
+	 * @return {@code true} if the file was written successfully, {@code false} if
+	 *         not
+	 */
+	public boolean writeToFile(Profile profile) {
+		SegmentedProfile segmented = SegmentedProfile.split(profile.getData());
+		try {
+			for (int i = 0; i < segmented.getSegmentCount(); i++) {
+				if (!new SegmentParser(segmented.getSegmentId(i)).save(segmented.getSegment(i))) {
+					return false;
+				}
+			}
+		} catch (IOException e) {
+			DriverStation.getInstance();
+			DriverStation.reportError("Couldn't save profile segment: " + e.getMessage(), false);
+			return false;
+		}
+		return super.writeToFile(segmented);
+	}
+
+	/**
+	 * This method gets the decoded profile from
+	 * {@link org.hammerhead226.sharkmacro.Parser Parser} and binds it to the given
+	 * Talons and PID slots in a new {@link Profile} instance. The profile's
+	 * segments are shared with every other profile that uses them, and the
+	 * profile is executed by reading from them in turn, without joining them
+	 * into one array.
+	 * 
+	 * @return a new {@code Profile} instance
+	 */
+	public Profile toObject(TalonSRX leftTalon, TalonSRX rightTalon, int leftPidSlotIdx, int rightPidSlotIdx) {
+		return toObject(new TalonSRX[] { leftTalon, rightTalon }, new int[] { leftPidSlotIdx, rightPidSlotIdx });
+	}
+
+	/**
+	 * Binds the saved profile to any number of Talons, one for each channel of
+	 * the profile, as {@link #toObject(TalonSRX, TalonSRX, int, int)} does for a
+	 * drivetrain.
+	 * 
+	 * @param talons
+	 *            the Talon to execute each channel with
+	 * @param pidSlotIdxs
+	 *            the PID slot to execute each channel with
+	 * @return a new {@code Profile} instance
+	 */
+	public Profile toObject(TalonSRX[] talons, int[] pidSlotIdxs) {
+		SegmentedProfile decoded = readFromFile();
+
+		if (decoded == null) {
+			DriverStation.getInstance();
+			DriverStation.reportError("Tried to load nonexistant Profile from name: " + super.filename, false);
+			return new Profile(ProfileData.fromRows(new double[0][0], new double[0][0]), talons, pidSlotIdxs);
+		}
+
+		return new Profile(decoded, talons, pidSlotIdxs);
+	}
+
+	/**
+	 * Cache a saved profile, along with each of its segments.
+	 * 
+	 * @param filename
+	 *            the name of the profile to cache
+	 */
+	public static void cache(String filename) {
+		new SegmentedProfileParser(filename).cache();
+	}
+
+	/**
+	 * Remove a profile's manifest from the cache, so it is read from disk again
+	 * the next time it is loaded. Its segments stay cached, since they can't
+	 * change without changing their names.
+	 * 
+	 * @param filename
+	 *            the name of the profile to remove
+	 */
+	public static void invalidate(String filename) {
+		new SegmentedProfileParser(filename).invalidate();
+	}
+
+	/**
+	 * Cache all profiles in the segmented profile storage directory.
+	 */
+	public static void cacheAll() {
+		Parser.cacheAll(Constants.SEGMENTED_PROFILE_STORAGE_DIRECTORY, SegmentedProfileParser::new);
+	}
+
+	/**
+	 * Estimates the heap used by the manifest. A decoded profile holds only the
+	 * identifiers of its segments, which are cached as entries of their own, so
+	 * shared segments are only counted once.
+	 */
+	@Override
+	protected long sizeOf(SegmentedProfile profile) {
+		int segments = profile.getSegmentCount();
+		return OBJECT_HEADER_BYTES + ARRAY_HEADER_BYTES + (long) segments * REFERENCE_BYTES
+				+ ARRAY_HEADER_BYTES + (long) segments * Integer.BYTES
+				+ (long) segments * (OBJECT_HEADER_BYTES + ARRAY_HEADER_BYTES + 2L * SegmentedProfile.ID_BYTES);
+	}
+
+	/**
+	 * @return the number of points in each side of the profile
+	 */
+	@Override
+	protected int pointCountOf(SegmentedProfile profile) {
+		return profile.length;
+	}
+
+	/**
+	 * @return the sum of the durations of every point, in seconds, or
+	 *         {@code NaN} if a segment can't be read
+	 */
+	@Override
+	protected double durationOf(SegmentedProfile profile) {
+		double seconds = 0;
+		try {
+			for (int i = 0; i < profile.getSegmentCount(); i++) {
+				seconds += ProfileParser.totalDuration(profile.getSegment(i));
+			}
+		} catch (IOException e) {
+			return Double.NaN;
+		}
+		return seconds;
+	}
+
+	/**
+	 * Lists the saved profiles in the segmented profile storage directory,
+	 * ordered by number.
+	 * 
+	 * @return every saved segmented profile
+	 */
+	public static List<CatalogEntry> getCatalog() {
+		return getCatalog(Constants.SEGMENTED_PROFILE_STORAGE_DIRECTORY, Constants.PROFILE_DEFAULT_PREFIX);
+	}
+
+	/**
+	 * This method generates a new filename to be used for saving a new file. For
+	 * example, if the newest file in the storage directory is
+	 * {@code prefix0003.sms}, the method will return {@code prefix0004.sms}.
+	 * 
+	 * @return a new complete filename in the prefix + number naming convention
+	 */
+	public static String getNewFilename() {
+		return Constants.PROFILE_DEFAULT_PREFIX
+				+ String.format("%04d",
+						findLatestNumberedFile(Constants.SEGMENTED_PROFILE_STORAGE_DIRECTORY,
+								Constants.PROFILE_DEFAULT_PREFIX) + 1)
+				+ Constants.SEGMENTED_EXTENSION;
+	}
+
+	/**
+	 * This method finds the newest file named with prefix + number naming
+	 * convention in the storage directory.
+	 * 
+	 * @return the complete filename of the latest (highest numbered) file in the
+	 *         storage directory
+	 */
+	public static String getNewestFilename() {
+		return getNewestFilename(Constants.SEGMENTED_PROFILE_STORAGE_DIRECTORY, Constants.PROFILE_DEFAULT_PREFIX);
+	}
+}
@@ -0,0 +1,122 @@
+package org.hammerhead226.sharkmacro.motionprofiles;
+
+import com.ctre.phoenix.motion.TrajectoryPoint;
+
+/**
+ * Points of a motion profile compiled into {@link TrajectoryPoint}s, ready to
+ * be pushed to the Talons as they are. Every field, including the PID slot
+ * and the flags marking the first and last point, is set when the points are
+ * compiled, so a {@link ProfileHandler} filling the Talons' buffers only pushes
+ * points.
+ * <p>
+ * The stream holds one chunk of a profile at a time. Its points are reused
+ * for each chunk compiled into it, so streaming a long profile allocates no
+ * points after the first chunk. This is safe because a Talon copies a point
+ * into its own buffer when it is pushed.
+ */
+final class TrajectoryStream {
+
+	/**
+	 * The compiled points, indexed by channel and then point. Only the first
+	 * {@link #length} points of each channel are part of the current chunk.
+	 */
+	private TrajectoryPoint[][] points;
+
+	/**
+	 * PID slot of each channel.
+	 */
+	private final int[] pidSlotIdxs;
+
+	/**
+	 * Number of points in the current chunk.
+	 */
+	private int length = 0;
+
+	/**
+	 * Constructs a new, empty {@link TrajectoryStream}.
+	 *
+	 * @param pidSlotIdxs
+	 *            the PID slot to execute each channel with
+	 */
+	TrajectoryStream(int[] pidSlotIdxs) {
+		this.pidSlotIdxs = pidSlotIdxs.clone();
+		this.points = new TrajectoryPoint[pidSlotIdxs.length][0];
+	}
+
+	/**
+	 * Compiles a chunk of a profile, replacing the previous chunk.
+	 *
+	 * @param chunk
+	 *            the points of the chunk
+	 * @param chunkStart
+	 *            index in the profile of the chunk's first point
+	 * @param profileLength
+	 *            number of points in the whole profile
+	 */
+	void compile(ProfileData chunk, int chunkStart, int profileLength) {
+		if (points[0].length < chunk.length) {
+			allocate(chunk.length);
+		}
+		for (int c = 0; c < points.length; c++) {
+			double[] positions = chunk.positionColumn(c);
+			double[] velocities = chunk.velocityColumn(c);
+			int[] durations = chunk.durationColumn();
+			TrajectoryPoint[] channel = points[c];
+			for (int i = 0; i < chunk.length; i++) {
+				TrajectoryPoint p = channel[i];
+				p.position = positions[i];
+				p.velocity = velocities[i];
+				p.timeDur = durations[i];
+				p.zeroPos = false;
+				p.isLastPoint = false;
+			}
+			if (chunkStart == 0 && chunk.length > 0) {
+				channel[0].zeroPos = true;
+			}
+			if (chunkStart + chunk.length == profileLength && chunk.length > 0) {
+				channel[chunk.length - 1].isLastPoint = true;
+			}
+		}
+		this.length = chunk.length;
+	}
+
+	/**
+	 * @return the number of points in the current chunk
+	 */
+	int getLength() {
+		return length;
+	}
+
+	/**
+	 * @param channel
+	 *            the channel to get
+	 * @return the compiled points of the channel, of which the first
+	 *         {@link #getLength()} are part of the current chunk. Must not be
+	 *         modified.
+	 */
+	TrajectoryPoint[] getPoints(int channel) {
+		return points[channel];
+	}
+
+	/**
+	 * Replaces the points with enough new ones to hold a chunk, setting the
+	 * fields that are the same for every point.
+	 *
+	 * @param capacity
+	 *            number of points in each channel
+	 */
+	private void allocate(int capacity) {
+		TrajectoryPoint[][] grown = new TrajectoryPoint[points.length][capacity];
+		for (int c = 0; c < grown.length; c++) {
+			for (int i = 0; i < capacity; i++) {
+				TrajectoryPoint p = new TrajectoryPoint();
+				p.headingDeg = 0;
+				p.profileSlotSelect0 = pidSlotIdxs[c];
+				p.profileSlotSelect1 = 0;
+				grown[c][i] = p;
+			}
+		}
+		points = grown;
+	}
+
+}
@@ -0,0 +1,147 @@
+package org.hammerhead226.sharkmacro.tools;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hammerhead226.sharkmacro.Constants;
+
+/**
+ * The result of checking, and possibly converting, one file with
+ * {@link RoutineTool}.
+ */
+final class FileReport {
+
+	/**
+	 * The file that was checked, relative to the path it was found under.
+	 */
+	final Path file;
+
+	/**
+	 * What the file holds, such as {@code "profile"}.
+	 */
+	String kind = "unknown";
+
+	/**
+	 * Number of points or actions in the file.
+	 */
+	int points = 0;
+
+	/**
+	 * Length of the routine, in seconds.
+	 */
+	double duration = 0;
+
+	/**
+	 * Size of the file, in bytes.
+	 */
+	long bytes = 0;
+
+	/**
+	 * Time taken to read the file, in milliseconds.
+	 */
+	double readMs = 0;
+
+	/**
+	 * The file the routine was converted to, or {@code null} if it wasn't.
+	 */
+	Path convertedTo = null;
+
+	/**
+	 * Problems that make the file unusable.
+	 */
+	final List<String> errors = new ArrayList<String>();
+
+	/**
+	 * Problems that may make the routine behave unexpectedly.
+	 */
+	final List<String> warnings = new ArrayList<String>();
+
+	/**
+	 * Number of errors not kept in {@link #errors}.
+	 */
+	private int moreErrors = 0;
+
+	/**
+	 * Number of warnings not kept in {@link #warnings}.
+	 */
+	private int moreWarnings = 0;
+
+	/**
+	 * @param file
+	 *            the file being checked, relative to the path it was found under
+	 */
+	FileReport(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Records a problem that makes the file unusable.
+	 *
+	 * @param message
+	 *            description of the problem
+	 */
+	void error(String message) {
+		if (errors.size() < Constants.TOOL_MAX_REPORTED_ISSUES) {
+			errors.add(message);
+		} else {
+			moreErrors++;
+		}
+	}
+
+	/**
+	 * Records a problem that may make the routine behave unexpectedly.
+	 *
+	 * @param message
+	 *            description of the problem
+	 */
+	void warning(String message) {
+		if (warnings.size() < Constants.TOOL_MAX_REPORTED_ISSUES) {
+			warnings.add(message);
+		} else {
+			moreWarnings++;
+		}
+	}
+
+	/**
+	 * @return {@code true} if any errors were found
+	 */
+	boolean hasErrors() {
+		return !errors.isEmpty();
+	}
+
+	/**
+	 * @return {@code true} if any warnings were found
+	 */
+	boolean hasWarnings() {
+		return !warnings.isEmpty();
+	}
+
+	/**
+	 * @return the statistics line for the file, followed by a line for each
+	 *         problem
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-40s %-12s %7d pts %8.2f s %9.1f KB  read %6.2f ms", file, kind, points, duration,
+				bytes / 1024.0, readMs));
+		if (convertedTo != null) {
+			sb.append("  -> ").append(convertedTo);
+		}
+		for (String e : errors) {
+			sb.append(System.lineSeparator()).append("    error: ").append(e);
+		}
+		if (moreErrors > 0) {
+			sb.append(System.lineSeparator()).append("    ... and ").append(moreErrors).append(" more errors");
+		}
+		for (String w : warnings) {
+			sb.append(System.lineSeparator()).append("    warning: ").append(w);
+		}
+		if (moreWarnings > 0) {
+			sb.append(System.lineSeparator()).append("    ... and ").append(moreWarnings).append(" more warnings");
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,420 @@
+package org.hammerhead226.sharkmacro.tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hammerhead226.sharkmacro.BinaryCodec;
+import org.hammerhead226.sharkmacro.CSVStreamReader;
+import org.hammerhead226.sharkmacro.Constants;
+import org.hammerhead226.sharkmacro.actions.Action;
+import org.hammerhead226.sharkmacro.actions.ActionListBinaryCodec;
+import org.hammerhead226.sharkmacro.motionprofiles.ProfileBinaryCodec;
+import org.hammerhead226.sharkmacro.motionprofiles.ProfileCompressedCodec;
+import org.hammerhead226.sharkmacro.motionprofiles.ProfileData;
+
+/**
+ * Checks one saved profile or action list, and converts csv files to a binary
+ * format. Only the codecs are used, not the robot-side parsers, so this runs
+ * on a desktop without WPILib's native libraries.
+ * <p>
+ * csv files are read leniently, one field at a time, so every malformed row is
+ * reported rather than just the first. A file is only converted if it has no
+ * errors.
+ */
+final class RoutineCheck {
+
+	/**
+	 * Number of fields in a line of a profile csv file of two channels, expected
+	 * if the first line can't be used.
+	 */
+	private static final int PROFILE_FIELDS = 5;
+
+	/**
+	 * Number of fields in a line of an action list csv file.
+	 */
+	private static final int ACTION_FIELDS = 3;
+
+	/**
+	 * Names of the channels of a profile, used in messages.
+	 */
+	private static final String[] SIDES = { "left", "right" };
+
+	private RoutineCheck() {
+	}
+
+	/**
+	 * Checks a file and, if it has no errors and {@code output} isn't
+	 * {@code null}, converts it if it is a csv file or copies it otherwise.
+	 *
+	 * @param file
+	 *            the file to check
+	 * @param name
+	 *            the file's name relative to the path it was found under, used in
+	 *            the report
+	 * @param output
+	 *            the file to write the converted or copied routine to, without an
+	 *            extension, or {@code null} to only check the file
+	 * @param compress
+	 *            whether to convert profiles to the compressed format rather than
+	 *            the binary format
+	 * @return the report for the file
+	 */
+	static FileReport run(Path file, Path name, Path output, boolean compress) {
+		FileReport report = new FileReport(name);
+		try {
+			report.bytes = Files.size(file);
+			String filename = file.getFileName().toString().toLowerCase();
+			long start = System.nanoTime();
+
+			if (filename.endsWith(Constants.CSV_EXTENSION)) {
+				if (isProfileCSV(file)) {
+					ProfileData profile = readProfileCSV(file, report);
+					report.readMs = (System.nanoTime() - start) / 1e6;
+					checkProfile(profile, report);
+					if (output != null && !report.hasErrors()) {
+						if (compress) {
+							report.convertedTo = withExtension(output, Constants.COMPRESSED_EXTENSION);
+							new ProfileCompressedCodec().write(create(report.convertedTo), profile);
+						} else {
+							report.convertedTo = withExtension(output, Constants.BINARY_EXTENSION);
+							new ProfileBinaryCodec().write(create(report.convertedTo), profile);
+						}
+					}
+				} else {
+					List<Action> actions = readActionListCSV(file, report);
+					report.readMs = (System.nanoTime() - start) / 1e6;
+					checkActionList(actions, report);
+					if (output != null && !report.hasErrors()) {
+						report.convertedTo = withExtension(output, Constants.BINARY_EXTENSION);
+						new ActionListBinaryCodec().write(create(report.convertedTo), actions);
+					}
+				}
+			} else {
+				int magic = readMagic(file);
+				if (magic == ProfileBinaryCodec.MAGIC) {
+					ProfileData profile = new ProfileBinaryCodec().read(file);
+					report.readMs = (System.nanoTime() - start) / 1e6;
+					checkProfile(profile, report);
+				} else if (magic == ProfileCompressedCodec.MAGIC) {
+					ProfileData profile = new ProfileCompressedCodec().read(file);
+					report.readMs = (System.nanoTime() - start) / 1e6;
+					checkProfile(profile, report);
+				} else if (magic == ActionListBinaryCodec.MAGIC) {
+					List<Action> actions = new ActionListBinaryCodec().read(file);
+					report.readMs = (System.nanoTime() - start) / 1e6;
+					checkActionList(actions, report);
+				} else {
+					report.error("not a SharkMacro binary file");
+				}
+				if (output != null && !report.hasErrors()) {
+					report.convertedTo = withExtension(output, filename.substring(filename.lastIndexOf('.')));
+					Files.copy(file, create(report.convertedTo), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			report.error(e.toString());
+		}
+		return report;
+	}
+
+	/**
+	 * @param file
+	 *            a csv file
+	 * @return {@code true} if the first field of the file is a number, as in a
+	 *         profile, rather than a command name, as in an action list
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	private static boolean isProfileCSV(Path file) throws IOException {
+		try (CSVStreamReader reader = new CSVStreamReader(file)) {
+			if (!reader.nextRow()) {
+				return true;
+			}
+			return parse(reader.nextString()) != null;
+		}
+	}
+
+	/**
+	 * Reads a profile csv file, reporting every malformed row.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @param report
+	 *            the report to add problems to
+	 * @return the well-formed rows of the file
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	private static ProfileData readProfileCSV(Path file, FileReport report) throws IOException {
+		ArrayList<ArrayList<double[]>> channels = null;
+		int[] columnLengths = null;
+		int expected = 0;
+
+		try (CSVStreamReader reader = new CSVStreamReader(file)) {
+			while (reader.nextRow()) {
+				ArrayList<String> row = new ArrayList<String>();
+				while (reader.hasNextField()) {
+					row.add(reader.nextString());
+				}
+				if (channels == null) {
+					// The first line sets the number of channels
+					expected = row.size() >= 3 && row.size() % 2 == 1
+							&& row.size() <= 2 * Constants.PROFILE_MAX_CHANNELS + 1 ? row.size() : PROFILE_FIELDS;
+					channels = new ArrayList<ArrayList<double[]>>();
+					for (int c = 0; c < (expected - 1) / 2; c++) {
+						channels.add(new ArrayList<double[]>());
+					}
+					columnLengths = new int[expected];
+				}
+
+				double[] values = new double[expected];
+				boolean malformed = false;
+				for (int f = 0; f < Math.min(expected, row.size()); f++) {
+					Double value = parse(row.get(f));
+					if (value == null) {
+						report.error("row " + reader.getRowNumber() + ": field " + (f + 1) + " isn't a number: \""
+								+ row.get(f) + "\"");
+						malformed = true;
+					} else {
+						values[f] = value;
+						columnLengths[f]++;
+					}
+				}
+				if (row.size() != expected) {
+					report.error("row " + reader.getRowNumber() + ": has " + row.size() + " fields, expected "
+							+ expected);
+					malformed = true;
+				}
+				if (!malformed) {
+					for (int c = 0; c < channels.size(); c++) {
+						channels.get(c).add(new double[] { values[2 * c], values[2 * c + 1], values[expected - 1] });
+					}
+				}
+			}
+		}
+
+		if (channels == null) {
+			return ProfileData.fromRows(new double[0][0], new double[0][0]);
+		}
+		for (int c = 1; c < channels.size(); c++) {
+			if (columnLengths[2 * c] != columnLengths[0] || columnLengths[2 * c + 1] != columnLengths[1]) {
+				report.error(sideOf(0, channels.size()) + " and " + sideOf(c, channels.size())
+						+ " columns have unequal lengths: " + columnLengths[0] + " and " + columnLengths[2 * c]
+						+ " positions, " + columnLengths[1] + " and " + columnLengths[2 * c + 1] + " velocities");
+			}
+		}
+
+		double[][][] rows = new double[channels.size()][][];
+		for (int c = 0; c < rows.length; c++) {
+			rows[c] = channels.get(c).toArray(new double[channels.get(c).size()][]);
+		}
+		return ProfileData.fromRows(rows);
+	}
+
+	/**
+	 * @param channel
+	 *            a channel of a profile
+	 * @param channels
+	 *            the number of channels in the profile
+	 * @return the name of the channel to use in messages
+	 */
+	private static String sideOf(int channel, int channels) {
+		return channels == SIDES.length ? SIDES[channel] : "channel " + channel;
+	}
+
+	/**
+	 * Reads an action list csv file, reporting every malformed row.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @param report
+	 *            the report to add problems to
+	 * @return the well-formed actions of the file
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	private static List<Action> readActionListCSV(Path file, FileReport report) throws IOException {
+		ArrayList<Action> actions = new ArrayList<Action>();
+
+		try (CSVStreamReader reader = new CSVStreamReader(file)) {
+			while (reader.nextRow()) {
+				String[] fields = new String[ACTION_FIELDS];
+				int count = 0;
+				while (reader.hasNextField()) {
+					String field = reader.nextString();
+					if (count < ACTION_FIELDS) {
+						fields[count] = field;
+					}
+					count++;
+				}
+				if (count != ACTION_FIELDS) {
+					report.error("row " + reader.getRowNumber() + ": has " + count + " fields, expected "
+							+ ACTION_FIELDS);
+					continue;
+				}
+				Double startTime = parse(fields[1]);
+				Double endTime = parse(fields[2]);
+				if (fields[0].isEmpty() || startTime == null || endTime == null) {
+					report.error("row " + reader.getRowNumber() + ": expected a command name and two times");
+					continue;
+				}
+				actions.add(new Action(fields[0], startTime, endTime));
+			}
+		}
+
+		return actions;
+	}
+
+	/**
+	 * Fills in the statistics of a profile and reports impossible values and
+	 * encoder glitches. A glitch is a jump in position faster than
+	 * {@value org.hammerhead226.sharkmacro.Constants#TOOL_MAX_ENCODER_REVS_PER_SECOND}
+	 * revolutions per second.
+	 *
+	 * @param profile
+	 *            the profile to check
+	 * @param report
+	 *            the report to fill in
+	 */
+	private static void checkProfile(ProfileData profile, FileReport report) {
+		report.kind = "profile";
+		report.points = profile.length;
+		if (profile.length == 0) {
+			report.warning("profile has no points");
+			return;
+		}
+
+		long totalMs = 0;
+		for (int i = 0; i < profile.length; i++) {
+			int duration = profile.getDuration(i);
+			if (duration <= 0) {
+				report.error("point " + i + ": duration is " + duration + " ms");
+			}
+			totalMs += duration;
+		}
+		report.duration = totalMs / 1000.0;
+
+		for (int c = 0; c < profile.getChannelCount(); c++) {
+			String side = sideOf(c, profile.getChannelCount());
+			for (int i = 0; i < profile.length; i++) {
+				double position = profile.getPosition(c, i);
+				double velocity = profile.getVelocity(c, i);
+				if (!Double.isFinite(position) || !Double.isFinite(velocity)) {
+					report.error(side + " point " + i + ": value isn't a finite number");
+					continue;
+				}
+				if (i == 0) {
+					continue;
+				}
+				double limit = Constants.ENCODER_COUNTS_PER_REV * Constants.TOOL_MAX_ENCODER_REVS_PER_SECOND
+						* Math.max(1, profile.getDuration(i)) / 1000.0;
+				double jump = Math.abs(position - profile.getPosition(c, i - 1));
+				if (jump > limit) {
+					report.warning(side + " point " + i + ": possible encoder glitch, position jumps "
+							+ Math.round(jump) + " counts");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills in the statistics of an action list and reports actions that can't
+	 * run as recorded.
+	 *
+	 * @param actions
+	 *            the action list to check
+	 * @param report
+	 *            the report to fill in
+	 */
+	private static void checkActionList(List<Action> actions, FileReport report) {
+		report.kind = "action list";
+		report.points = actions.size();
+		if (actions.isEmpty()) {
+			report.warning("action list has no actions");
+		}
+
+		for (int i = 0; i < actions.size(); i++) {
+			Action a = actions.get(i);
+			if (a.getStartTime() < 0) {
+				report.warning("action " + i + " (" + a.getCommandName() + "): starts before time 0");
+			}
+			if (a.getEndTime() < a.getStartTime()) {
+				report.error("action " + i + " (" + a.getCommandName() + "): ends before it starts");
+			}
+			report.duration = Math.max(report.duration, a.getEndTime());
+		}
+	}
+
+	/**
+	 * @param field
+	 *            a csv field
+	 * @return the field's number, or {@code null} if it isn't a number
+	 */
+	private static Double parse(String field) {
+		try {
+			return Double.valueOf(field.trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param file
+	 *            a file
+	 * @return the little-endian magic number at the start of the file, or
+	 *         {@code 0} if the file is too short to have a header
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	private static int readMagic(Path file) throws IOException {
+		if (Files.size(file) < BinaryCodec.HEADER_BYTES) {
+			return 0;
+		}
+		ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (buf.hasRemaining()) {
+				if (channel.read(buf) < 0) {
+					return 0;
+				}
+			}
+		}
+		return buf.getInt(0);
+	}
+
+	/**
+	 * @param file
+	 *            a file, without an extension
+	 * @param extension
+	 *            the extension to add, including the leading dot
+	 * @return the file with the extension added
+	 */
+	private static Path withExtension(Path file, String extension) {
+		return file.resolveSibling(file.getFileName().toString() + extension);
+	}
+
+	/**
+	 * Creates the parent directories of a file.
+	 *
+	 * @param file
+	 *            the file about to be written
+	 * @return the file
+	 * @throws IOException
+	 *             if the directories can't be created
+	 */
+	private static Path create(Path file) throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		return file;
+	}
+
+}
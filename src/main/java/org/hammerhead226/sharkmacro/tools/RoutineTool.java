@@ -0,0 +1,255 @@
+package org.hammerhead226.sharkmacro.tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.hammerhead226.sharkmacro.Constants;
+
+/**
+ * Desktop command-line tool for checking and converting saved profiles and
+ * action lists. Files are processed in parallel on a
+ * {@link java.util.concurrent.ForkJoinPool ForkJoinPool}.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * RoutineTool check [--threads n] &lt;file or directory&gt;...
+ * RoutineTool convert [--format bin|smz] [--out directory] [--threads n] &lt;file or directory&gt;...
+ * </pre>
+ *
+ * {@code check} reads every {@code .csv}, {@code .bin} and {@code .smz} file
+ * under the given paths and prints statistics for each, along with malformed
+ * rows, columns of unequal length, impossible values and encoder glitches.
+ * {@code convert} does the same and also converts each csv file without errors
+ * to the binary format, or for profiles, the compressed format if
+ * {@code --format smz} is given. Converted files are written next to the
+ * originals, or under {@code --out} with the same paths relative to the
+ * parent of the path given, in which case files that are already binary are
+ * copied there as well. For example, {@code convert --out build profiles}
+ * converts {@code profiles/profile0001.csv} to
+ * {@code build/profiles/profile0001.bin}.
+ * <p>
+ * The exit status is {@code 0} if no file had errors, {@code 1} if any did and
+ * {@code 2} if the arguments were invalid.
+ */
+public final class RoutineTool {
+
+	private RoutineTool() {
+	}
+
+	/**
+	 * Runs the tool.
+	 *
+	 * @param args
+	 *            the command-line arguments
+	 */
+	public static void main(String[] args) {
+		System.exit(run(args));
+	}
+
+	/**
+	 * Runs the tool without exiting.
+	 *
+	 * @param args
+	 *            the command-line arguments
+	 * @return the exit status
+	 */
+	public static int run(String[] args) {
+		if (args.length == 0 || !(args[0].equals("check") || args[0].equals("convert"))) {
+			return usage();
+		}
+		boolean convert = args[0].equals("convert");
+		boolean compress = false;
+		Path out = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		ArrayList<Path> roots = new ArrayList<Path>();
+
+		try {
+			for (int i = 1; i < args.length; i++) {
+				switch (args[i]) {
+				case "--format":
+					String format = args[++i];
+					if (!format.equals("bin") && !format.equals("smz")) {
+						return usage();
+					}
+					compress = format.equals("smz");
+					break;
+				case "--out":
+					out = Paths.get(args[++i]);
+					break;
+				case "--threads":
+					threads = Math.max(1, Integer.parseInt(args[++i]));
+					break;
+				default:
+					roots.add(Paths.get(args[i]));
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			return usage();
+		}
+		if (roots.isEmpty() || (!convert && (out != null || compress))) {
+			return usage();
+		}
+
+		ArrayList<Job> jobs = new ArrayList<Job>();
+		for (Path root : roots) {
+			try {
+				jobs.addAll(findJobs(root, convert, out));
+			} catch (IOException e) {
+				System.err.println("Unable to list " + root + ": " + e);
+				return 1;
+			}
+		}
+
+		long start = System.nanoTime();
+		List<FileReport> reports;
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			reports = jobs.isEmpty() ? new ArrayList<FileReport>()
+					: pool.invoke(new CheckTask(jobs, 0, jobs.size(), compress));
+		} finally {
+			pool.shutdown();
+		}
+		double elapsedMs = (System.nanoTime() - start) / 1e6;
+
+		int profiles = 0, actionLists = 0, withErrors = 0, withWarnings = 0, converted = 0;
+		for (FileReport r : reports) {
+			System.out.println(r);
+			profiles += r.kind.equals("profile") ? 1 : 0;
+			actionLists += r.kind.equals("action list") ? 1 : 0;
+			withErrors += r.hasErrors() ? 1 : 0;
+			withWarnings += r.hasWarnings() ? 1 : 0;
+			converted += r.convertedTo != null ? 1 : 0;
+		}
+		System.out.println(String.format(
+				"%d files (%d profiles, %d action lists) in %.1f ms on %d threads: %d with errors, %d with warnings, %d converted",
+				reports.size(), profiles, actionLists, elapsedMs, threads, withErrors, withWarnings, converted));
+
+		return withErrors == 0 ? 0 : 1;
+	}
+
+	/**
+	 * Lists the routine files under a path, skipping hidden files such as
+	 * catalogs and temporary files.
+	 *
+	 * @param root
+	 *            a file or directory
+	 * @param convert
+	 *            whether csv files should be converted
+	 * @param out
+	 *            the directory to write converted and copied files to, or
+	 *            {@code null} to write converted files next to the originals
+	 * @return a job for each file, sorted by path
+	 * @throws IOException
+	 *             if the directory can't be listed
+	 */
+	private static List<Job> findJobs(Path root, boolean convert, Path out) throws IOException {
+		Path absolute = root.toAbsolutePath().normalize();
+		Path base = absolute.getParent() == null ? absolute : absolute.getParent();
+		try (Stream<Path> files = Files.walk(absolute)) {
+			return files.filter(Files::isRegularFile).filter(RoutineTool::isRoutineFile).sorted().map(file -> {
+				Path name = base.relativize(file);
+				Path output = null;
+				boolean csv = file.getFileName().toString().toLowerCase().endsWith(Constants.CSV_EXTENSION);
+				if (convert && (csv || out != null)) {
+					Path target = out == null ? file : out.resolve(name.toString());
+					String filename = target.getFileName().toString();
+					output = target.resolveSibling(filename.substring(0, filename.lastIndexOf('.')));
+				}
+				return new Job(file, name, output);
+			}).collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * @param file
+	 *            a file
+	 * @return {@code true} if the file isn't hidden and has the extension of a
+	 *         routine file
+	 */
+	private static boolean isRoutineFile(Path file) {
+		String name = file.getFileName().toString().toLowerCase();
+		return !name.startsWith(".") && (name.endsWith(Constants.CSV_EXTENSION)
+				|| name.endsWith(Constants.BINARY_EXTENSION) || name.endsWith(Constants.COMPRESSED_EXTENSION));
+	}
+
+	/**
+	 * @return the exit status for invalid arguments, after printing the usage
+	 */
+	private static int usage() {
+		System.err.println("Usage:");
+		System.err.println("  RoutineTool check [--threads n] <file or directory>...");
+		System.err.println(
+				"  RoutineTool convert [--format bin|smz] [--out directory] [--threads n] <file or directory>...");
+		return 2;
+	}
+
+	/**
+	 * A file to check, and where to write it if it is converted.
+	 */
+	private static class Job {
+
+		final Path file;
+
+		final Path name;
+
+		final Path output;
+
+		Job(Path file, Path name, Path output) {
+			this.file = file;
+			this.name = name;
+			this.output = output;
+		}
+	}
+
+	/**
+	 * Checks a range of {@link Job}s, splitting the range in half until each task
+	 * has a single file.
+	 */
+	private static class CheckTask extends RecursiveTask<List<FileReport>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Job> jobs;
+
+		private final int from;
+
+		private final int to;
+
+		private final boolean compress;
+
+		CheckTask(List<Job> jobs, int from, int to, boolean compress) {
+			this.jobs = jobs;
+			this.from = from;
+			this.to = to;
+			this.compress = compress;
+		}
+
+		@Override
+		protected List<FileReport> compute() {
+			if (to - from == 1) {
+				Job job = jobs.get(from);
+				ArrayList<FileReport> reports = new ArrayList<FileReport>(1);
+				reports.add(RoutineCheck.run(job.file, job.name, job.output, compress));
+				return reports;
+			}
+
+			int mid = (from + to) >>> 1;
+			CheckTask left = new CheckTask(jobs, from, mid, compress);
+			CheckTask right = new CheckTask(jobs, mid, to, compress);
+			left.fork();
+			List<FileReport> reports = new ArrayList<FileReport>(right.compute());
+			reports.addAll(0, left.join());
+			return reports;
+		}
+	}
+
+}